@@ -0,0 +1,26 @@
+package pl.marcinchwedczuk.reng.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs benchmarks like the JMH main, but always with the GC profiler,
+ * which reports allocation rate per operation.
+ * Accepts the usual JMH command line, e.g. "Redos -p policy=ALL,NONE".
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+        CommandLineOptions cmdOptions = new CommandLineOptions(args);
+
+        new Runner(new OptionsBuilder()
+                .parent(cmdOptions)
+                .addProfiler(GCProfiler.class)
+                .build()
+        ).run();
+    }
+}
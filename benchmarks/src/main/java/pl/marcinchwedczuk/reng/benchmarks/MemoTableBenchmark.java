@@ -0,0 +1,66 @@
+package pl.marcinchwedczuk.reng.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import pl.marcinchwedczuk.reng.HashTable;
+import pl.marcinchwedczuk.reng.Pair;
+import pl.marcinchwedczuk.reng.RAst;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HashTable compared to the boxed HashMap&lt;Pair, Boolean&gt; it replaced.
+ * Sparse workload, a few nodes visited at every position of a long input,
+ * every cell is looked up and marked when it was not marked yet.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MemoTableBenchmark {
+
+    @Param({ "10000", "1000000" })
+    public int inputLength;
+
+    @Param({ "7" })
+    public int nodesPerPosition;
+
+    private RAst[] nodes;
+
+    @Setup
+    public void setup() {
+        nodes = new RAst[nodesPerPosition];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = RAst.group('a');
+            nodes[i].setIndexInBitMap(i);
+        }
+    }
+
+    @Benchmark
+    public int hashTable() {
+        HashTable table = new HashTable(nodes.length, inputLength);
+        int hits = 0;
+        for (int pos = 0; pos < inputLength; pos++) {
+            RAst node = nodes[pos % nodes.length];
+            if (table.get(node, pos / 2)) hits++;
+            else table.mark(node, pos / 2);
+        }
+        return hits;
+    }
+
+    @Benchmark
+    public int boxedHashMap() {
+        Map<Pair<Integer, Integer>, Boolean> table = new HashMap<>();
+        int hits = 0;
+        for (int pos = 0; pos < inputLength; pos++) {
+            RAst node = nodes[pos % nodes.length];
+            Pair<Integer, Integer> key = new Pair<>(node.getIndexInBitMap(), pos / 2);
+            if (table.getOrDefault(key, false)) hits++;
+            else table.put(key, true);
+        }
+        return hits;
+    }
+}
@@ -0,0 +1,52 @@
+package pl.marcinchwedczuk.reng.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import pl.marcinchwedczuk.reng.CompiledRegex;
+import pl.marcinchwedczuk.reng.Match;
+import pl.marcinchwedczuk.reng.MatchEngine;
+import pl.marcinchwedczuk.reng.MemoisationEncodingScheme;
+import pl.marcinchwedczuk.reng.MemoisationPolicy;
+import pl.marcinchwedczuk.reng.parser.RParser;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Log and CSV patterns, the matches most users actually run.
+ * Throughput and SampleTime (latency percentiles) modes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RealisticBenchmark {
+
+    @Param({ "LOG", "CSV" })
+    public Workload workload;
+
+    @Param({ "100", "1000", "10000" })
+    public int inputLength;
+
+    @Param
+    public MemoisationPolicy policy;
+
+    @Param
+    public MemoisationEncodingScheme scheme;
+
+    private CompiledRegex regex;
+    private String input;
+
+    @Setup
+    public void setup() {
+        // Explicit stack engine, so long inputs do not overflow the Java stack
+        regex = CompiledRegex.compile(RParser.parse(workload.pattern),
+                policy, scheme, MatchEngine.STACK_BACKTRACKING);
+        input = workload.input(inputLength);
+    }
+
+    @Benchmark
+    public Match match() {
+        return regex.match(input);
+    }
+}
@@ -0,0 +1,53 @@
+package pl.marcinchwedczuk.reng.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import pl.marcinchwedczuk.reng.CompiledRegex;
+import pl.marcinchwedczuk.reng.Match;
+import pl.marcinchwedczuk.reng.MatchEngine;
+import pl.marcinchwedczuk.reng.MemoisationEncodingScheme;
+import pl.marcinchwedczuk.reng.MemoisationPolicy;
+import pl.marcinchwedczuk.reng.parser.RParser;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Catastrophic patterns on short inputs, short enough for
+ * MemoisationPolicy.NONE to finish.
+ * Throughput and SampleTime (latency percentiles) modes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RedosBenchmark {
+
+    @Param({ "REDOS_ALTERNATION", "REDOS_NESTED_STAR", "REDOS_OVERLAP" })
+    public Workload workload;
+
+    @Param({ "8", "16", "24" })
+    public int inputLength;
+
+    @Param
+    public MemoisationPolicy policy;
+
+    @Param
+    public MemoisationEncodingScheme scheme;
+
+    private CompiledRegex regex;
+    private String input;
+
+    @Setup
+    public void setup() {
+        // Explicit stack engine, so long inputs do not overflow the Java stack
+        regex = CompiledRegex.compile(RParser.parse(workload.pattern),
+                policy, scheme, MatchEngine.STACK_BACKTRACKING);
+        input = workload.input(inputLength);
+    }
+
+    @Benchmark
+    public Match match() {
+        return regex.match(input);
+    }
+}
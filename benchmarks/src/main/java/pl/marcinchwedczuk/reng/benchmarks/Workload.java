@@ -0,0 +1,79 @@
+package pl.marcinchwedczuk.reng.benchmarks;
+
+/**
+ * Patterns with inputs of a requested length.
+ * The catastrophic ones match only at the very end, after a backtracking
+ * engine without memoisation explored every way to split the a's
+ * before it. The input contains the required literal, so the prefilter
+ * cannot reject it without matching.
+ */
+public enum Workload {
+
+    /* exponential, both branches match the same char */
+    REDOS_ALTERNATION("(a|a)*b") {
+        @Override
+        public String input(int length) {
+            return repeat('a', length) + "!b";
+        }
+    },
+
+    /* exponential, the input can be split between nested stars in many ways */
+    REDOS_NESTED_STAR("(a*)*b") {
+        @Override
+        public String input(int length) {
+            return repeat('a', length) + "!b";
+        }
+    },
+
+    /* grows like Fibonacci numbers, branches overlap */
+    REDOS_OVERLAP("(a|aa)*c") {
+        @Override
+        public String input(int length) {
+            return repeat('a', length) + "!c";
+        }
+    },
+
+    /* log line with a keyword at the very end of the message */
+    LOG("^[0-9]{4}-[0-9]{2}-[0-9]{2} [0-9]{2}:[0-9]{2}:[0-9]{2} (INFO|WARN|ERROR) .*timeout.*$") {
+        @Override
+        public String input(int length) {
+            String prefix = "2020-03-14 12:34:56 ERROR ";
+            String suffix = " timeout";
+            return prefix + filler(length - prefix.length() - suffix.length()) + suffix;
+        }
+    },
+
+    /* CSV row with quoted and plain fields */
+    CSV("^(\"[^\"]*\"|[^,]*)(,(\"[^\"]*\"|[^,]*))*$") {
+        @Override
+        public String input(int length) {
+            StringBuilder sb = new StringBuilder();
+            for (int field = 0; sb.length() < length; field++) {
+                if (field > 0) sb.append(',');
+                sb.append((field % 3 == 0) ? "\"quoted, field\"" : "plain field " + field);
+            }
+            return sb.toString();
+        }
+    };
+
+    public final String pattern;
+
+    Workload(String pattern) {
+        this.pattern = pattern;
+    }
+
+    public abstract String input(int length);
+
+    private static String repeat(char c, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) sb.append(c);
+        return sb.toString();
+    }
+
+    private static String filler(int length) {
+        String words = "connection to upstream host was closed ";
+        StringBuilder sb = new StringBuilder(Math.max(0, length));
+        for (int i = 0; i < length; i++) sb.append(words.charAt(i % words.length()));
+        return sb.toString();
+    }
+}
@@ -1,15 +1,20 @@
 package pl.marcinchwedczuk.reng;
 
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Per-call matching context.
+ * Holds all mutable state of a single match, so a CompiledRegex
+ * can be shared between threads, each using its own matcher.
+ *
+ * Counting into MatchStatistics is guarded by MatchStatistics.ENABLED,
+ * a static final flag, so without -Dreng.statistics=true the JIT drops
+ * the counters and the matching code is the same as without them.
+ */
 @SuppressWarnings("SimplifiableConditionalExpression")
 public class BacktrackingMatcher {
 
-    public static boolean[][] memoTable;
-
     public static Match match(String s, RAst regex) {
         return match(s, regex, MemoisationPolicy.ALL, MemoisationEncodingScheme.BIT_MAP);
     }
@@ -17,64 +22,185 @@ public class BacktrackingMatcher {
     public static Match match(String s, RAst regex,
                               MemoisationPolicy memPolicy,
                               MemoisationEncodingScheme memEncScheme) {
-        Input input = Input.of(s);
+        return CompiledRegex.compile(regex, memPolicy, memEncScheme).match(s);
+    }
+
+    private final CompiledRegex regex;
+    private final String s;
+    private final Input input;
+
+    /* start and end of capture group g at 2g and 2g+1, restored on backtracking */
+    private final int[] captures;
+
+    /* rows only for the memoised nodes, null if nothing is memoised */
+    private final MemoisationTable memoTable;
+
+    /* used instead of memoTable inside atomic groups and lookaheads, see matchScoped */
+    private final MemoisationTable scopedMemoTable;
+    private int scopeDepth;
+    private int maxScopedMarkedPos = Integer.MIN_VALUE;
 
-        /* maps capture group to matched text */
-        Map<Integer, String> groups = new HashMap<>();
+    /* nodes inside counted repeats, null if there are none */
+    private final CountedMemoisationTable countedMemoTable;
+    /* RAst.countKey of the current iteration of every repeat, by node id */
+    private final int[] repeatCounts;
 
-        List<Integer> nodesToMemoise = MemoisationPolicyHelper.determineNodesToMemoise(regex, memPolicy);
-//        System.out.println(nodesToMemoise.size() + " <<< size");
-        /* get nodes */
+    /* end and captures of the last match found by matchHere() */
+    private int matchEnd;
+    private int[] matchCaptures;
+
+    /* highest position marked in the memo table by the last matchHere() */
+    private int maxMarkedPos;
+
+    /* only used when MatchStatistics.ENABLED */
+    private final MatchStatistics stats;
+
+    public BacktrackingMatcher(CompiledRegex regex, String s) {
+        this(regex, s, MatchStatistics.ENABLED ? new MatchStatistics() : null);
+    }
+
+    BacktrackingMatcher(CompiledRegex regex, String s, MatchStatistics stats) {
+        this.regex = regex;
+        this.stats = stats;
+        this.s = s;
+        this.input = Input.of(s);
+        this.captures = new int[2 * (regex.numOfCaptureGroups() + 1)];
 
         /* initialise the memoisation table */
+        this.memoTable = MemoisationTableFactory.create(
+                regex.memoisationEncodingScheme(),
+                regex.nodesToMemoise().size(),
+                s.length()+1);
+        this.scopedMemoTable = regex.hasScopedMemoisedNodes()
+                ? MemoisationTableFactory.create(
+                        regex.memoisationEncodingScheme(),
+                        regex.nodesToMemoise().size(),
+                        s.length()+1)
+                : null;
+        this.countedMemoTable = regex.countedNodesToMemoise().isEmpty()
+                ? null
+                : new CountedMemoisationTable();
+        this.repeatCounts = (countedMemoTable != null) ? new int[regex.numOfNodes()] : null;
+    }
 
-        // memoisation table
-        int rowSize = regex.id+1 > 0 ? regex.id+1 : 1;
-        int colSize = s.length() > 0 ? s.length()+1 : 1;
-        memoTable = new boolean[rowSize][colSize];
+    /* For inputs that are not Strings, only matchHere() can be used. */
+    BacktrackingMatcher(CompiledRegex regex, Input input,
+                        MemoisationTable memoTable, MemoisationTable scopedMemoTable,
+                        CountedMemoisationTable countedMemoTable) {
+        this.regex = regex;
+        this.s = null;
+        this.input = input;
+        this.stats = MatchStatistics.ENABLED ? new MatchStatistics() : null;
+        this.captures = new int[2 * (regex.numOfCaptureGroups() + 1)];
+        this.memoTable = memoTable;
+        this.scopedMemoTable = scopedMemoTable;
+        this.countedMemoTable = countedMemoTable;
+        this.repeatCounts = (countedMemoTable != null) ? new int[regex.numOfNodes()] : null;
+    }
 
-        while (true) {
-            int startIndex = input.currentPos();
-            AtomicInteger endIndex = new AtomicInteger(0);
+    long memoTableSizeInBytes() {
+        long size = (memoTable != null) ? memoTable.sizeInBytes() : 0;
+        if (scopedMemoTable != null) size += scopedMemoTable.sizeInBytes();
+        if (countedMemoTable != null) size += countedMemoTable.sizeInBytes();
+        return size;
+    }
 
-            boolean hasMatch = match(input, regex, groups, () -> {
-                endIndex.set(input.currentPos());
-                return true;
-            });
+    public Match match() {
+        StartPositionScanner scanner = regex.startPositionScanner();
+        int startIndex = scanner.nextCandidate(s, 0);
 
-            if (hasMatch) {
-                return new Match(s, true, startIndex, endIndex.get());
+        while (startIndex != StartPositionScanner.NO_CANDIDATE) {
+            // Skip positions where the match cannot start
+            input.advance(startIndex - input.currentPos());
+            if (matchHere()) {
+                return new Match(s, true, startIndex, matchEnd, matchCaptures);
             }
 
             // We are at the end of the input - no match
-            if (input.atEnd()) return new Match(s, false, -1, -1);
+            if (input.atEnd()) break;
 
-            // Try to match from next index
-            input.advance(1);
+            // Try to match from next candidate
+            startIndex = scanner.nextCandidate(s, startIndex + 1);
         }
+
+        return new Match(s, false, -1, -1);
+    }
+
+    /**
+     * Tries to match at the current input position, which is left unchanged.
+     * The end of a found match is available from matchEnd().
+     */
+    boolean matchHere() {
+        return matchHere(regex.ast());
+    }
+
+    /**
+     * Like matchHere(), but matches only a subtree of the regex,
+     * e.g. one pattern of a RegexSet. Moves input forward to startIndex first.
+     */
+    boolean matchAt(int startIndex, RAst ast) {
+        input.advance(startIndex - input.currentPos());
+        return matchHere(ast);
+    }
+
+    private boolean matchHere(RAst ast) {
+        if (MatchStatistics.ENABLED) stats.startPositions++;
+        InputPositionMarker start = input.markPosition();
+        maxMarkedPos = Integer.MIN_VALUE;
+        Arrays.fill(captures, Match.UNSET);
+
+        boolean hasMatch = match(ast, () -> {
+            matchEnd = input.currentPos();
+            matchCaptures = captures.clone();
+            return true;
+        });
+
+        input.restorePosition(start);
+        return hasMatch;
     }
 
-    @SuppressWarnings("SimplifiableConditionalExpression")
-    public static boolean match(Input input, RAst ast,
-                                Map<Integer, String> groups, Cont cont) {
+    int matchEnd() {
+        return matchEnd;
+    }
+
+    /* Group g at 2g and 2g+1, see Match. */
+    int[] matchCaptures() {
+        return matchCaptures;
+    }
+
+    /**
+     * Cells marked on the path of the last match are not failures, so they
+     * must be cleared before looking for the next match. Cells before the
+     * match end are kept, the next match starts at or after it.
+     * Cells marked by failed attempts stay valid.
+     */
+    void forgetMatchPath() {
+        if (maxMarkedPos < matchEnd) return;
+
+        if (memoTable != null) memoTable.clear(matchEnd, maxMarkedPos + 1);
+        if (countedMemoTable != null) countedMemoTable.clear(matchEnd, maxMarkedPos + 1);
+    }
+
+    private boolean match(RAst ast, Cont cont) {
         RAstType type = ast.type;
         InputPositionMarker m;
+        if (MatchStatistics.ENABLED) stats.nodeVisits++;
 
-        if (memoTable[ast.id][input.currentPos()]) {
+        if (ast.getIndexInBitMap() != RAst.NOT_MEMOISED && isMemoised(ast)) {
+            if (MatchStatistics.ENABLED) stats.memoHits++;
             return false;
         }
-        memoTable[ast.id][input.currentPos()] = true;
 
         switch (type) {
             case AT_BEGINNING:
-                return input.atBeginning()
-                    ? cont.run()
-                    : false;
+                if (!input.atBeginning()) return false;
+                if (MatchStatistics.ENABLED) stats.continuations++;
+                return cont.run();
 
             case AT_END:
-                return input.atEnd()
-                    ? cont.run()
-                    : false;
+                if (!input.atEnd()) return false;
+                if (MatchStatistics.ENABLED) stats.continuations++;
+                return cont.run();
 
             case GROUP:
                 if (input.atEnd()) return false;
@@ -83,6 +209,20 @@ public class BacktrackingMatcher {
                     m = input.markPosition();
                     input.advance(1);
                     try {
+                        if (MatchStatistics.ENABLED) stats.continuations++;
+                        return cont.run();
+                    } finally {
+                        input.restorePosition(m);
+                    }
+                }
+                return false;
+
+            case LITERAL:
+                if (input.lookingAt(ast.text)) {
+                    m = input.markPosition();
+                    input.advance(ast.text.length());
+                    try {
+                        if (MatchStatistics.ENABLED) stats.continuations++;
                         return cont.run();
                     } finally {
                         input.restorePosition(m);
@@ -96,6 +236,7 @@ public class BacktrackingMatcher {
                     m = input.markPosition();
                     input.advance(1);
                     try {
+                        if (MatchStatistics.ENABLED) stats.continuations++;
                         return cont.run();
                     }
                     finally {
@@ -107,91 +248,217 @@ public class BacktrackingMatcher {
 
             case CAPTURE_GROUP:
                 m = input.markPosition();
-                return match(input, ast.headExpr(), groups, () -> {
-                    groups.put(ast.captureGroup, input.range(m.pos, input.currentPos()));
-                    return cont.run();
-                });
+                return match(ast.headExpr(), () ->
+                    captureRec(ast.captureGroup, m.pos, cont)
+                );
+
             case BACKREF:
-                return backreferenceRec(input, ast, groups, cont);
+                return backreferenceRec(ast, cont);
 
-            case POS_LOOKAHEAD:
+            case POS_LOOKAHEAD: {
                 m = input.markPosition();
-                if (!match(input, ast.headExpr(), groups, () -> true))
+                // Groups set inside the lookahead stay set, until cont fails
+                int[] saved = captures.clone();
+                if (!matchScoped(ast.headExpr(), () -> true))
                     return false;
 
                 input.restorePosition(m);
-                return cont.run();
+                if (MatchStatistics.ENABLED) stats.continuations++;
+                if (cont.run()) return true;
+
+                System.arraycopy(saved, 0, captures, 0, saved.length);
+                return false;
+            }
 
-            case NEG_LOOKAHEAD:
+            case NEG_LOOKAHEAD: {
                 m = input.markPosition();
-                if (match(input, ast.headExpr(), groups, () -> true))
+                int[] saved = captures.clone();
+                if (matchScoped(ast.headExpr(), () -> true)) {
+                    System.arraycopy(saved, 0, captures, 0, saved.length);
                     return false;
+                }
 
                 input.restorePosition(m);
+                if (MatchStatistics.ENABLED) stats.continuations++;
                 return cont.run();
+            }
+
+            case ATOMIC_GROUP: {
+                m = input.markPosition();
+                int[] saved = captures.clone();
+                // Only the first way the group matches is tried, like in a
+                // positive lookahead, but the matched chars are consumed
+                int[] end = { 0 };
+                if (!matchScoped(ast.headExpr(), () -> {
+                    end[0] = input.currentPos();
+                    return true;
+                })) return false;
+
+                input.advance(end[0] - m.pos);
+                try {
+                    if (MatchStatistics.ENABLED) stats.continuations++;
+                    if (cont.run()) return true;
+                } finally {
+                    input.restorePosition(m);
+                }
+
+                System.arraycopy(saved, 0, captures, 0, saved.length);
+                return false;
+            }
 
             case CONCAT:
-                return concatRec(input, ast.exprs, 0, groups, cont);
+                return concatRec(ast.exprs, 0, cont);
 
             case ALTERNATIVE:
-                return alternativeRec(input, ast.exprs, 0, groups, cont);
+                return alternativeRec(ast.exprs, 0, cont);
+
+            case TRIE:
+                return trieRec(ast.trie, cont);
 
             case REPEAT:
-                return repeatRec(input, ast, 0, groups, cont);
+                return repeatRec(ast, 0, -1, cont);
 
             default: throw new AssertionError("Unknown enum value: " + type);
         }
     }
 
-    private static boolean backreferenceRec(Input input,
-                                            RAst ast,
-                                            Map<Integer, String> groups,
-                                            Cont cont) {
-        assert ast.exprs.size() == 0;
-        assert ast.captureGroup >= 1 && ast.captureGroup <= 9;
+    /* Marks the node at the current position, true if it was already marked. */
+    private boolean isMemoised(RAst ast) {
+        int pos = input.currentPos();
+
+        if (ast.getCountedBy() != RAst.NO_ID) {
+            int count = repeatCounts[ast.getCountedBy()];
+            if (countedMemoTable.get(ast, pos, count)) return true;
+            countedMemoTable.mark(ast, pos, count);
+            if (pos > maxMarkedPos) maxMarkedPos = pos;
+        }
+        else if (scopeDepth == 0) {
+            if (memoTable.get(ast, pos)) return true;
+            memoTable.mark(ast, pos);
+            if (pos > maxMarkedPos) maxMarkedPos = pos;
+        }
+        else {
+            if (scopedMemoTable.get(ast, pos)) return true;
+            scopedMemoTable.mark(ast, pos);
+            if (pos > maxScopedMarkedPos) maxScopedMarkedPos = pos;
+        }
 
-        String text = groups.get(ast.captureGroup);
-        for (int i = 0; i < text.length(); i++) {
-            if (input.atEnd()) return false;
-            if (input.current() != text.charAt(i)) return false;
-            input.advance(1);
+        if (MatchStatistics.ENABLED) stats.memoCellsMarked++;
+        return false;
+    }
+
+    /**
+     * Matches the inside of an atomic group or lookahead, its continuation
+     * only ends the inner match. Memoisation assumes that a marked cell
+     * failed, which is not true for the cells on the path of an inner match,
+     * so the inner nodes use scopedMemoTable and the cells it got
+     * from the start of a successful inner match on are cleared.
+     * Cells of failed inner matches stay valid, the continuation is always the same.
+     */
+    private boolean matchScoped(RAst ast, Cont innerCont) {
+        int start = input.currentPos();
+
+        scopeDepth++;
+        boolean matched;
+        try {
+            matched = match(ast, innerCont);
+        } finally {
+            scopeDepth--;
         }
 
-        return cont.run();
+        if (matched && scopedMemoTable != null && maxScopedMarkedPos >= start) {
+            scopedMemoTable.clear(start, maxScopedMarkedPos + 1);
+            // All remaining cells are before start
+            maxScopedMarkedPos = start - 1;
+        }
+        return matched;
+    }
+
+    private boolean captureRec(int group, int start, Cont cont) {
+        int oldStart = captures[2 * group];
+        int oldEnd = captures[2 * group + 1];
+
+        captures[2 * group] = start;
+        captures[2 * group + 1] = input.currentPos();
+        if (MatchStatistics.ENABLED) stats.continuations++;
+        if (cont.run()) return true;
+
+        // Backtracking, the group gets its previous span back
+        captures[2 * group] = oldStart;
+        captures[2 * group + 1] = oldEnd;
+        return false;
     }
 
-    private static boolean concatRec(Input input,
-                                     List<RAst> exprs,
-                                     int currExpr,
-                                     Map<Integer, String> groups,
-                                     Cont cont) {
+    private boolean backreferenceRec(RAst ast, Cont cont) {
+        assert ast.exprs.size() == 0;
+
+        int start = captures[2 * ast.captureGroup];
+        // Group that did not participate in the match, matches nothing
+        if (start == Match.UNSET) return false;
+
+        int length = captures[2 * ast.captureGroup + 1] - start;
+        if (!input.regionMatches(start, length)) return false;
+
+        InputPositionMarker m = input.markPosition();
+        input.advance(length);
+        try {
+            if (MatchStatistics.ENABLED) stats.continuations++;
+            return cont.run();
+        } finally {
+            input.restorePosition(m);
+        }
+    }
+
+    private boolean concatRec(List<RAst> exprs,
+                              int currExpr,
+                              Cont cont) {
         if (currExpr == exprs.size()) {
+            if (MatchStatistics.ENABLED) stats.continuations++;
             return cont.run();
         }
 
         // Match exprs.get(currExpr)
-        return match(input, exprs.get(currExpr), groups, () ->
+        return match(exprs.get(currExpr), () ->
             // If it succeeded then match next expression
-            concatRec(input, exprs, currExpr + 1, groups, cont)
+            concatRec(exprs, currExpr + 1, cont)
         );
     }
 
-    private static boolean repeatRec(Input input,
-                                     RAst repeatAst,
-                                     long matchCount,
-                                     Map<Integer, String> groups,
-                                     Cont cont) {
+    private boolean repeatRec(RAst repeatAst,
+                              long matchCount,
+                              int lastIterationStart,
+                              Cont cont) {
         if (matchCount > repeatAst.repeatMax)
             return false;
 
-        boolean matched = match(input, repeatAst.headExpr(), groups, () ->
-            repeatRec(input, repeatAst, matchCount+1, groups, cont)
+        int iterationStart = input.currentPos();
+        if (iterationStart == lastIterationStart && matchCount >= repeatAst.repeatMin) {
+            // The last iteration matched an empty string. Another iteration
+            // would start at the same position, with memoisation it would be
+            // pruned immediately, without memoisation it would never end.
+            if (MatchStatistics.ENABLED) stats.continuations++;
+            return cont.run();
+        }
+
+        // Nodes memoised with the iteration count read it from repeatCounts
+        int outerCount = 0;
+        if (repeatCounts != null) {
+            outerCount = repeatCounts[repeatAst.id];
+            repeatCounts[repeatAst.id] = repeatAst.countKey(matchCount);
+        }
+
+        boolean matched = match(repeatAst.headExpr(), () ->
+            repeatRec(repeatAst, matchCount+1, iterationStart, cont)
         );
 
+        if (repeatCounts != null) repeatCounts[repeatAst.id] = outerCount;
+
         if (!matched && (matchCount >= repeatAst.repeatMin)) {
+            if (MatchStatistics.ENABLED) stats.backtracks++;
             // r{N} did not match.
             // Here we are matching r{N-1}, we are sure it is matching
             // because this function was called.
+            if (MatchStatistics.ENABLED) stats.continuations++;
             return cont.run();
         }
 
@@ -199,20 +466,42 @@ public class BacktrackingMatcher {
         return matched;
     }
 
-    private static boolean alternativeRec(Input input,
-                                          List<RAst> expr,
-                                          int currExpr,
-                                          Map<Integer, String> groups,
-                                          Cont cont) {
+    private boolean trieRec(LiteralTrie trie, Cont cont) {
+        // Only the branches that match here, still in their order.
+        // Continuations may run this trie again, so the buffer is not shared.
+        int[] found = new int[trie.maxMatches()];
+        int count = trie.find(input, found);
+
+        InputPositionMarker m = input.markPosition();
+        try {
+            for (int i = 0; i < count; i++) {
+                input.restorePosition(m);
+                input.advance(trie.literals().get(found[i]).length());
+                if (MatchStatistics.ENABLED) stats.continuations++;
+                if (cont.run()) return true;
+
+                // Let's try next literal
+                if (MatchStatistics.ENABLED) stats.backtracks++;
+            }
+            return false;
+        } finally {
+            input.restorePosition(m);
+        }
+    }
+
+    private boolean alternativeRec(List<RAst> expr,
+                                   int currExpr,
+                                   Cont cont) {
         if (currExpr == expr.size()) {
             // We tried all alternatives but achieved no match.
             return false;
         }
 
-        boolean matched = match(input, expr.get(currExpr), groups, cont);
+        boolean matched = match(expr.get(currExpr), cont);
         if (matched) return true;
 
         // Let's try next alternative "branch"
-        return alternativeRec(input, expr, currExpr+1, groups, cont);
+        if (MatchStatistics.ENABLED) stats.backtracks++;
+        return alternativeRec(expr, currExpr+1, cont);
     }
 }
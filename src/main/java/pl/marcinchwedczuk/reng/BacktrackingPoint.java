@@ -18,4 +18,8 @@ public class BacktrackingPoint {
         return index;
     }
 
+    @Override
+    public String toString() {
+        return "(" + state + ", " + index + ")";
+    }
 }
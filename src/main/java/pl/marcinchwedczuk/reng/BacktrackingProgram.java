@@ -0,0 +1,235 @@
+package pl.marcinchwedczuk.reng;
+
+import java.util.Arrays;
+
+/**
+ * RAst compiled into a flat list of instructions for StackBacktrackingMatcher.
+ * The program explores alternatives in exactly the same order
+ * as BacktrackingMatcher, memo checks are emitted at the entry
+ * of every memoised node.
+ *
+ * Instructions are stored in a single int array, opcode followed
+ * by operands. Immutable once built.
+ */
+public class BacktrackingProgram {
+
+    // MATCH
+    static final int MATCH = 0;
+    // MEMO nodeId
+    static final int MEMO = 1;
+    // GROUP nodeId
+    static final int GROUP = 2;
+    // NEGATED_GROUP nodeId
+    static final int NEGATED_GROUP = 3;
+    // AT_BEGINNING
+    static final int AT_BEGINNING = 4;
+    // AT_END
+    static final int AT_END = 5;
+    // SPLIT target - try next instruction first, target on backtrack
+    static final int SPLIT = 6;
+    // JMP target
+    static final int JMP = 7;
+    // OPEN openReg
+    static final int OPEN = 8;
+    // CLOSE group openReg
+    static final int CLOSE = 9;
+    // BACKREF group
+    static final int BACKREF = 10;
+    // LOOK negated depthReg exit
+    static final int LOOK = 11;
+    // LOOK_END negated depthReg
+    static final int LOOK_END = 12;
+    // REPEAT_INIT countReg - countReg + 1 holds start of the last iteration
+    static final int REPEAT_INIT = 13;
+    // REPEAT_LOOP countReg nodeId exit
+    static final int REPEAT_LOOP = 14;
+    // REPEAT_NEXT countReg loop
+    static final int REPEAT_NEXT = 15;
+    // LITERAL nodeId
+    static final int LITERAL = 16;
+    // TRIE nodeId
+    static final int TRIE = 17;
+    // ATOMIC depthReg - depthReg + 1 holds the start position
+    static final int ATOMIC = 18;
+    // ATOMIC_END depthReg
+    static final int ATOMIC_END = 19;
+    // MEMO_SCOPED nodeId - MEMO inside atomic groups and lookaheads
+    static final int MEMO_SCOPED = 20;
+    // MEMO_COUNTED nodeId countReg - MEMO with the count of the repeat around
+    static final int MEMO_COUNTED = 21;
+
+    public static BacktrackingProgram compile(CompiledRegex regex) {
+        return new Compiler(regex).compile();
+    }
+
+    final int[] code;
+    final RAst[] nodes;
+    final int numOfRegisters;
+    /* most literals a TRIE instruction can find at one position */
+    final int maxTrieMatches;
+
+    private BacktrackingProgram(int[] code, RAst[] nodes, int numOfRegisters, int maxTrieMatches) {
+        this.code = code;
+        this.nodes = nodes;
+        this.numOfRegisters = numOfRegisters;
+        this.maxTrieMatches = maxTrieMatches;
+    }
+
+    public int size() {
+        return code.length;
+    }
+
+    private static class Compiler {
+        private final CompiledRegex regex;
+        private final RAst[] nodes;
+
+        private int[] code = new int[64];
+        private int pc = 0;
+        private int registers = 0;
+        private int maxTrieMatches = 0;
+        /* number of atomic groups and lookaheads around the emitted node */
+        private int scopeDepth = 0;
+        /* count register of every emitted REPEAT, by node id */
+        private final int[] countRegs;
+
+        Compiler(CompiledRegex regex) {
+            this.regex = regex;
+            this.nodes = new RAst[regex.numOfNodes()];
+            this.countRegs = new int[regex.numOfNodes()];
+        }
+
+        BacktrackingProgram compile() {
+            emitNode(regex.ast());
+            emit(MATCH);
+
+            return new BacktrackingProgram(
+                    Arrays.copyOf(code, pc), nodes, registers, maxTrieMatches);
+        }
+
+        private void emitNode(RAst ast) {
+            nodes[ast.id] = ast;
+
+            if (ast.getCountedBy() != RAst.NO_ID) {
+                emit(MEMO_COUNTED, ast.id, countRegs[ast.getCountedBy()]);
+            }
+            else if (ast.getIndexInBitMap() != RAst.NOT_MEMOISED) {
+                emit((scopeDepth == 0) ? MEMO : MEMO_SCOPED, ast.id);
+            }
+
+            switch (ast.type) {
+                case AT_BEGINNING:
+                    emit(AT_BEGINNING);
+                    break;
+
+                case AT_END:
+                    emit(AT_END);
+                    break;
+
+                case GROUP:
+                    emit(GROUP, ast.id);
+                    break;
+
+                case NEGATED_GROUP:
+                    emit(NEGATED_GROUP, ast.id);
+                    break;
+
+                case LITERAL:
+                    emit(LITERAL, ast.id);
+                    break;
+
+                case TRIE:
+                    emit(TRIE, ast.id);
+                    maxTrieMatches = Math.max(maxTrieMatches, ast.trie.maxMatches());
+                    break;
+
+                case CAPTURE_GROUP: {
+                    int openReg = registers++;
+                    emit(OPEN, openReg);
+                    emitNode(ast.headExpr());
+                    emit(CLOSE, ast.captureGroup, openReg);
+                    break;
+                }
+
+                case BACKREF:
+                    emit(BACKREF, ast.captureGroup);
+                    break;
+
+                case POS_LOOKAHEAD:
+                case NEG_LOOKAHEAD: {
+                    int negated = (ast.type == RAstType.NEG_LOOKAHEAD) ? 1 : 0;
+                    int depthReg = registers++;
+                    int look = emit(LOOK, negated, depthReg, -1);
+                    scopeDepth++;
+                    emitNode(ast.headExpr());
+                    scopeDepth--;
+                    emit(LOOK_END, negated, depthReg);
+                    code[look + 3] = pc;
+                    break;
+                }
+
+                case ATOMIC_GROUP: {
+                    int depthReg = registers;
+                    registers += 2;
+                    emit(ATOMIC, depthReg);
+                    scopeDepth++;
+                    emitNode(ast.headExpr());
+                    scopeDepth--;
+                    emit(ATOMIC_END, depthReg);
+                    break;
+                }
+
+                case CONCAT:
+                    for (RAst expr : ast.exprs) {
+                        emitNode(expr);
+                    }
+                    break;
+
+                case ALTERNATIVE:
+                    emitAlternative(ast);
+                    break;
+
+                case REPEAT: {
+                    int countReg = registers;
+                    registers += 2;
+                    countRegs[ast.id] = countReg;
+                    emit(REPEAT_INIT, countReg);
+                    int loop = emit(REPEAT_LOOP, countReg, ast.id, -1);
+                    emitNode(ast.headExpr());
+                    emit(REPEAT_NEXT, countReg, loop);
+                    code[loop + 3] = pc;
+                    break;
+                }
+
+                default: throw new AssertionError("Unknown enum value: " + ast.type);
+            }
+        }
+
+        private void emitAlternative(RAst ast) {
+            int last = ast.exprs.size() - 1;
+            int[] jumpsToEnd = new int[last];
+
+            for (int i = 0; i < last; i++) {
+                int split = emit(SPLIT, -1);
+                emitNode(ast.exprs.get(i));
+                jumpsToEnd[i] = emit(JMP, -1);
+                code[split + 1] = pc;
+            }
+            emitNode(ast.exprs.get(last));
+
+            for (int jump : jumpsToEnd) {
+                code[jump + 1] = pc;
+            }
+        }
+
+        private int emit(int... instruction) {
+            if (pc + instruction.length > code.length) {
+                code = Arrays.copyOf(code, 2 * code.length + instruction.length);
+            }
+
+            int start = pc;
+            System.arraycopy(instruction, 0, code, pc, instruction.length);
+            pc += instruction.length;
+            return start;
+        }
+    }
+}
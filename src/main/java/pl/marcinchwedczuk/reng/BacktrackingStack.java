@@ -0,0 +1,89 @@
+package pl.marcinchwedczuk.reng;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Growable stack of (kind, state, index) entries stored in a single int array.
+ * The stack is reused between matches and pushing or popping
+ * an entry never allocates, unless the stack has to grow.
+ */
+public class BacktrackingStack {
+    private static final int ENTRY_SIZE = 3;
+
+    private int[] data = new int[ENTRY_SIZE * 32];
+    private int top = 0;
+
+    /* fields of the last popped entry */
+    private int kind, state, index;
+
+    public void push(int kind, int state, int index) {
+        if (top + ENTRY_SIZE > data.length) {
+            data = Arrays.copyOf(data, 2 * data.length);
+        }
+
+        data[top] = kind;
+        data[top + 1] = state;
+        data[top + 2] = index;
+        top += ENTRY_SIZE;
+    }
+
+    public boolean isEmpty() {
+        return top == 0;
+    }
+
+    public void pop() {
+        top -= ENTRY_SIZE;
+        kind = data[top];
+        state = data[top + 1];
+        index = data[top + 2];
+    }
+
+    public int kind() { return kind; }
+    public int state() { return state; }
+    public int index() { return index; }
+
+    public int size() {
+        return top / ENTRY_SIZE;
+    }
+
+    public int indexAt(int entry) {
+        return data[ENTRY_SIZE * entry + 2];
+    }
+
+    /* Drops every entry above the first `size` entries. */
+    public void truncate(int size) {
+        top = ENTRY_SIZE * size;
+    }
+
+    /*
+     * Like truncate(size), but entries of keptKind above the first `size`
+     * entries are kept, moved down in their order.
+     */
+    public void truncateKeeping(int size, int keptKind) {
+        int newTop = ENTRY_SIZE * size;
+        for (int i = newTop; i < top; i += ENTRY_SIZE) {
+            if (data[i] == keptKind) {
+                System.arraycopy(data, i, data, newTop, ENTRY_SIZE);
+                newTop += ENTRY_SIZE;
+            }
+        }
+        top = newTop;
+    }
+
+    public void clear() {
+        top = 0;
+    }
+
+    /* Copy of all entries of the given kind, bottom first, for debugging. */
+    public List<BacktrackingPoint> points(int ofKind) {
+        List<BacktrackingPoint> points = new ArrayList<>();
+        for (int i = 0; i < top; i += ENTRY_SIZE) {
+            if (data[i] == ofKind) {
+                points.add(new BacktrackingPoint(data[i + 1], data[i + 2]));
+            }
+        }
+        return points;
+    }
+}
@@ -1,27 +1,83 @@
 package pl.marcinchwedczuk.reng;
 
+import java.util.Arrays;
+
+/**
+ * Dense memoisation table, one bit per (node, position) cell.
+ * Rows are packed into longs and allocated on first mark,
+ * so nodes that are never visited cost nothing.
+ */
 public class BitMap implements MemoisationTable {
 
-    private boolean[][] bitMap;
+    private static final int ADDRESS_BITS_PER_WORD = 6;
+
+    private final long[][] bitMap;
+    private final int numOfChars;
+    private final int wordsPerRow;
 
     public BitMap(int numOfNodes, int numOfChars) {
         assert numOfNodes >= 0 && numOfChars >= 0;
-        bitMap = new boolean[numOfNodes][numOfChars];
+        this.bitMap = new long[numOfNodes][];
+        this.numOfChars = numOfChars;
+        this.wordsPerRow = (numOfChars + 63) >>> ADDRESS_BITS_PER_WORD;
     }
 
     @Override
     public boolean get(RAst node, int wordIdx) {
-        try {
-            return bitMap[node.getIndexInBitMap()][wordIdx];
-        } catch (ArrayIndexOutOfBoundsException e) {
-            return false;
-        }
+        long[] row = bitMap[node.getIndexInBitMap()];
+        if (row == null || !inRange(wordIdx)) return false;
+
+        return (row[wordIdx >>> ADDRESS_BITS_PER_WORD] & (1L << wordIdx)) != 0;
     }
 
     @Override
     public void mark(RAst node, int wordIdx) {
-        try {
-            bitMap[node.getIndexInBitMap()][wordIdx] = true;
-        } catch (ArrayIndexOutOfBoundsException e) { }
+        if (!inRange(wordIdx)) return;
+
+        int rowIdx = node.getIndexInBitMap();
+        long[] row = bitMap[rowIdx];
+        if (row == null) {
+            row = new long[wordsPerRow];
+            bitMap[rowIdx] = row;
+        }
+
+        row[wordIdx >>> ADDRESS_BITS_PER_WORD] |= (1L << wordIdx);
+    }
+
+    @Override
+    public void clear(int from, int to) {
+        from = Math.max(from, 0);
+        to = Math.min(to, numOfChars);
+        if (from >= to) return;
+
+        int firstWord = from >>> ADDRESS_BITS_PER_WORD;
+        int lastWord = (to - 1) >>> ADDRESS_BITS_PER_WORD;
+        long firstMask = -1L << from;
+        long lastMask = -1L >>> -to;
+
+        for (long[] row : bitMap) {
+            if (row == null) continue;
+
+            if (firstWord == lastWord) {
+                row[firstWord] &= ~(firstMask & lastMask);
+            } else {
+                row[firstWord] &= ~firstMask;
+                Arrays.fill(row, firstWord + 1, lastWord, 0L);
+                row[lastWord] &= ~lastMask;
+            }
+        }
+    }
+
+    private boolean inRange(int wordIdx) {
+        return wordIdx >= 0 && wordIdx < numOfChars;
+    }
+
+    @Override
+    public long sizeInBytes() {
+        long size = 16 + 4L * bitMap.length;
+        for (long[] row : bitMap) {
+            if (row != null) size += 16 + 8L * row.length;
+        }
+        return size;
     }
 }
@@ -0,0 +1,193 @@
+package pl.marcinchwedczuk.reng;
+
+import java.util.Arrays;
+
+/**
+ * Immutable set of chars used by GROUP and NEGATED_GROUP nodes.
+ * Stored as sorted, disjoint, inclusive ranges, with a bitmap
+ * for Latin-1 chars so the common case is a single bit test.
+ * Other chars are found by binary search over the ranges.
+ * Tests never allocate, wide classes like [^a] take a few bytes.
+ */
+public final class CharClass {
+
+    public static final CharClass EMPTY = new Builder().build();
+
+    public static CharClass of(char... chars) {
+        Builder builder = new Builder();
+        for (char c : chars) builder.add(c);
+        return builder.build();
+    }
+
+    public static CharClass range(char from, char to) {
+        return new Builder().addRange(from, to).build();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /* from0, to0, from1, to1, ... sorted, merged */
+    private final char[] ranges;
+    private final long[] latin1 = new long[4];
+    private final int size;
+
+    private CharClass(char[] ranges) {
+        this.ranges = ranges;
+
+        int count = 0;
+        for (int i = 0; i < ranges.length; i += 2) {
+            count += ranges[i + 1] - ranges[i] + 1;
+
+            int to = Math.min(ranges[i + 1], 255);
+            for (int c = ranges[i]; c <= to; c++) {
+                latin1[c >>> 6] |= 1L << c;
+            }
+        }
+        this.size = count;
+    }
+
+    public boolean contains(char c) {
+        if (c < 256) {
+            return (latin1[c >>> 6] & (1L << c)) != 0;
+        }
+
+        // Find the last range that starts at or before c
+        int lo = 0, hi = ranges.length / 2 - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ranges[2 * mid] <= c) lo = mid + 1;
+            else hi = mid - 1;
+        }
+        return hi >= 0 && c <= ranges[2 * hi + 1];
+    }
+
+    /** Number of chars in the class. */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int numOfRanges() {
+        return ranges.length / 2;
+    }
+
+    public char rangeStart(int i) {
+        return ranges[2 * i];
+    }
+
+    /** Inclusive. */
+    public char rangeEnd(int i) {
+        return ranges[2 * i + 1];
+    }
+
+    /** The lowest char in the class. */
+    public char first() {
+        if (isEmpty()) throw new IllegalStateException("Class is empty.");
+        return ranges[0];
+    }
+
+    /** All chars, in ascending order. Meant for small classes. */
+    public char[] toCharArray() {
+        char[] chars = new char[size];
+        int next = 0;
+        for (int i = 0; i < ranges.length; i += 2) {
+            for (int c = ranges[i]; c <= ranges[i + 1]; c++) {
+                chars[next++] = (char) c;
+            }
+        }
+        return chars;
+    }
+
+    public long sizeInBytes() {
+        // object, bitmap and ranges arrays with their headers
+        return 24 + (16 + 8 * latin1.length) + (16 + 2L * ranges.length);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return (o instanceof CharClass) && Arrays.equals(ranges, ((CharClass) o).ranges);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(ranges);
+    }
+
+    /**
+     * Chars in ascending order, ranges of more than 16 chars as from-to.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < ranges.length; i += 2) {
+            if (ranges[i + 1] - ranges[i] >= 16) {
+                sb.append(ranges[i]).append('-').append(ranges[i + 1]);
+            } else {
+                for (int c = ranges[i]; c <= ranges[i + 1]; c++) {
+                    sb.append((char) c);
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    public static final class Builder {
+        private char[] ranges = new char[8];
+        private int length = 0;
+
+        private Builder() { }
+
+        public Builder add(char c) {
+            return addRange(c, c);
+        }
+
+        /** Adds from-to, both inclusive. Empty if from > to. */
+        public Builder addRange(char from, char to) {
+            if (from > to) return this;
+
+            if (length + 2 > ranges.length) {
+                ranges = Arrays.copyOf(ranges, 2 * ranges.length);
+            }
+            ranges[length++] = from;
+            ranges[length++] = to;
+            return this;
+        }
+
+        public Builder addAll(CharClass other) {
+            for (int i = 0; i < other.ranges.length; i += 2) {
+                addRange(other.ranges[i], other.ranges[i + 1]);
+            }
+            return this;
+        }
+
+        public CharClass build() {
+            int n = length / 2;
+            long[] packed = new long[n];
+            for (int i = 0; i < n; i++) {
+                packed[i] = ((long) ranges[2 * i] << 16) | ranges[2 * i + 1];
+            }
+            Arrays.sort(packed);
+
+            // Merge overlapping and adjacent ranges
+            char[] merged = new char[length];
+            int m = 0;
+            for (long range : packed) {
+                char from = (char) (range >>> 16);
+                char to = (char) range;
+
+                if (m > 0 && from <= merged[m - 1] + 1) {
+                    merged[m - 1] = (char) Math.max(merged[m - 1], to);
+                } else {
+                    merged[m++] = from;
+                    merged[m++] = to;
+                }
+            }
+
+            return new CharClass(Arrays.copyOf(merged, m));
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package pl.marcinchwedczuk.reng;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable, thread-safe form of a regex.
+ * Compilation copies the given RAst and assigns the copy dense node ids,
+ * the source tree is never modified and can be reused.
+ * All per-match state (input, groups, memoisation table) lives in
+ * a matcher created for every call to match.
+ * Unless given explicitly, the engine is chosen by MatchPlanner
+ * and the regex is first rewritten by RAstOptimizer. With explicit
+ * memoisation settings the regex is compiled as written, so
+ * the memoisation policies can be compared on it.
+ */
+public final class CompiledRegex {
+
+    public static CompiledRegex compile(RAst regex) {
+        return compile(regex, ResultType.SPAN);
+    }
+
+    public static CompiledRegex compile(RAst regex, ResultType resultType) {
+        return compile(regex, MatchPlanner.plan(regex, resultType));
+    }
+
+    public static CompiledRegex compile(RAst regex, MatchPlan plan) {
+        return new CompiledRegex(regex, plan);
+    }
+
+    public static CompiledRegex compile(RAst regex,
+                                        MemoisationPolicy memPolicy,
+                                        MemoisationEncodingScheme memEncScheme) {
+        return compile(regex, memPolicy, memEncScheme, MatchEngine.BACKTRACKING);
+    }
+
+    public static CompiledRegex compile(RAst regex,
+                                        MemoisationPolicy memPolicy,
+                                        MemoisationEncodingScheme memEncScheme,
+                                        MatchEngine engine) {
+        MatchPlan plan = MatchPlanner.plan(regex, ResultType.SPAN)
+                .withEngine(engine)
+                .withMemoisation(memPolicy, memEncScheme)
+                .withOptimisation(false);
+        return new CompiledRegex(regex, plan);
+    }
+
+    private final RAst ast;
+    private final int numOfNodes;
+    private final int numOfSourceNodes;
+    private final int numOfCaptureGroups;
+    private final MemoisationPolicy memPolicy;
+    private final MemoisationEncodingScheme memEncScheme;
+    private final List<Integer> nodesToMemoise;
+    private final List<Integer> countedNodesToMemoise;
+    private final boolean hasScopedMemoisedNodes;
+    private final MatchEngine engine;
+    private final MatchPlan plan;
+    private final StartPositionScanner startPositionScanner;
+    private final Prefilter prefilter;
+    private final BacktrackingProgram backtrackingProgram;
+    private final PikeProgram pikeProgram;
+    private final LazyDfa dfa;
+    /* no initial value, like LazyDfa caches, Workspace does not reference this regex */
+    private final ThreadLocal<PikeVmMatcher.Workspace> pikeVmWorkspace = new ThreadLocal<>();
+
+    private CompiledRegex(RAst regex, MatchPlan plan) {
+        int[] idCounter = { 0 };
+        this.ast = copy(plan.optimise() ? RAstOptimizer.optimize(regex) : regex, idCounter);
+        this.numOfNodes = idCounter[0];
+        this.numOfSourceNodes = RAstOptimizer.countNodes(regex);
+        // Optimiser may drop groups, like in (a){0}, they must stay in matches
+        this.numOfCaptureGroups = maxCaptureGroup(regex);
+        this.plan = plan;
+        this.memPolicy = plan.memoisationPolicy();
+        this.memEncScheme = plan.memoisationEncodingScheme();
+        Pair<List<Integer>, List<Integer>> memoised =
+                MemoisationPolicyHelper.determineNodesToMemoiseWithCounts(ast, memPolicy);
+        this.nodesToMemoise = Collections.unmodifiableList(memoised.first);
+        this.countedNodesToMemoise = Collections.unmodifiableList(memoised.second);
+        this.hasScopedMemoisedNodes = hasScopedMemoisedNodes(ast, false);
+        this.engine = plan.engine();
+        this.startPositionScanner = StartPositionScanner.of(ast);
+        this.prefilter = Prefilter.of(ast);
+        this.backtrackingProgram = (engine == MatchEngine.STACK_BACKTRACKING)
+                ? BacktrackingProgram.compile(this)
+                : null;
+        this.pikeProgram = (engine == MatchEngine.PIKE_VM || usesDfa(engine, ast))
+                ? PikeProgram.compile(this)
+                : null;
+        this.dfa = usesDfa(engine, ast)
+                ? LazyDfa.compile(this)
+                : null;
+    }
+
+    private static boolean usesDfa(MatchEngine engine, RAst ast) {
+        return engine == MatchEngine.LAZY_DFA && PikeProgram.unsupportedReason(ast) == null;
+    }
+
+    /* Pre-order copy, the root gets id 0. */
+    private static RAst copy(RAst node, int[] idCounter) {
+        int id = idCounter[0]++;
+
+        List<RAst> exprs = new ArrayList<>(node.exprs.size());
+        for (RAst child : node.exprs) {
+            exprs.add(copy(child, idCounter));
+        }
+
+        return new RAst(node.type,
+                node.chars,
+                node.text,
+                node.trie,
+                Collections.unmodifiableList(exprs),
+                node.repeatMin,
+                node.repeatMax,
+                node.captureGroup,
+                id);
+    }
+
+    /* Checks for memoised nodes inside atomic groups and lookaheads. */
+    private static boolean hasScopedMemoisedNodes(RAst node, boolean inScope) {
+        if (inScope && node.getIndexInBitMap() != RAst.NOT_MEMOISED) return true;
+
+        boolean childInScope = inScope
+                || node.type == RAstType.ATOMIC_GROUP
+                || node.type == RAstType.POS_LOOKAHEAD
+                || node.type == RAstType.NEG_LOOKAHEAD;
+        for (RAst child : node.exprs) {
+            if (hasScopedMemoisedNodes(child, childInScope)) return true;
+        }
+        return false;
+    }
+
+    /* Highest group number used by a capture group or a backreference. */
+    private static int maxCaptureGroup(RAst node) {
+        int max = (node.type == RAstType.CAPTURE_GROUP || node.type == RAstType.BACKREF)
+                ? node.captureGroup
+                : 0;
+        for (RAst child : node.exprs) {
+            max = Math.max(max, maxCaptureGroup(child));
+        }
+        return max;
+    }
+
+    public Match match(String s) {
+        if (!prefilter.mayMatch(s)) {
+            return new Match(s, false, -1, -1);
+        }
+        return runEngine(s);
+    }
+
+    private Match runEngine(String s) {
+        switch (engine) {
+            case BACKTRACKING:
+                return new BacktrackingMatcher(this, s).match();
+            case STACK_BACKTRACKING:
+                return new StackBacktrackingMatcher(this, s).match();
+            case PIKE_VM:
+                return new PikeVmMatcher(this, s).match();
+            case LAZY_DFA:
+                if (dfa == null) {
+                    return new BacktrackingMatcher(this, s).match();
+                }
+                return dfa.hasMatch(s)
+                        ? new PikeVmMatcher(this, s).match()
+                        : new Match(s, false, -1, -1);
+            default:
+                throw new AssertionError("Unknown enum value: " + engine);
+        }
+    }
+
+    /**
+     * Like match, but always runs the recursive backtracking matcher,
+     * whatever the engine is, counting its work into stats.
+     * Only that matcher keeps statistics. Inputs rejected by the prefilter
+     * are not searched, so stats stay zero.
+     *
+     * @throws IllegalStateException if statistics are not enabled,
+     *      see {@link MatchStatistics#ENABLED}.
+     */
+    public Match matchWithBacktracking(String s, MatchStatistics stats) {
+        if (!MatchStatistics.ENABLED) {
+            throw new IllegalStateException(
+                    "Match statistics are disabled, run with -Dreng.statistics=true");
+        }
+
+        stats.reset();
+        if (!prefilter.mayMatch(s)) {
+            return new Match(s, false, -1, -1);
+        }
+
+        BacktrackingMatcher matcher = new BacktrackingMatcher(this, s, stats);
+        try {
+            return matcher.match();
+        } finally {
+            stats.memoTableBytes = matcher.memoTableSizeInBytes();
+        }
+    }
+
+    /**
+     * Checks if the input contains a match, without finding where.
+     * With LAZY_DFA engine this is much faster than match.
+     */
+    public boolean hasMatch(String s) {
+        if (!prefilter.mayMatch(s)) return false;
+
+        return (dfa != null)
+                ? dfa.hasMatch(s)
+                : runEngine(s).hasMatch;
+    }
+
+    /**
+     * Finds all non-overlapping matches in s, one by one.
+     * Uses the same engine as match, see Matcher.
+     */
+    public Matcher matcher(String s) {
+        return new Matcher(this, s);
+    }
+
+    RAst ast() {
+        return ast;
+    }
+
+    StartPositionScanner startPositionScanner() {
+        return startPositionScanner;
+    }
+
+    BacktrackingProgram backtrackingProgram() {
+        return backtrackingProgram;
+    }
+
+    PikeProgram pikeProgram() {
+        return pikeProgram;
+    }
+
+    /* Reused by all PikeVmMatchers of the calling thread. */
+    PikeVmMatcher.Workspace pikeVmWorkspace() {
+        PikeVmMatcher.Workspace workspace = pikeVmWorkspace.get();
+        if (workspace == null) {
+            workspace = new PikeVmMatcher.Workspace(pikeProgram, numOfCaptureGroups);
+            pikeVmWorkspace.set(workspace);
+        }
+        return workspace;
+    }
+
+    /**
+     * @return DFA used by LAZY_DFA engine, or null if the engine
+     * is different or the regex fell back to backtracking
+     */
+    public LazyDfa dfa() {
+        return dfa;
+    }
+
+    /** Literals required by every match, with its reject counters. */
+    public Prefilter prefilter() {
+        return prefilter;
+    }
+
+    public MatchPlan plan() {
+        return plan;
+    }
+
+    public MatchEngine engine() {
+        return engine;
+    }
+
+    public int numOfNodes() {
+        return numOfNodes;
+    }
+
+    /** Number of nodes before RAstOptimizer, equal to numOfNodes if it was not used. */
+    public int numOfSourceNodes() {
+        return numOfSourceNodes;
+    }
+
+    /** Groups are numbered from 1, group 0 is the whole match. */
+    public int numOfCaptureGroups() {
+        return numOfCaptureGroups;
+    }
+
+    public MemoisationPolicy memoisationPolicy() {
+        return memPolicy;
+    }
+
+    public MemoisationEncodingScheme memoisationEncodingScheme() {
+        return memEncScheme;
+    }
+
+    public List<Integer> nodesToMemoise() {
+        return nodesToMemoise;
+    }
+
+    /**
+     * Nodes inside counted repeats, like a{2,5}, memoised together with
+     * the iteration count in a CountedMemoisationTable. Not in nodesToMemoise.
+     */
+    public List<Integer> countedNodesToMemoise() {
+        return countedNodesToMemoise;
+    }
+
+    /** True if matchers need a second memoisation table, see BacktrackingMatcher.matchScoped. */
+    boolean hasScopedMemoisedNodes() {
+        return hasScopedMemoisedNodes;
+    }
+
+    @Override
+    public String toString() {
+        return ast.toString();
+    }
+}
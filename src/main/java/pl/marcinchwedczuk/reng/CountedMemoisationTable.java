@@ -0,0 +1,169 @@
+package pl.marcinchwedczuk.reng;
+
+import java.util.Arrays;
+
+/**
+ * Memoisation table for the nodes inside a counted repeat, like
+ * the body of (a|ab){2,5}. A cell is (node, position, iteration count),
+ * see {@link RAst#countKey(long)}.
+ *
+ * Every marked (node, position) keeps the set of counts that failed there,
+ * a small open-addressing set of ints. (node, position) pairs themselves
+ * are kept in an open-addressing map like in HashTable, so memory is
+ * proportional to the positions visited times the counts reached there,
+ * not to the input length times repeatMax.
+ */
+public class CountedMemoisationTable {
+
+    private static final long EMPTY = -1L;
+    private static final int NO_COUNT = -1;
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int INITIAL_SET_CAPACITY = 4;
+
+    private long[] keys;
+    /* counts[i][0] is the size of the set, slots follow */
+    private int[][] counts;
+    private int size;
+    private int resizeThreshold;
+
+    public CountedMemoisationTable() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    public boolean get(RAst node, int wordIdx, int count) {
+        int i = find(key(node, wordIdx));
+        return (keys[i] != EMPTY) && contains(counts[i], count);
+    }
+
+    public void mark(RAst node, int wordIdx, int count) {
+        long key = key(node, wordIdx);
+        int i = find(key);
+
+        if (keys[i] == EMPTY) {
+            keys[i] = key;
+            counts[i] = newSet();
+            if (++size > resizeThreshold) {
+                resize();
+                i = find(key);
+            }
+        }
+        counts[i] = add(counts[i], count);
+    }
+
+    /** Unmark all cells in the given columns, like {@link MemoisationTable#clear(int, int)}. */
+    public void clear(int from, int to) {
+        if (from >= to) return;
+
+        long[] oldKeys = keys;
+        int[][] oldCounts = counts;
+        allocate(oldKeys.length);
+        size = 0;
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            long key = oldKeys[i];
+            if (key == EMPTY) continue;
+
+            int wordIdx = (int) key;
+            if (wordIdx < from || wordIdx >= to) {
+                int j = find(key);
+                keys[j] = key;
+                counts[j] = oldCounts[i];
+                size++;
+            }
+        }
+    }
+
+    /** Number of marked (node, position) pairs. */
+    public int size() {
+        return size;
+    }
+
+    public long sizeInBytes() {
+        long bytes = 16 + 8L * keys.length + 16 + 8L * counts.length;
+        for (int[] set : counts) {
+            if (set != null) bytes += 16 + 4L * set.length;
+        }
+        return bytes;
+    }
+
+    private static long key(RAst node, int wordIdx) {
+        return ((long) node.getIndexInBitMap() << 32) | (wordIdx & 0xffffffffL);
+    }
+
+    private static int hash(long key) {
+        // Fibonacci hashing, see HashTable
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /* Slot of the key or of the empty slot where it should go. */
+    private int find(long key) {
+        int mask = keys.length - 1;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            if (keys[i] == key || keys[i] == EMPTY) return i;
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        counts = new int[capacity][];
+        resizeThreshold = capacity / 2;
+    }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        int[][] oldCounts = counts;
+        allocate(2 * oldKeys.length);
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == EMPTY) continue;
+
+            int j = find(oldKeys[i]);
+            keys[j] = oldKeys[i];
+            counts[j] = oldCounts[i];
+        }
+    }
+
+    private static int[] newSet() {
+        int[] set = new int[1 + INITIAL_SET_CAPACITY];
+        Arrays.fill(set, 1, set.length, NO_COUNT);
+        return set;
+    }
+
+    private static boolean contains(int[] set, int count) {
+        int mask = set.length - 2;
+        for (int i = count & mask; ; i = (i + 1) & mask) {
+            int c = set[1 + i];
+            if (c == count) return true;
+            if (c == NO_COUNT) return false;
+        }
+    }
+
+    /* Returns the set with the count, a bigger copy when it was half full. */
+    private static int[] add(int[] set, int count) {
+        int mask = set.length - 2;
+        int i = count & mask;
+        for (; set[1 + i] != NO_COUNT; i = (i + 1) & mask) {
+            if (set[1 + i] == count) return set;
+        }
+        set[1 + i] = count;
+
+        if (++set[0] > (set.length - 1) / 2) {
+            int[] bigger = new int[1 + 2 * (set.length - 1)];
+            Arrays.fill(bigger, 1, bigger.length, NO_COUNT);
+            int biggerMask = bigger.length - 2;
+            for (int j = 1; j < set.length; j++) {
+                int c = set[j];
+                if (c == NO_COUNT) continue;
+
+                int k = c & biggerMask;
+                while (bigger[1 + k] != NO_COUNT) k = (k + 1) & biggerMask;
+                bigger[1 + k] = c;
+            }
+            bigger[0] = set[0];
+            return bigger;
+        }
+        return set;
+    }
+}
@@ -0,0 +1,251 @@
+package pl.marcinchwedczuk.reng;
+
+import pl.marcinchwedczuk.reng.parser.RParseException;
+import pl.marcinchwedczuk.reng.parser.RParser;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Non-interactive, grep like mode: reng [-c] [-s] PATTERN FILE...
+ * <ul>
+ *     <li>-c - print the number of matching lines instead of the lines,</li>
+ *     <li>-s - print throughput (MB/s, lines/s) to stderr.</li>
+ * </ul>
+ * Files are memory-mapped and split into chunks on line boundaries,
+ * chunks are scanned in parallel on the common ForkJoinPool, a few at
+ * a time, and printed as soon as all chunks before them are.
+ * Output is in file and line order. Files are read as UTF-8.
+ * Exit code is 0 if a line matched, 1 if none did and 2 on errors.
+ */
+public class FileSearch {
+
+    static final int DEFAULT_CHUNK_SIZE = 4 << 20;
+
+    /* Bounds the memory used by chunks that are scanned but not printed yet */
+    static final int MAX_CHUNKS_IN_FLIGHT = 2 * ForkJoinPool.getCommonPoolParallelism();
+
+    private static final String USAGE = "usage: reng [-c] [-s] PATTERN FILE...";
+
+    public static int run(String[] args, PrintStream out, PrintStream err) {
+        return run(args, out, err, DEFAULT_CHUNK_SIZE);
+    }
+
+    static int run(String[] args, PrintStream out, PrintStream err, int chunkSize) {
+        boolean countOnly = false;
+        boolean stats = false;
+
+        int i = 0;
+        for (; i < args.length && args[i].startsWith("-"); i++) {
+            if (args[i].equals("--")) { i++; break; }
+
+            switch (args[i]) {
+                case "-c": countOnly = true; break;
+                case "-s": stats = true; break;
+                default:
+                    err.println("Unknown option: " + args[i]);
+                    err.println(USAGE);
+                    return 2;
+            }
+        }
+
+        if (args.length - i < 2) {
+            err.println(USAGE);
+            return 2;
+        }
+
+        RAst regex;
+        try {
+            regex = RParser.parse(args[i]);
+        } catch (RParseException e) {
+            err.println("ERROR: " + e.getMessage());
+            return 2;
+        }
+
+        List<Path> files = new ArrayList<>();
+        for (i++; i < args.length; i++) {
+            files.add(Paths.get(args[i]));
+        }
+
+        FileSearch search = new FileSearch(
+                CompiledRegex.compile(regex, ResultType.BOOLEAN), countOnly, chunkSize);
+        boolean prefixWithFileName = files.size() > 1;
+
+        long startTime = System.nanoTime();
+        boolean errors = false;
+        for (Path file : files) {
+            try {
+                search.search(file, prefixWithFileName ? file + ":" : "", out);
+            } catch (IOException | UncheckedIOException e) {
+                err.println("reng: " + file + ": " + e.getMessage());
+                errors = true;
+            }
+        }
+        out.flush();
+
+        if (stats) {
+            double seconds = Math.max(System.nanoTime() - startTime, 1) / 1e9;
+            err.printf("%d bytes, %d lines in %.3f s: %.1f MB/s, %.0f lines/s%n",
+                    search.bytes, search.lines, seconds,
+                    search.bytes / 1e6 / seconds, search.lines / seconds);
+        }
+
+        if (errors) return 2;
+        return (search.matchingLines > 0) ? 0 : 1;
+    }
+
+    private final CompiledRegex regex;
+    private final boolean countOnly;
+    private final int chunkSize;
+
+    private long bytes;
+    private long lines;
+    private long matchingLines;
+
+    FileSearch(CompiledRegex regex, boolean countOnly, int chunkSize) {
+        if (chunkSize < 1) throw new IllegalArgumentException("chunkSize: " + chunkSize);
+
+        this.regex = regex;
+        this.countOnly = countOnly;
+        this.chunkSize = chunkSize;
+    }
+
+    void search(Path file, String prefix, PrintStream out) throws IOException {
+        long count = 0;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+
+            // At most MAX_CHUNKS_IN_FLIGHT chunks are scanned or wait to be
+            // printed, joining in submission order keeps the output in file order
+            Deque<ForkJoinTask<Chunk>> inFlight = new ArrayDeque<>();
+            long from = 0;
+            while (from < size || !inFlight.isEmpty()) {
+                while (from < size && inFlight.size() < MAX_CHUNKS_IN_FLIGHT) {
+                    long chunkFrom = from;
+                    long chunkTo = Math.min(from + chunkSize, size);
+                    inFlight.add(ForkJoinPool.commonPool().submit(() ->
+                            scan(channel, chunkFrom, chunkTo, size, prefix)));
+                    from = chunkTo;
+                }
+
+                Chunk chunk = join(inFlight.poll());
+                if (!countOnly) out.print(chunk.output);
+                count += chunk.matchingLines;
+                lines += chunk.lines;
+            }
+            bytes += size;
+        }
+
+        matchingLines += count;
+        if (countOnly) {
+            out.println(prefix + count);
+        }
+    }
+
+    private static Chunk join(ForkJoinTask<Chunk> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) throw ((UncheckedIOException) cause).getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    private static class Chunk {
+        final StringBuilder output = new StringBuilder();
+        long lines;
+        long matchingLines;
+    }
+
+    /* Scans lines that start in [from, to), the last one may end after to. */
+    private Chunk scan(FileChannel channel, long from, long to, long size, String prefix) {
+        // Map one byte before the chunk to see if a line starts at from
+        long mapFrom = Math.max(from - 1, 0);
+        MappedByteBuffer buffer = map(channel, mapFrom, to);
+
+        int end = buffer.limit();
+        int pos = (int) (from - mapFrom);
+
+        // Skip the tail of a line that started in the previous chunk
+        while (pos > 0 && pos < end && buffer.get(pos - 1) != '\n') pos++;
+
+        Chunk chunk = new Chunk();
+        byte[] bytes = new byte[256];
+
+        while (pos < end) {
+            int lineEnd = pos;
+            while (lineEnd < end && buffer.get(lineEnd) != '\n') lineEnd++;
+
+            MappedByteBuffer lineBuffer = buffer;
+            int lineStart = pos;
+            int nextPos = lineEnd + 1;
+            if (lineEnd == end && to < size) {
+                // The last line goes on after the chunk, map just that line
+                lineBuffer = map(channel, mapFrom + pos, findLineEnd(channel, to, size));
+                lineStart = 0;
+                lineEnd = lineBuffer.limit();
+            }
+
+            int length = lineEnd - lineStart;
+            if (length > bytes.length) bytes = new byte[Math.max(length, 2 * bytes.length)];
+            lineBuffer.position(lineStart);
+            lineBuffer.get(bytes, 0, length);
+            String line = new String(bytes, 0, length, StandardCharsets.UTF_8);
+
+            chunk.lines++;
+            if (regex.hasMatch(line)) {
+                chunk.matchingLines++;
+                if (!countOnly) {
+                    chunk.output.append(prefix).append(line).append(System.lineSeparator());
+                }
+            }
+
+            pos = nextPos;
+        }
+
+        return chunk;
+    }
+
+    /* Position of the first line break at or after from, or size if there is none. */
+    private long findLineEnd(FileChannel channel, long from, long size) {
+        for (long windowFrom = from; windowFrom < size; windowFrom += chunkSize) {
+            MappedByteBuffer window = map(channel, windowFrom, Math.min(windowFrom + chunkSize, size));
+            for (int i = 0; i < window.limit(); i++) {
+                if (window.get(i) == '\n') return windowFrom + i;
+            }
+        }
+        return size;
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, long from, long to) {
+        if (to - from > Integer.MAX_VALUE) {
+            throw new UncheckedIOException(new IOException("Line longer than 2GB at byte " + from));
+        }
+
+        try {
+            return channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
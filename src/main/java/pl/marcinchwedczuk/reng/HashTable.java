@@ -1,24 +1,114 @@
 package pl.marcinchwedczuk.reng;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
+/**
+ * Sparse memoisation table, stores only marked cells.
+ * Cells are kept in an open-addressing set of primitive longs,
+ * key is (row << 32) | wordIdx, collisions use linear probing.
+ * Neither lookups nor marks allocate.
+ */
 public class HashTable implements MemoisationTable {
 
-    private Map<Pair<Integer, Integer>, Boolean> table;
+    private static final long EMPTY = -1L;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private long[] table;
+    private int size;
+    private int resizeThreshold;
 
     public HashTable(int numOfNodes, int numOfChars) {
         assert numOfNodes >= 0 && numOfChars >= 0;
-        table = new HashMap<>();
+        allocate(INITIAL_CAPACITY);
     }
 
     @Override
     public boolean get(RAst node, int wordIdx) {
-        return table.getOrDefault(new Pair<>(node.id, wordIdx), false);
+        long key = key(node, wordIdx);
+        int mask = table.length - 1;
+
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            long k = table[i];
+            if (k == key) return true;
+            if (k == EMPTY) return false;
+        }
     }
 
     @Override
     public void mark(RAst node, int wordIdx) {
-        table.put(new Pair<>(node.id, wordIdx), true);
+        if (insert(table, key(node, wordIdx))) {
+            if (++size > resizeThreshold) resize();
+        }
+    }
+
+    /* Rebuilds the table without the cleared cells. */
+    @Override
+    public void clear(int from, int to) {
+        if (from >= to) return;
+
+        long[] old = table;
+        allocate(old.length);
+        size = 0;
+
+        for (long key : old) {
+            if (key == EMPTY) continue;
+
+            int wordIdx = (int) key;
+            if (wordIdx < from || wordIdx >= to) {
+                insert(table, key);
+                size++;
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long sizeInBytes() {
+        return 16 + 8L * table.length;
+    }
+
+    private static long key(RAst node, int wordIdx) {
+        return ((long) node.getIndexInBitMap() << 32) | (wordIdx & 0xffffffffL);
+    }
+
+    private static int hash(long key) {
+        // Fibonacci hashing, the high bits are the best mixed
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * @return true if the key was not present in the table
+     */
+    private static boolean insert(long[] table, long key) {
+        int mask = table.length - 1;
+
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            long k = table[i];
+            if (k == key) return false;
+            if (k == EMPTY) {
+                table[i] = key;
+                return true;
+            }
+        }
+    }
+
+    private void resize() {
+        long[] old = table;
+        allocate(2 * old.length);
+
+        for (long key : old) {
+            if (key != EMPTY) insert(table, key);
+        }
+    }
+
+    private void allocate(int capacity) {
+        table = new long[capacity];
+        Arrays.fill(table, EMPTY);
+        // Keep load factor below 1/2, linear probing degrades quickly above that
+        resizeThreshold = capacity / 2;
     }
 }
@@ -1,57 +1,37 @@
 package pl.marcinchwedczuk.reng;
 
-public class Input {
-    public static Input of(String s) { return new Input(s); }
+/**
+ * Text seen by the backtracking matcher.
+ * Positions are ints, they may wrap around for streams longer
+ * than Integer.MAX_VALUE chars, so only their differences are meaningful.
+ */
+public abstract class Input {
+    public static Input of(String s) { return new StringInput(s); }
 
-    private final String input;
-    // pos - index of the first not yet seen character
-    private int pos;
+    public abstract int currentPos();
 
-    public Input(String s) {
-        input = s;
-        pos = 0;
-    }
-
-    public int currentPos() {
-        return pos;
-    }
+    public abstract boolean atBeginning();
 
-    public boolean atBeginning() {
-        return pos == 0;
-    }
-
-    public boolean atEnd() {
-        return pos == input.length();
-    }
+    public abstract boolean atEnd();
 
-    public void advance(int nchars) {
-        if ((pos + nchars) > input.length())
-            throw new IllegalArgumentException("nchars: " + nchars);
+    public abstract void advance(int nchars);
 
-        pos += nchars;
-    }
+    public abstract String range(int from, int to);
 
-    public String range(int from, int to) {
-        assert from < to;
-        return input.substring(from, to);
-    }
+    public abstract char current();
 
-    public int length() {
-        return input.length();
-    }
+    /**
+     * @return true if the length chars starting at from are equal to
+     * the chars starting at the current position
+     */
+    public abstract boolean regionMatches(int from, int length);
 
-    public char current() {
-        return input.charAt(pos);
-    }
+    /** @return true if the chars starting at the current position are equal to literal */
+    public abstract boolean lookingAt(String literal);
 
     public InputPositionMarker markPosition() {
-        return new InputPositionMarker(pos);
+        return new InputPositionMarker(currentPos());
     }
 
-    public void restorePosition(InputPositionMarker m) {
-        if (m.pos < 0 || m.pos > input.length())
-            throw new IllegalArgumentException("marker pos: " + m.pos);
-
-        pos = m.pos;
-    }
+    public abstract void restorePosition(InputPositionMarker m);
 }
@@ -0,0 +1,568 @@
+package pl.marcinchwedczuk.reng;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.LongAdder;
+
+import static pl.marcinchwedczuk.reng.PikeProgram.*;
+
+/**
+ * DFA built on demand from a PikeProgram, answers only whether
+ * the input contains a match (or, for a program with many patterns,
+ * which patterns match). Every input char costs a single
+ * table lookup once the states on its path are built.
+ *
+ * A DFA state is the set of NFA instructions that wait for the next char.
+ * States are cached per thread, when the cache reaches maxStates it is
+ * cleared and determinization restarts from the current state.
+ * The program itself is immutable, so a LazyDfa can be shared by threads.
+ * Caches do not reference the LazyDfa, so they are collected
+ * together with it, e.g. when a pattern is evicted from RegexCache.
+ */
+public class LazyDfa {
+
+    public static final int DEFAULT_MAX_STATES = 10_000;
+
+    public static LazyDfa compile(CompiledRegex regex) {
+        return compile(regex, DEFAULT_MAX_STATES);
+    }
+
+    public static LazyDfa compile(CompiledRegex regex, int maxStates) {
+        if (maxStates < 2) {
+            throw new IllegalArgumentException(
+                    "DFA cache must hold at least 2 states, got: " + maxStates + ".");
+        }
+
+        PikeProgram program = (regex.pikeProgram() != null)
+                ? regex.pikeProgram()
+                : PikeProgram.compile(regex);
+
+        return new LazyDfa(program, maxStates);
+    }
+
+    /* For programs built by PikeProgram.compileSet. */
+    static LazyDfa of(PikeProgram program, int maxStates) {
+        return new LazyDfa(program, maxStates);
+    }
+
+    private final PikeProgram program;
+    private final int maxStates;
+
+    private final CharClasses charClasses;
+    private final Counters counters = new Counters();
+
+    /* no initial value, so reading the counters does not create a cache */
+    private final ThreadLocal<Cache> cache = new ThreadLocal<>();
+
+    private LazyDfa(PikeProgram program, int maxStates) {
+        this.program = program;
+        this.maxStates = maxStates;
+
+        // Range boundaries of all groups split chars into intervals,
+        // all chars inside an interval behave the same
+        List<CharClass> classes = new ArrayList<>();
+        TreeSet<Integer> boundaries = new TreeSet<>();
+        boundaries.add(0);
+        boundaries.add(256);
+        for (int pc = 0; pc < program.code.length; pc += instructionLength(program.code[pc])) {
+            int op = program.code[pc];
+            if (op == GROUP || op == NEGATED_GROUP) {
+                CharClass chars = program.classes[program.code[pc + 1]];
+                classes.add(chars);
+                for (int i = 0; i < chars.numOfRanges(); i++) {
+                    boundaries.add((int) chars.rangeStart(i));
+                    boundaries.add(chars.rangeEnd(i) + 1);
+                }
+            }
+        }
+        boundaries.remove(Character.MAX_VALUE + 1);
+
+        Map<String, Integer> classBySignature = new HashMap<>();
+        List<Character> reps = new ArrayList<>();
+        List<Integer> starts = new ArrayList<>();
+        List<Integer> startClasses = new ArrayList<>();
+
+        for (int start : boundaries) {
+            char c = (char) start;
+            StringBuilder signature = new StringBuilder(classes.size());
+            for (CharClass chars : classes) {
+                signature.append(chars.contains(c) ? '1' : '0');
+            }
+
+            Integer cls = classBySignature.get(signature.toString());
+            if (cls == null) {
+                cls = reps.size();
+                reps.add(c);
+                classBySignature.put(signature.toString(), cls);
+            }
+            starts.add(start);
+            startClasses.add(cls);
+        }
+
+        char[] representatives = new char[reps.size()];
+        for (int i = 0; i < reps.size(); i++) {
+            representatives[i] = reps.get(i);
+        }
+
+        int[] latin1Classes = new int[256];
+        List<Character> others = new ArrayList<>();
+        List<Integer> otherClassList = new ArrayList<>();
+        for (int i = 0; i < starts.size(); i++) {
+            int from = starts.get(i);
+            if (from >= 256) {
+                others.add((char) from);
+                otherClassList.add(startClasses.get(i));
+                continue;
+            }
+            int to = (i + 1 < starts.size()) ? starts.get(i + 1) : 256;
+            for (int c = from; c < to; c++) {
+                latin1Classes[c] = startClasses.get(i);
+            }
+        }
+
+        char[] intervalStarts = new char[others.size()];
+        int[] intervalClasses = new int[others.size()];
+        for (int i = 0; i < others.size(); i++) {
+            intervalStarts[i] = others.get(i);
+            intervalClasses[i] = otherClassList.get(i);
+        }
+
+        this.charClasses = new CharClasses(
+                latin1Classes, intervalStarts, intervalClasses, representatives);
+    }
+
+    private Cache cache() {
+        Cache c = cache.get();
+        if (c == null) {
+            c = new Cache(program, charClasses, maxStates, counters);
+            cache.set(c);
+        }
+        return c;
+    }
+
+    /**
+     * @return true if any substring of the input matches the regex
+     */
+    public boolean hasMatch(String s) {
+        Cache c = cache();
+        try {
+            return c.run(s);
+        } finally {
+            c.flushCounters();
+        }
+    }
+
+    /**
+     * For programs with many patterns, finds all patterns that match
+     * a substring of the input, in a single pass.
+     *
+     * @return indexes of the matching patterns
+     */
+    public BitSet matchingPatterns(String s) {
+        BitSet result = new BitSet(program.numOfPatterns());
+        Cache c = cache();
+        try {
+            c.runAll(s, result);
+        } finally {
+            c.flushCounters();
+        }
+        return result;
+    }
+
+    public int maxStates() {
+        return maxStates;
+    }
+
+    public int numOfCharClasses() {
+        return charClasses.representatives.length;
+    }
+
+    /** Transitions that were already in the cache. */
+    public long cacheHits() {
+        return counters.cacheHits.sum();
+    }
+
+    /** Transitions that had to be computed. */
+    public long cacheMisses() {
+        return counters.cacheMisses.sum();
+    }
+
+    /** States built since creation, in all threads, including the evicted ones. */
+    public long statesCreated() {
+        return counters.statesCreated.sum();
+    }
+
+    /** How many times a full cache was cleared. */
+    public long cacheClears() {
+        return counters.cacheClears.sum();
+    }
+
+    /** States currently cached by the calling thread, 0 if it has not used this DFA. */
+    public int cachedStates() {
+        Cache c = cache.get();
+        return (c != null) ? c.states.size() : 0;
+    }
+
+    private static int instructionLength(int op) {
+        switch (op) {
+            case MATCH:
+            case AT_BEGINNING:
+            case AT_END:
+            case FAIL:
+                return 1;
+            case GROUP:
+            case NEGATED_GROUP:
+            case JMP:
+            case SAVE:
+                return 2;
+            case SPLIT:
+            case IF_EMPTY:
+                return 3;
+            default:
+                throw new AssertionError("Unknown opcode: " + op);
+        }
+    }
+
+    private static final class State {
+        /* sorted pcs of GROUP, NEGATED_GROUP, AT_END and MATCH instructions */
+        final int[] pcs;
+        /* patterns whose MATCH is in pcs */
+        final int[] matches;
+        final boolean matching;
+        final State[] next;
+
+        /* patterns that match at the end of input, null if not computed */
+        int[] atEndMatches;
+
+        State(int[] pcs, int[] matches, int numOfClasses) {
+            this.pcs = pcs;
+            this.matches = matches;
+            this.matching = matches.length > 0;
+            this.next = new State[numOfClasses];
+        }
+    }
+
+    /* Chars are split into classes that no instruction can tell apart. Immutable. */
+    private static final class CharClasses {
+        final int[] latin1Classes;
+        /* intervals of chars >= 256, each starts at intervalStarts[i] */
+        final char[] intervalStarts;
+        final int[] intervalClasses;
+        final char[] representatives;
+
+        CharClasses(int[] latin1Classes, char[] intervalStarts,
+                    int[] intervalClasses, char[] representatives) {
+            this.latin1Classes = latin1Classes;
+            this.intervalStarts = intervalStarts;
+            this.intervalClasses = intervalClasses;
+            this.representatives = representatives;
+        }
+
+        int classOf(char c) {
+            if (c < 256) return latin1Classes[c];
+
+            // Find the last interval that starts at or before c, the first one starts at 256
+            int lo = 0, hi = intervalStarts.length - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (intervalStarts[mid] <= c) lo = mid + 1;
+                else hi = mid - 1;
+            }
+            return intervalClasses[hi];
+        }
+    }
+
+    /* Shared by the caches of all threads. */
+    private static final class Counters {
+        final LongAdder cacheHits = new LongAdder();
+        final LongAdder cacheMisses = new LongAdder();
+        final LongAdder statesCreated = new LongAdder();
+        final LongAdder cacheClears = new LongAdder();
+    }
+
+    /*
+     * Per-thread states and scratch space. Static, the value of a ThreadLocal
+     * must not reference its owner, or the owner is never collected.
+     */
+    private static final class Cache {
+        final PikeProgram program;
+        final CharClasses charClasses;
+        final int maxStates;
+        final Counters counters;
+
+        final Map<IntArrayKey, State> states = new HashMap<>();
+
+        final int[] stack;
+        final boolean[] visited;
+        final int[] found;
+        int numFound;
+
+        State start;
+        long hits, misses, created, clears;
+
+        Cache(PikeProgram program, CharClasses charClasses, int maxStates, Counters counters) {
+            this.program = program;
+            this.charClasses = charClasses;
+            this.maxStates = maxStates;
+            this.counters = counters;
+            this.stack = new int[2 * program.code.length + 1];
+            this.visited = new boolean[program.code.length];
+            this.found = new int[program.code.length];
+        }
+
+        boolean run(String s) {
+            int len = s.length();
+
+            if (len == 0) {
+                // ^ and $ both hold, not worth caching
+                numFound = 0;
+                closure(0, true, true);
+                return foundMatches().length > 0;
+            }
+
+            State state = startState();
+            for (int pos = 0; pos < len; pos++) {
+                if (state.matching) return true;
+                if (state.pcs.length == 0) return false;
+
+                int cls = charClasses.classOf(s.charAt(pos));
+                State next = state.next[cls];
+                if (next != null) {
+                    hits++;
+                } else {
+                    misses++;
+                    next = step(state, cls);
+                }
+                state = next;
+            }
+
+            return state.matching || matchesAtEnd(state).length > 0;
+        }
+
+        void runAll(String s, BitSet result) {
+            int len = s.length();
+            int remaining = program.numOfPatterns();
+
+            if (len == 0) {
+                numFound = 0;
+                closure(0, true, true);
+                for (int pattern : foundMatches()) result.set(pattern);
+                return;
+            }
+
+            State state = startState();
+            for (int pos = 0; pos < len; pos++) {
+                for (int pattern : state.matches) {
+                    if (!result.get(pattern)) {
+                        result.set(pattern);
+                        remaining--;
+                    }
+                }
+                if (remaining == 0 || state.pcs.length == 0) return;
+
+                int cls = charClasses.classOf(s.charAt(pos));
+                State next = state.next[cls];
+                if (next != null) {
+                    hits++;
+                } else {
+                    misses++;
+                    next = step(state, cls);
+                }
+                state = next;
+            }
+
+            for (int pattern : state.matches) result.set(pattern);
+            for (int pattern : matchesAtEnd(state)) result.set(pattern);
+        }
+
+        private State startState() {
+            if (start == null) {
+                numFound = 0;
+                closure(0, true, false);
+                start = intern();
+            }
+            return start;
+        }
+
+        private State step(State state, int cls) {
+            final int[] code = program.code;
+            char c = charClasses.representatives[cls];
+
+            numFound = 0;
+            for (int pc : state.pcs) {
+                int op = code[pc];
+                if (op == GROUP || op == NEGATED_GROUP) {
+                    boolean contains = program.classes[code[pc + 1]].contains(c);
+                    if (contains == (op == GROUP)) {
+                        closure(pc + 2, false, false);
+                    }
+                }
+            }
+            // Unanchored search, a new match may start at every position
+            closure(0, false, false);
+
+            if (states.size() >= maxStates) {
+                // Clear and restart, the old states become garbage once
+                // matching moves past them
+                states.clear();
+                start = null;
+                clears++;
+                return intern();
+            }
+
+            State next = intern();
+            state.next[cls] = next;
+            return next;
+        }
+
+        private int[] matchesAtEnd(State state) {
+            if (state.atEndMatches == null) {
+                numFound = 0;
+                for (int pc : state.pcs) {
+                    if (program.code[pc] == AT_END) {
+                        closure(pc + 1, false, true);
+                    }
+                }
+                state.atEndMatches = foundMatches();
+            }
+            return state.atEndMatches;
+        }
+
+        /**
+         * Follows empty transitions from startPc, adds instructions
+         * that must wait for a char (or for the end of input) to found.
+         */
+        private void closure(int startPc, boolean atBeginning, boolean atEnd) {
+            final int[] code = program.code;
+
+            int top = 0;
+            stack[top++] = startPc;
+
+            while (top > 0) {
+                int pc = stack[--top];
+                if (visited[pc]) continue;
+                visited[pc] = true;
+                found[numFound++] = pc;
+
+                switch (code[pc]) {
+                    case JMP:
+                        stack[top++] = code[pc + 1];
+                        break;
+
+                    case SPLIT:
+                        stack[top++] = code[pc + 2];
+                        stack[top++] = code[pc + 1];
+                        break;
+
+                    case IF_EMPTY:
+                        // Empty iterations do not change what is matched, only
+                        // how, so both ways are followed
+                        stack[top++] = code[pc + 2];
+                        stack[top++] = pc + 3;
+                        break;
+
+                    case SAVE:
+                        stack[top++] = pc + 2;
+                        break;
+
+                    case AT_BEGINNING:
+                        if (atBeginning) stack[top++] = pc + 1;
+                        break;
+
+                    case AT_END:
+                        if (atEnd) stack[top++] = pc + 1;
+                        break;
+
+                    default:
+                        // MATCH, FAIL or instruction consuming a char
+                        break;
+                }
+            }
+        }
+
+        /* Patterns whose MATCH was found, clears visited. */
+        private int[] foundMatches() {
+            int size = 0;
+            for (int i = 0; i < numFound; i++) {
+                int pc = found[i];
+                visited[pc] = false;
+                if (program.code[pc] == MATCH) found[size++] = pc;
+            }
+            return patternsOf(found, size);
+        }
+
+        private int[] patternsOf(int[] matchPcs, int size) {
+            int[] patterns = new int[size];
+            for (int i = 0; i < size; i++) {
+                patterns[i] = program.patternOf(matchPcs[i]);
+            }
+            return patterns;
+        }
+
+        /* Turns found pcs into a state, reusing a cached one if possible. */
+        private State intern() {
+            final int[] code = program.code;
+
+            int size = 0;
+            for (int i = 0; i < numFound; i++) {
+                int pc = found[i];
+                visited[pc] = false;
+
+                int op = code[pc];
+                if (op == MATCH || op == GROUP || op == NEGATED_GROUP || op == AT_END) {
+                    found[size++] = pc;
+                }
+            }
+
+            int[] pcs = Arrays.copyOf(found, size);
+            Arrays.sort(pcs);
+            IntArrayKey key = new IntArrayKey(pcs);
+
+            State state = states.get(key);
+            if (state == null) {
+                int numOfMatches = 0;
+                for (int pc : pcs) {
+                    if (code[pc] == MATCH) found[numOfMatches++] = pc;
+                }
+                state = new State(pcs, patternsOf(found, numOfMatches),
+                        charClasses.representatives.length);
+                states.put(key, state);
+                created++;
+            }
+            return state;
+        }
+
+        void flushCounters() {
+            counters.cacheHits.add(hits);
+            counters.cacheMisses.add(misses);
+            counters.statesCreated.add(created);
+            counters.cacheClears.add(clears);
+            hits = misses = created = clears = 0;
+        }
+    }
+
+    private static final class IntArrayKey {
+        private final int[] values;
+        private final int hash;
+
+        IntArrayKey(int[] values) {
+            this.values = values;
+            this.hash = Arrays.hashCode(values);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return (o instanceof IntArrayKey) && Arrays.equals(values, ((IntArrayKey) o).values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package pl.marcinchwedczuk.reng;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Literals of an alternative like (error|warning|fatal) in a shared-prefix trie,
+ * see {@link RAstType#TRIE}. Finding the literals that match at a position
+ * walks the trie along the input, so it costs the length of the longest
+ * matching literal, not the number of literals.
+ *
+ * Literals keep their priority, the position in the alternative.
+ * A literal equal to an earlier one can never change the result
+ * and is dropped. Immutable.
+ */
+public final class LiteralTrie {
+
+    private final List<String> literals;
+
+    /* children of node n are keys[n] (sorted) leading to next[n] */
+    private final char[][] keys;
+    private final int[][] next;
+    /* literal ending at a node, or -1 */
+    private final int[] terminal;
+    /* most literals ending on one path from the root */
+    private final int maxMatches;
+
+    public static LiteralTrie of(List<String> literals) {
+        List<TreeMap<Character, Integer>> children = new ArrayList<>();
+        List<Integer> terminal = new ArrayList<>();
+        List<String> unique = new ArrayList<>();
+
+        children.add(new TreeMap<>());
+        terminal.add(-1);
+
+        for (String literal : literals) {
+            int node = 0;
+            for (int i = 0; i < literal.length(); i++) {
+                Integer child = children.get(node).get(literal.charAt(i));
+                if (child == null) {
+                    child = children.size();
+                    children.add(new TreeMap<>());
+                    terminal.add(-1);
+                    children.get(node).put(literal.charAt(i), child);
+                }
+                node = child;
+            }
+
+            if (terminal.get(node) == -1) {
+                terminal.set(node, unique.size());
+                unique.add(literal);
+            }
+        }
+
+        return new LiteralTrie(unique, children, terminal);
+    }
+
+    private LiteralTrie(List<String> literals,
+                        List<TreeMap<Character, Integer>> children,
+                        List<Integer> terminal) {
+        this.literals = Collections.unmodifiableList(literals);
+        this.keys = new char[children.size()][];
+        this.next = new int[children.size()][];
+        this.terminal = new int[children.size()];
+
+        // Children are created after their parent, so parents come first
+        int[] onPath = new int[children.size()];
+        int maxMatches = 0;
+
+        for (int n = 0; n < children.size(); n++) {
+            TreeMap<Character, Integer> map = children.get(n);
+            keys[n] = new char[map.size()];
+            next[n] = new int[map.size()];
+
+            int i = 0;
+            for (Map.Entry<Character, Integer> e : map.entrySet()) {
+                keys[n][i] = e.getKey();
+                next[n][i] = e.getValue();
+                i++;
+            }
+            this.terminal[n] = terminal.get(n);
+
+            if (terminal.get(n) != -1) onPath[n]++;
+            maxMatches = Math.max(maxMatches, onPath[n]);
+            for (int child : next[n]) onPath[child] = onPath[n];
+        }
+        this.maxMatches = maxMatches;
+    }
+
+    /** Literals in priority order, without duplicates. */
+    public List<String> literals() {
+        return literals;
+    }
+
+    public int size() {
+        return literals.size();
+    }
+
+    public int numOfNodes() {
+        return terminal.length;
+    }
+
+    public boolean containsEmpty() {
+        return terminal[0] != -1;
+    }
+
+    /** Most literals that can match at one position, the buffer size for find. */
+    public int maxMatches() {
+        return maxMatches;
+    }
+
+    /**
+     * Stores indexes of the literals that match at the current position
+     * into found, in priority order. Input position is left unchanged.
+     *
+     * @param found buffer of at least {@link #maxMatches()} elements
+     * @return number of found literals
+     */
+    public int find(Input input, int[] found) {
+        int count = 0;
+        int node = 0;
+        if (terminal[0] != -1) found[count++] = terminal[0];
+
+        InputPositionMarker m = input.markPosition();
+        while (!input.atEnd()) {
+            node = child(node, input.current());
+            if (node < 0) break;
+            input.advance(1);
+
+            if (terminal[node] != -1) found[count++] = terminal[node];
+        }
+        input.restorePosition(m);
+
+        sortByPriority(found, count);
+        return count;
+    }
+
+    /** Same as {@link #find(Input, int[])}, for the literals starting at s[pos]. */
+    public int find(String s, int pos, int[] found) {
+        int count = 0;
+        int node = 0;
+        if (terminal[0] != -1) found[count++] = terminal[0];
+
+        for (int i = pos; i < s.length(); i++) {
+            node = child(node, s.charAt(i));
+            if (node < 0) break;
+
+            if (terminal[node] != -1) found[count++] = terminal[node];
+        }
+
+        sortByPriority(found, count);
+        return count;
+    }
+
+    private int child(int node, char c) {
+        int i = Arrays.binarySearch(keys[node], c);
+        return (i >= 0) ? next[node][i] : -1;
+    }
+
+    /* Found literals are prefixes of each other, there are only a few of them. */
+    private static void sortByPriority(int[] found, int count) {
+        for (int i = 1; i < count; i++) {
+            int literal = found[i];
+            int j = i - 1;
+            for (; j >= 0 && found[j] > literal; j--) {
+                found[j + 1] = found[j];
+            }
+            found[j + 1] = literal;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.join("|", literals);
+    }
+}
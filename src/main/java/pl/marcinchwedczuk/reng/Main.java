@@ -8,6 +8,10 @@ import java.io.Console;
 public class Main {
 
     public static void main(String[] args) {
+        if (args.length > 0) {
+            System.exit(FileSearch.run(args, System.out, System.err));
+        }
+
         Console con = System.console();
         if (con == null) {
             System.err.println("System.console() returned null.");
@@ -19,10 +23,14 @@ public class Main {
 
         RAst regex = readRegex(con);
         if (regex == null) return;
+        CompiledRegex compiled = CompiledRegex.compile(regex);
+        con.printf("PLAN: %s%n", compiled.plan());
+        con.printf("NODES: %d, %d before optimisation%n",
+                compiled.numOfNodes(), compiled.numOfSourceNodes());
 
         String line;
         while ((line = con.readLine("INPUT? ")) != null) {
-            Match m = BacktrackingMatcher.match(line, regex);
+            Match m = compiled.match(line);
             if (m.hasMatch) {
                 con.printf("MATCH %s at position (%d, %d)%n", m.matched(), m.start, m.end);
             }
@@ -1,20 +1,71 @@
 package pl.marcinchwedczuk.reng;
 
 public class Match {
+    /* offset of a group that did not participate in the match */
+    public static final int UNSET = -1;
+
+    private static final int[] NO_CAPTURES = {};
+
     public final boolean hasMatch;
     public final String input;
     public final int start;
     public final int end;
 
+    /* start and end of group g at 2g and 2g+1, text is extracted only on request */
+    private final int[] captures;
+
     public Match(String input, boolean hasMatch, int start, int end) {
+        this(input, hasMatch, start, end, NO_CAPTURES);
+    }
+
+    /**
+     * @param captures start and end offsets of the groups, group g at 2g and 2g+1,
+     *                 entries for group 0 are ignored
+     */
+    public Match(String input, boolean hasMatch, int start, int end, int[] captures) {
         this.input = input;
         this.hasMatch = hasMatch;
         this.start = start;
         this.end = end;
+        this.captures = captures;
     }
 
     public String matched()  {
         if (!hasMatch) return null;
         return input.substring(start, end);
     }
+
+    /** Number of capture groups, without group 0. */
+    public int groupCount() {
+        return Math.max(captures.length / 2 - 1, 0);
+    }
+
+    /** Start of the group, UNSET if it did not participate in the match. */
+    public int start(int group) {
+        checkGroup(group);
+        return (group == 0) ? start : captures[2 * group];
+    }
+
+    /** End of the group, UNSET if it did not participate in the match. */
+    public int end(int group) {
+        checkGroup(group);
+        return (group == 0) ? end : captures[2 * group + 1];
+    }
+
+    /** Text of the group, null if it did not participate in the match. */
+    public String group(int group) {
+        int groupStart = start(group);
+        return (groupStart == UNSET) ? null : input.substring(groupStart, end(group));
+    }
+
+    /* Group offsets as given to the constructor. */
+    int[] captures() {
+        return captures;
+    }
+
+    private void checkGroup(int group) {
+        if (!hasMatch) throw new IllegalStateException("No match.");
+        if (group < 0 || group > groupCount())
+            throw new IndexOutOfBoundsException("No group " + group + ".");
+    }
 }
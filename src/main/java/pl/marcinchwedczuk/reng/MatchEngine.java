@@ -0,0 +1,18 @@
+package pl.marcinchwedczuk.reng;
+
+public enum MatchEngine {
+
+    /* recursive, continuation passing backtracking */
+    BACKTRACKING,
+
+    /* backtracking with an explicit, heap allocated stack */
+    STACK_BACKTRACKING,
+
+    /* Thompson NFA simulation, linear time, no backreferences and lookaheads */
+    PIKE_VM,
+
+    /* lazy DFA answers if there is a match, Pike VM finds where;
+       patterns with backreferences or lookaheads fall back to BACKTRACKING */
+    LAZY_DFA
+
+}
@@ -0,0 +1,143 @@
+package pl.marcinchwedczuk.reng;
+
+/**
+ * Engine and memoisation settings chosen for a regex by MatchPlanner,
+ * together with the facts about the regex the choice was based on.
+ * Immutable, the with* methods return overridden copies,
+ * e.g. to benchmark engines against each other.
+ */
+public final class MatchPlan {
+
+    private final ResultType resultType;
+    private final MatchEngine engine;
+    private final MemoisationPolicy memPolicy;
+    private final MemoisationEncodingScheme memEncScheme;
+    private final String reason;
+    private final boolean optimise;
+
+    private final boolean hasBackreferences;
+    private final boolean hasLookaheads;
+    private final int numOfCaptureGroups;
+    private final long largestBoundedRepeat;
+    private final int numOfNodes;
+    private final long pikeProgramSize;
+    private final long pikeStepCost;
+
+    MatchPlan(ResultType resultType,
+              MatchEngine engine,
+              MemoisationPolicy memPolicy,
+              MemoisationEncodingScheme memEncScheme,
+              String reason,
+              boolean optimise,
+              boolean hasBackreferences,
+              boolean hasLookaheads,
+              int numOfCaptureGroups,
+              long largestBoundedRepeat,
+              int numOfNodes,
+              long pikeProgramSize,
+              long pikeStepCost) {
+        this.resultType = resultType;
+        this.engine = engine;
+        this.memPolicy = memPolicy;
+        this.memEncScheme = memEncScheme;
+        this.reason = reason;
+        this.optimise = optimise;
+        this.hasBackreferences = hasBackreferences;
+        this.hasLookaheads = hasLookaheads;
+        this.numOfCaptureGroups = numOfCaptureGroups;
+        this.largestBoundedRepeat = largestBoundedRepeat;
+        this.numOfNodes = numOfNodes;
+        this.pikeProgramSize = pikeProgramSize;
+        this.pikeStepCost = pikeStepCost;
+    }
+
+    public MatchPlan withEngine(MatchEngine engine) {
+        return new MatchPlan(resultType, engine, memPolicy, memEncScheme,
+                "overridden", optimise, hasBackreferences, hasLookaheads, numOfCaptureGroups,
+                largestBoundedRepeat, numOfNodes, pikeProgramSize, pikeStepCost);
+    }
+
+    public MatchPlan withMemoisation(MemoisationPolicy memPolicy,
+                                     MemoisationEncodingScheme memEncScheme) {
+        return new MatchPlan(resultType, engine, memPolicy, memEncScheme,
+                "overridden", optimise, hasBackreferences, hasLookaheads, numOfCaptureGroups,
+                largestBoundedRepeat, numOfNodes, pikeProgramSize, pikeStepCost);
+    }
+
+    /** Returns a copy with RAstOptimizer turned on or off. */
+    public MatchPlan withOptimisation(boolean optimise) {
+        return new MatchPlan(resultType, engine, memPolicy, memEncScheme,
+                reason, optimise, hasBackreferences, hasLookaheads, numOfCaptureGroups,
+                largestBoundedRepeat, numOfNodes, pikeProgramSize, pikeStepCost);
+    }
+
+    public ResultType resultType() {
+        return resultType;
+    }
+
+    public MatchEngine engine() {
+        return engine;
+    }
+
+    public MemoisationPolicy memoisationPolicy() {
+        return memPolicy;
+    }
+
+    public MemoisationEncodingScheme memoisationEncodingScheme() {
+        return memEncScheme;
+    }
+
+    /** Why the engine was chosen. */
+    public String reason() {
+        return reason;
+    }
+
+    /** True if the regex is rewritten by RAstOptimizer before compiling. */
+    public boolean optimise() {
+        return optimise;
+    }
+
+    public boolean hasBackreferences() {
+        return hasBackreferences;
+    }
+
+    public boolean hasLookaheads() {
+        return hasLookaheads;
+    }
+
+    public int numOfCaptureGroups() {
+        return numOfCaptureGroups;
+    }
+
+    /** Largest finite upper bound of a repetition, 0 if there are none. */
+    public long largestBoundedRepeat() {
+        return largestBoundedRepeat;
+    }
+
+    public int numOfNodes() {
+        return numOfNodes;
+    }
+
+    /** See {@link PikeProgram#estimateSize(RAst)}. */
+    public long pikeProgramSize() {
+        return pikeProgramSize;
+    }
+
+    /** See {@link PikeProgram#estimateStepCost(RAst)}. */
+    public long pikeStepCost() {
+        return pikeStepCost;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%s (%s) for %s results, memoisation %s/%s, optimised: %b; " +
+                "backreferences: %b, lookaheads: %b, capture groups: %d, " +
+                "largest bounded repeat: %d, nodes: %d, Pike VM program size: %s, step cost: %s",
+                engine, reason, resultType, memPolicy, memEncScheme, optimise,
+                hasBackreferences, hasLookaheads, numOfCaptureGroups,
+                largestBoundedRepeat, numOfNodes,
+                (pikeProgramSize == Long.MAX_VALUE) ? "n/a" : Long.toString(pikeProgramSize),
+                (pikeStepCost == Long.MAX_VALUE) ? "n/a" : Long.toString(pikeStepCost));
+    }
+}
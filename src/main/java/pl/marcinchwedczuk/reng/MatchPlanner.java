@@ -0,0 +1,113 @@
+package pl.marcinchwedczuk.reng;
+
+/**
+ * Picks the cheapest engine that gives correct results for a regex:
+ * <ul>
+ *     <li>lazy DFA when only a boolean answer (or a span without groups) is needed,</li>
+ *     <li>Pike VM when capture groups are needed,</li>
+ *     <li>memoised backtracking when backreferences or lookaheads
+ *     rule out automata, or unrolled repetitions make the NFA too big
+ *     or too slow to simulate.</li>
+ * </ul>
+ */
+public class MatchPlanner {
+
+    /* Memoisation used when backtracking cannot be avoided. Only ALL keeps
+       (a|aa)*c polynomial, the other policies leave it exponential
+       (see RedosBenchmark), RLE keeps the table small. */
+    static final MemoisationPolicy BACKTRACKING_POLICY = MemoisationPolicy.ALL;
+    static final MemoisationEncodingScheme BACKTRACKING_SCHEME = MemoisationEncodingScheme.RLE;
+
+    private boolean hasBackreferences = false;
+    private boolean hasLookaheads = false;
+    private boolean hasAtomicGroups = false;
+    private int numOfCaptureGroups = 0;
+    private long largestBoundedRepeat = 0;
+    private int numOfNodes = 0;
+
+    private MatchPlanner() { }
+
+    public static MatchPlan plan(RAst regex, ResultType resultType) {
+        return new MatchPlanner().createPlan(regex, resultType);
+    }
+
+    private MatchPlan createPlan(RAst regex, ResultType resultType) {
+        analyse(regex);
+        long pikeProgramSize = PikeProgram.estimateSize(regex);
+        long pikeStepCost = PikeProgram.estimateStepCost(regex);
+
+        MatchEngine engine;
+        String reason;
+
+        if (hasBackreferences) {
+            engine = MatchEngine.STACK_BACKTRACKING;
+            reason = "backreferences need backtracking";
+        }
+        else if (hasLookaheads) {
+            engine = MatchEngine.STACK_BACKTRACKING;
+            reason = "lookaheads need backtracking";
+        }
+        else if (hasAtomicGroups) {
+            engine = MatchEngine.STACK_BACKTRACKING;
+            reason = "atomic groups need backtracking";
+        }
+        else if (pikeProgramSize > PikeProgram.MAX_SIZE) {
+            engine = MatchEngine.STACK_BACKTRACKING;
+            reason = "unrolled repetitions exceed " + PikeProgram.MAX_SIZE + " instructions";
+        }
+        else if (pikeStepCost > PikeProgram.MAX_STEP_COST) {
+            engine = MatchEngine.STACK_BACKTRACKING;
+            reason = "nested repetitions make Pike VM steps cost more than " + PikeProgram.MAX_STEP_COST;
+        }
+        else if (resultType == ResultType.CAPTURES && numOfCaptureGroups > 0) {
+            engine = MatchEngine.PIKE_VM;
+            reason = "capture groups need NFA simulation";
+        }
+        else {
+            engine = MatchEngine.LAZY_DFA;
+            reason = (resultType == ResultType.BOOLEAN)
+                    ? "boolean result"
+                    : "DFA rejects non-matching inputs, Pike VM locates matches";
+        }
+
+        return new MatchPlan(resultType, engine, BACKTRACKING_POLICY, BACKTRACKING_SCHEME,
+                reason, true, hasBackreferences, hasLookaheads, numOfCaptureGroups,
+                largestBoundedRepeat, numOfNodes, pikeProgramSize, pikeStepCost);
+    }
+
+    private void analyse(RAst ast) {
+        numOfNodes++;
+
+        switch (ast.type) {
+            case BACKREF:
+                hasBackreferences = true;
+                break;
+
+            case POS_LOOKAHEAD:
+            case NEG_LOOKAHEAD:
+                hasLookaheads = true;
+                break;
+
+            case ATOMIC_GROUP:
+                hasAtomicGroups = true;
+                break;
+
+            case CAPTURE_GROUP:
+                numOfCaptureGroups = Math.max(numOfCaptureGroups, ast.captureGroup);
+                break;
+
+            case REPEAT:
+                if (ast.repeatMax != RAst.UNBOUND) {
+                    largestBoundedRepeat = Math.max(largestBoundedRepeat, ast.repeatMax);
+                }
+                break;
+
+            default:
+                break;
+        }
+
+        for (RAst child : ast.exprs) {
+            analyse(child);
+        }
+    }
+}
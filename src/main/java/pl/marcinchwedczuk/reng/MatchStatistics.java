@@ -0,0 +1,77 @@
+package pl.marcinchwedczuk.reng;
+
+/**
+ * Counters collected by {@link CompiledRegex#match(String, MatchStatistics)}.
+ * Shows how much work the backtracking matcher did and whether
+ * memoisation helped. Reset by every match it is passed to.
+ *
+ * Counting is compiled in only when the JVM runs with
+ * -Dreng.statistics=true, see {@link #ENABLED}.
+ */
+public class MatchStatistics {
+    /**
+     * Read once at class load, so the JIT removes the counters
+     * from the matcher when statistics are off.
+     */
+    public static final boolean ENABLED = Boolean.getBoolean("reng.statistics");
+
+    long nodeVisits;
+    long continuations;
+    long backtracks;
+    long memoHits;
+    long memoCellsMarked;
+    long startPositions;
+    long memoTableBytes;
+
+    void reset() {
+        nodeVisits = 0;
+        continuations = 0;
+        backtracks = 0;
+        memoHits = 0;
+        memoCellsMarked = 0;
+        startPositions = 0;
+        memoTableBytes = 0;
+    }
+
+    /** Number of times matching of an RAst node started. */
+    public long nodeVisits() {
+        return nodeVisits;
+    }
+
+    /** Number of continuation invocations. */
+    public long continuations() {
+        return continuations;
+    }
+
+    /** Failed alternatives and repetitions after which another choice was tried. */
+    public long backtracks() {
+        return backtracks;
+    }
+
+    /** Node visits pruned by the memoisation table. */
+    public long memoHits() {
+        return memoHits;
+    }
+
+    public long memoCellsMarked() {
+        return memoCellsMarked;
+    }
+
+    public long startPositions() {
+        return startPositions;
+    }
+
+    /** Size of the memoisation table at the end of the match. */
+    public long memoTableBytes() {
+        return memoTableBytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "node visits: %d, continuations: %d, backtracks: %d, memo hits: %d, " +
+                "memo cells marked: %d, start positions: %d, memo table bytes: %d",
+                nodeVisits, continuations, backtracks, memoHits,
+                memoCellsMarked, startPositions, memoTableBytes);
+    }
+}
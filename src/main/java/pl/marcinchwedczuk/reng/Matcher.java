@@ -0,0 +1,156 @@
+package pl.marcinchwedczuk.reng;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Finds successive non-overlapping matches in a single input,
+ * like java.util.regex.Matcher.find().
+ *
+ * Searches use the engine of the regex plan, so they find the same matches
+ * as CompiledRegex.match. Regexes compiled for the Pike VM (PIKE_VM, or
+ * LAZY_DFA when the DFA could be built) are searched with PikeVmMatcher,
+ * with LAZY_DFA the DFA first rejects inputs without a match.
+ *
+ * Other regexes share one BacktrackingMatcher, its Input and memoisation table.
+ * Failures recorded by one search stay valid for the next ones, only the cells
+ * on the path of a found match are cleared, so finding all matches costs
+ * about as much as a single unanchored scan.
+ *
+ * After an empty match the next search starts one char later.
+ * Not thread-safe.
+ */
+public final class Matcher implements Iterable<Match> {
+
+    private final CompiledRegex regex;
+    private final String s;
+    /* exactly one of them is used */
+    private final PikeVmMatcher pikeMatcher;
+    private final BacktrackingMatcher matcher;
+    private final boolean mayMatch;
+
+    /* first position where the next search can start, > s.length() if none */
+    private int searchFrom = 0;
+
+    private boolean found = false;
+    private int start = -1;
+    private int end = -1;
+    private int[] captures;
+
+    Matcher(CompiledRegex regex, String s) {
+        this.regex = regex;
+        this.s = s;
+        boolean pike = (regex.pikeProgram() != null);
+        this.pikeMatcher = pike ? new PikeVmMatcher(regex, s) : null;
+        this.matcher = pike ? null : new BacktrackingMatcher(regex, s);
+        this.mayMatch = regex.prefilter().mayMatch(s)
+                && (regex.dfa() == null || regex.dfa().hasMatch(s));
+    }
+
+    /**
+     * Looks for the next match.
+     * @return true if a match was found, its span is available from start() and end()
+     */
+    public boolean find() {
+        found = false;
+        if (!mayMatch || searchFrom > s.length()) return false;
+        if (pikeMatcher != null) return findWithPikeVm();
+
+        StartPositionScanner scanner = regex.startPositionScanner();
+        int startIndex = scanner.nextCandidate(s, searchFrom);
+
+        while (startIndex != StartPositionScanner.NO_CANDIDATE) {
+            if (matcher.matchAt(startIndex, regex.ast())) {
+                found = true;
+                start = startIndex;
+                end = matcher.matchEnd();
+                captures = matcher.matchCaptures();
+                matcher.forgetMatchPath();
+
+                searchFrom = (end > start) ? end : end + 1;
+                return true;
+            }
+
+            if (startIndex == s.length()) break;
+            startIndex = scanner.nextCandidate(s, startIndex + 1);
+        }
+
+        searchFrom = s.length() + 1;
+        return false;
+    }
+
+    private boolean findWithPikeVm() {
+        Match m = pikeMatcher.match(searchFrom);
+        if (!m.hasMatch) {
+            searchFrom = s.length() + 1;
+            return false;
+        }
+
+        found = true;
+        start = m.start;
+        end = m.end;
+        captures = m.captures();
+        searchFrom = (end > start) ? end : end + 1;
+        return true;
+    }
+
+    public int start() {
+        checkFound();
+        return start;
+    }
+
+    public int end() {
+        checkFound();
+        return end;
+    }
+
+    /** Matched text. */
+    public String group() {
+        checkFound();
+        return s.substring(start, end);
+    }
+
+    /** The current match, with its capture groups. */
+    public Match toMatch() {
+        checkFound();
+        return new Match(s, true, start, end, captures);
+    }
+
+    private void checkFound() {
+        if (!found) throw new IllegalStateException("No match found.");
+    }
+
+    /** Iterates over the remaining matches, advancing this matcher. */
+    @Override
+    public Iterator<Match> iterator() {
+        return new Iterator<Match>() {
+            /* null - not searched yet */
+            private Boolean hasNext;
+
+            @Override
+            public boolean hasNext() {
+                if (hasNext == null) hasNext = find();
+                return hasNext;
+            }
+
+            @Override
+            public Match next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                hasNext = null;
+                return toMatch();
+            }
+        };
+    }
+
+    /** Stream of the remaining matches, advancing this matcher. */
+    public Stream<Match> results() {
+        return StreamSupport.stream(
+                Spliterators.spliteratorUnknownSize(iterator(),
+                        Spliterator.ORDERED | Spliterator.NONNULL),
+                false);
+    }
+}
@@ -1,91 +1,201 @@
 package pl.marcinchwedczuk.reng;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
 import java.util.Stack;
-import java.util.function.Function;
-
+import java.util.function.Predicate;
+
+/**
+ * Selects the nodes of a regex that should be memoised.
+ * Every selected node gets a dense row index in the memoisation table
+ * (see {@link RAst#getIndexInBitMap()}), all other nodes get
+ * {@link RAst#NOT_MEMOISED}. Nodes inside counted repeats
+ * have their own rows, see findNodes.
+ * This class mutates the nodes it is given, so it must only be used
+ * on trees that are still private to a CompiledRegex being built.
+ */
 public class MemoisationPolicyHelper {
 
-    private static int counter;
+    private int counter = 0;
+    private int countedCounter = 0;
+    private final List<Integer> countedNodes = new ArrayList<>();
+
+    /* nodes from which a backreference can be reached, never memoised */
+    private final Set<RAst> reachesBackref = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private MemoisationPolicyHelper() { }
 
     public static List<Integer> determineNodesToMemoise(RAst ast, MemoisationPolicy memPolicy) {
-        counter = 0;
+        return new MemoisationPolicyHelper().determine(ast, memPolicy);
+    }
+
+    /**
+     * Like determineNodesToMemoise, but also returns the ids of the nodes
+     * memoised with an iteration count, see {@link RAst#getCountedBy()}.
+     */
+    static Pair<List<Integer>, List<Integer>> determineNodesToMemoiseWithCounts(
+            RAst ast, MemoisationPolicy memPolicy) {
+        MemoisationPolicyHelper helper = new MemoisationPolicyHelper();
+        List<Integer> nodes = helper.determine(ast, memPolicy);
+        return new Pair<>(nodes, helper.countedNodes);
+    }
+
+    private List<Integer> determine(RAst ast, MemoisationPolicy memPolicy) {
+        findNodesReachingBackref(ast, false);
+
+        List<Integer> nodes = new ArrayList<>();
         switch (memPolicy) {
             case NONE:
-                return new ArrayList<>();
+                findNodes(ast, node -> false, nodes);
+                return nodes;
             case ALL:
-                return findAllNodes(ast);
+                findNodes(ast, node -> true, nodes);
+                return nodes;
             case IN_DEGREE_GREATER_THAN_1:
                 calculateInDegreeAndAncestorNodes(ast);
-                return findNodesWithInDegree(ast, inDeg -> inDeg > 1);
+                findNodes(ast, node -> node.getInDegree() > 1, nodes);
+                return nodes;
             case ANCESTOR_NODES:
                 calculateInDegreeAndAncestorNodes(ast);
-                return findAncestorNodes(ast);
+                findNodes(ast, RAst::getIsAncestorNode, nodes);
+                return nodes;
             default:
                 throw new RuntimeException("Unknown MemoisationPolicy [" + memPolicy.name() + "]");
         }
     }
 
-    private static List<Integer> findNodesWithInDegree(RAst ast, Function<Integer, Boolean> validInDegree) {
-        List<Integer> nodes = new ArrayList<>();
+    private void findNodes(RAst ast, Predicate<RAst> shouldMemoise, List<Integer> nodes) {
+        findNodes(ast, shouldMemoise, nodes, null, 0, false);
+    }
 
-        ast.setIndexInBitMap(counter++);
-        if (validInDegree.apply(ast.getInDegree()))
-            nodes.add(ast.id);
+    /**
+     * Inside a counted repeat, like (a|ab){2,5}, the rest of the regex
+     * depends on the iteration count, so (node, position) is not enough
+     * to tell that a visit fails. Such nodes are memoised with the count
+     * in a CountedMemoisationTable, their rows are numbered separately.
+     * With two counted repeats around, or with a counted repeat inside
+     * an atomic group or a lookahead (see BacktrackingMatcher.matchScoped),
+     * they are not memoised.
+     */
+    private void findNodes(RAst ast, Predicate<RAst> shouldMemoise, List<Integer> nodes,
+                           RAst countedBy, int numOfCountedRepeats, boolean inScope) {
+        boolean counted = (numOfCountedRepeats > 0);
+
+        if (shouldMemoise.test(ast) && numOfCountedRepeats <= 1 && !(counted && inScope)
+                && !reachesBackref.contains(ast)) {
+            ast.setIndexInBitMap(counted ? countedCounter++ : counter++);
+            ast.setCountedBy(counted ? countedBy.id : RAst.NO_ID);
+            (counted ? countedNodes : nodes).add(ast.id);
+        }
+        else {
+            ast.setIndexInBitMap(RAst.NOT_MEMOISED);
+            ast.setCountedBy(RAst.NO_ID);
+        }
 
-        for (RAst child : ast.exprs)
-            findNodesWithInDegree(child, validInDegree);
+        RAst childCountedBy = ast.isCountedRepeat() ? ast : countedBy;
+        int childNumOfCountedRepeats = numOfCountedRepeats + (ast.isCountedRepeat() ? 1 : 0);
+        boolean childInScope = inScope;
+
+        if (ast.type == RAstType.ATOMIC_GROUP
+                || ast.type == RAstType.POS_LOOKAHEAD
+                || ast.type == RAstType.NEG_LOOKAHEAD) {
+            // Inner match ends inside the group, whatever the counts outside are
+            childCountedBy = null;
+            childNumOfCountedRepeats = 0;
+            childInScope = true;
+        }
 
-        return nodes;
+        for (RAst child : ast.exprs)
+            findNodes(child, shouldMemoise, nodes,
+                    childCountedBy, childNumOfCountedRepeats, childInScope);
     }
 
-    private static List<Integer> findAncestorNodes(RAst ast) {
-        List<Integer> nodes = new ArrayList<>();
+    /**
+     * A memoised failure is only valid if the same (node, position) always
+     * fails, but a backreference matches whatever its group captured,
+     * e.g. in (cab|ca|c|b)\1 the visit of \1 with group 1 = "cab" fails,
+     * the one with "b" at the same position does not. So nodes that contain
+     * a backreference, or can be followed by one, are not memoised.
+     *
+     * @param backrefFollows whether a backreference can follow the node
+     */
+    private void findNodesReachingBackref(RAst node, boolean backrefFollows) {
+        boolean contains = containsBackref(node);
+        if (!contains && !backrefFollows) return;
+
+        reachesBackref.add(node);
+
+        switch (node.type) {
+            case CONCAT: {
+                boolean follows = backrefFollows;
+                for (int i = node.exprs.size() - 1; i >= 0; i--) {
+                    RAst child = node.exprs.get(i);
+                    findNodesReachingBackref(child, follows);
+                    follows = follows || containsBackref(child);
+                }
+                return;
+            }
 
-        ast.setIndexInBitMap(counter++);
-        if (ast.getIsAncestorNode())
-            nodes.add(ast.id);
+            case REPEAT:
+                // Next iteration can reach a backreference inside the body
+                findNodesReachingBackref(node.headExpr(), backrefFollows || contains);
+                return;
 
-        for (RAst child : ast.exprs)
-            findAncestorNodes(child);
+            case ATOMIC_GROUP:
+            case POS_LOOKAHEAD:
+            case NEG_LOOKAHEAD:
+                // Inner match ends inside the group
+                findNodesReachingBackref(node.headExpr(), false);
+                return;
 
-        return nodes;
+            default:
+                for (RAst child : node.exprs)
+                    findNodesReachingBackref(child, backrefFollows);
+        }
     }
 
-    private static List<Integer> findAllNodes(RAst ast) {
-        List<Integer> nodes = new ArrayList<>();
-        ast.setIndexInBitMap(counter++);
-        nodes.add(ast.id);
+    private static boolean containsBackref(RAst node) {
+        if (node.type == RAstType.BACKREF) return true;
 
-        for (RAst child : ast.exprs)
-            nodes.addAll(findAllNodes(child));
-
-        return nodes;
+        for (RAst child : node.exprs) {
+            if (containsBackref(child)) return true;
+        }
+        return false;
     }
 
-    private static void calculateInDegreeAndAncestorNodes(RAst node) {
+    private void calculateInDegreeAndAncestorNodes(RAst node) {
         calculateInDegreeAndAncestorNodes(node, new Stack<>());
     }
 
-    private static void calculateInDegreeAndAncestorNodes(RAst node, Stack<Integer> alternations) {
+    private void calculateInDegreeAndAncestorNodes(RAst node, Stack<Integer> alternations) {
         if (node.type == RAstType.REPEAT)
             node.setIsAncestorNode(true);
 
         if (node.type == RAstType.CONCAT) {
             for (int i = 0; i < node.exprs.size(); i++) {
                 RAst child = node.exprs.get(i);
-                calculateInDegreeAndAncestorNodes(child, alternations);
-                if (!alternations.empty()) {
-                    assert alternations.size() == 1;
-                    if (i + 1 < node.exprs.size()) {
-                        RAst n = node.exprs.get(i + 1);
-                        n.setInDegree(n.getInDegree() + alternations.pop());
-                    } else {
-                        /* this branch should only execute if the alternation was the
-                         * final subexpression in the regex */
-                        alternations.pop();
-                    }
+
+                /* alternations that end inside the child flow into the next sibling */
+                Stack<Integer> childAlternations = new Stack<>();
+                calculateInDegreeAndAncestorNodes(child, childAlternations);
+
+                int branches = 0;
+                while (!childAlternations.empty())
+                    branches += childAlternations.pop();
+
+                if (branches == 0)
+                    continue;
+
+                if (i + 1 < node.exprs.size()) {
+                    RAst n = node.exprs.get(i + 1);
+                    n.setInDegree(n.getInDegree() + branches);
+                } else {
+                    /* the alternation ends this concatenation, so it flows
+                     * into whatever follows the concatenation itself */
+                    alternations.push(branches);
                 }
             }
             return;
@@ -19,4 +19,20 @@ public interface MemoisationTable {
      */
     void mark(RAst node, int wordIdx);
 
+    /**
+     * Unmark all cells in the given columns, e.g. so that a table
+     * can be reused after a match
+     *
+     * @param from first index in input string to clear
+     * @param to index after the last one to clear
+     */
+    void clear(int from, int to);
+
+    /**
+     * Estimate the memory used by the table
+     *
+     * @return approximate number of bytes allocated on the heap
+     */
+    long sizeInBytes();
+
 }
@@ -0,0 +1,30 @@
+package pl.marcinchwedczuk.reng;
+
+public class MemoisationTableFactory {
+
+    /**
+     * Create an empty memoisation table.
+     *
+     * @param memEncScheme encoding used by the table
+     * @param numOfNodes number of memoised nodes, rows are indexed by
+     *                   {@link RAst#getIndexInBitMap()}
+     * @param numOfChars number of input positions, including end of input
+     * @return table or null when there is nothing to memoise
+     */
+    public static MemoisationTable create(MemoisationEncodingScheme memEncScheme,
+                                          int numOfNodes,
+                                          int numOfChars) {
+        if (numOfNodes == 0) return null;
+
+        switch (memEncScheme) {
+            case BIT_MAP:
+                return new BitMap(numOfNodes, numOfChars);
+            case HASH_TABLE:
+                return new HashTable(numOfNodes, numOfChars);
+            case RLE:
+                return new RunLengthEncoding(numOfNodes, numOfChars);
+            default:
+                throw new RuntimeException("Unknown MemoisationEncodingScheme [" + memEncScheme.name() + "]");
+        }
+    }
+}
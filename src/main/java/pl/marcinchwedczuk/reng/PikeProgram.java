@@ -0,0 +1,453 @@
+package pl.marcinchwedczuk.reng;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * RAst compiled into a Thompson NFA for PikeVmMatcher.
+ * Bounded repetitions are unrolled, backreferences and lookaheads
+ * cannot be expressed and are rejected.
+ * Every repetition saves the start of each iteration in its own slot
+ * and IF_EMPTY checks it, so like in the backtracking engines an empty
+ * iteration ends the loop. Slots of repetitions are never read as
+ * captures, the matcher only needs their nesting depth.
+ *
+ * Instructions are stored in a single int array, opcode followed
+ * by operands. Immutable once built.
+ */
+public class PikeProgram {
+
+    /* Upper limit on the number of instructions, mostly hit by unrolled repetitions. */
+    public static final int MAX_SIZE = 200_000;
+
+    /* Upper limit on estimateStepCost for regexes that MatchPlanner gives to the Pike VM. */
+    public static final long MAX_STEP_COST = MAX_SIZE;
+
+    // MATCH
+    static final int MATCH = 0;
+    // GROUP classIdx
+    static final int GROUP = 1;
+    // NEGATED_GROUP classIdx
+    static final int NEGATED_GROUP = 2;
+    // AT_BEGINNING
+    static final int AT_BEGINNING = 3;
+    // AT_END
+    static final int AT_END = 4;
+    // SPLIT preferred other
+    static final int SPLIT = 5;
+    // JMP target
+    static final int JMP = 6;
+    // SAVE slot
+    static final int SAVE = 7;
+    // FAIL
+    static final int FAIL = 8;
+    // IF_EMPTY slot target - jump if slot holds the current position
+    static final int IF_EMPTY = 9;
+
+    /**
+     * Checks if the regex can be compiled into a PikeProgram.
+     *
+     * @return null if the regex is supported, otherwise the reason why not
+     */
+    public static String unsupportedReason(RAst ast) {
+        switch (ast.type) {
+            case BACKREF:
+                return "backreferences are not supported";
+            case POS_LOOKAHEAD:
+            case NEG_LOOKAHEAD:
+                return "lookaheads are not supported";
+            case ATOMIC_GROUP:
+                return "atomic groups are not supported";
+            default:
+                for (RAst child : ast.exprs) {
+                    String reason = unsupportedReason(child);
+                    if (reason != null) return reason;
+                }
+                return null;
+        }
+    }
+
+    /**
+     * Computes the size of the program the regex compiles to, without compiling it.
+     * Saturates at Long.MAX_VALUE.
+     */
+    public static long estimateSize(RAst ast) {
+        // SAVE 0, regex, SAVE 1, MATCH
+        return add(5, estimateNodeSize(ast));
+    }
+
+    /**
+     * Estimates the work of PikeVmMatcher per input char, which is also
+     * the size of its workspace: every instruction can be visited once
+     * for every depth of nested repetitions, see PikeVmMatcher.addThread.
+     * Saturates at Long.MAX_VALUE.
+     */
+    public static long estimateStepCost(RAst ast) {
+        return multiply(estimateSize(ast), repeatDepth(ast) + 1);
+    }
+
+    private static int repeatDepth(RAst ast) {
+        int depth = 0;
+        for (RAst child : ast.exprs) {
+            depth = Math.max(depth, repeatDepth(child));
+        }
+        return (ast.type == RAstType.REPEAT) ? depth + 1 : depth;
+    }
+
+    private static long estimateNodeSize(RAst ast) {
+        switch (ast.type) {
+            case AT_BEGINNING:
+            case AT_END:
+                return 1;
+
+            case GROUP:
+            case NEGATED_GROUP:
+                return 2;
+
+            case LITERAL:
+                // GROUP for every char
+                return 2L * ast.text.length();
+
+            case TRIE: {
+                // Expanded into an alternative of literals
+                long size = 5L * (ast.trie.size() - 1);
+                for (String literal : ast.trie.literals()) {
+                    size = add(size, 2L * literal.length());
+                }
+                return size;
+            }
+
+            case CAPTURE_GROUP:
+                return add(4, estimateNodeSize(ast.headExpr()));
+
+            case CONCAT: {
+                long size = 0;
+                for (RAst expr : ast.exprs) {
+                    size = add(size, estimateNodeSize(expr));
+                }
+                return size;
+            }
+
+            case ALTERNATIVE: {
+                // SPLIT and JMP for all but the last branch
+                long size = 5L * (ast.exprs.size() - 1);
+                for (RAst expr : ast.exprs) {
+                    size = add(size, estimateNodeSize(expr));
+                }
+                return size;
+            }
+
+            case REPEAT: {
+                if (ast.repeatMax < ast.repeatMin) return 1;
+
+                long body = estimateNodeSize(ast.headExpr());
+                long size = multiply(ast.repeatMin, add(2, body));
+                if (ast.repeatMin > 0) size = add(size, 3);
+
+                // SPLIT, SAVE, body, IF_EMPTY and JMP for unbounded loop
+                return (ast.repeatMax == RAst.UNBOUND)
+                        ? add(size, add(10, body))
+                        : add(size, multiply(ast.repeatMax - ast.repeatMin, add(8, body)));
+            }
+
+            default:
+                // Not supported, the program cannot be built
+                return Long.MAX_VALUE;
+        }
+    }
+
+    private static long add(long a, long b) {
+        long sum = a + b;
+        return (sum < 0) ? Long.MAX_VALUE : sum;
+    }
+
+    private static long multiply(long a, long b) {
+        if (a == 0 || b == 0) return 0;
+        return (a > Long.MAX_VALUE / b) ? Long.MAX_VALUE : a * b;
+    }
+
+    public static PikeProgram compile(CompiledRegex regex) {
+        String reason = unsupportedReason(regex.ast());
+        if (reason != null) {
+            throw new IllegalArgumentException(
+                    "Cannot compile " + regex + " into Pike VM program: " + reason + ".");
+        }
+
+        return new Compiler(regex).compile();
+    }
+
+    /**
+     * Compiles every branch of the top level ALTERNATIVE as a separate
+     * pattern with its own MATCH instruction, see {@link #patternOf(int)}.
+     * Branches are started together, there is no priority between them.
+     */
+    public static PikeProgram compileSet(CompiledRegex regex) {
+        if (regex.ast().type != RAstType.ALTERNATIVE) {
+            throw new IllegalArgumentException("Expected alternative of patterns, got: " + regex + ".");
+        }
+
+        String reason = unsupportedReason(regex.ast());
+        if (reason != null) {
+            throw new IllegalArgumentException(
+                    "Cannot compile " + regex + " into Pike VM program: " + reason + ".");
+        }
+
+        return new Compiler(regex).compileSet();
+    }
+
+    final int[] code;
+    /* chars of GROUP and NEGATED_GROUP instructions */
+    final CharClass[] classes;
+    /* repetitions enclosing the repetition that uses the slot, plus one; 0 for captures */
+    final int[] loopDepths;
+    final int maxLoopDepth;
+    /* pcs of MATCH instructions in pattern order, ascending */
+    final int[] matchPcs;
+
+    private PikeProgram(int[] code, CharClass[] classes, int[] loopDepths, int[] matchPcs) {
+        this.code = code;
+        this.classes = classes;
+        this.loopDepths = loopDepths;
+        this.maxLoopDepth = Arrays.stream(loopDepths).max().orElse(0);
+        this.matchPcs = matchPcs;
+    }
+
+    public int size() {
+        return code.length;
+    }
+
+    public int numOfPatterns() {
+        return matchPcs.length;
+    }
+
+    /** Index of the pattern that the MATCH instruction at matchPc belongs to. */
+    int patternOf(int matchPc) {
+        int pattern = Arrays.binarySearch(matchPcs, matchPc);
+        assert pattern >= 0 : "not a MATCH instruction: " + matchPc;
+        return pattern;
+    }
+
+    private static class Compiler {
+        private final CompiledRegex regex;
+        private final List<CharClass> classes = new ArrayList<>();
+
+        private int[] code = new int[64];
+        private int pc = 0;
+        private int slots;
+        private int[] loopDepths = new int[16];
+        private int loopDepth = 0;
+
+        Compiler(CompiledRegex regex) {
+            this.regex = regex;
+            // Group g uses slots 2g and 2g+1, repetitions get slots after them
+            this.slots = 2 * (regex.numOfCaptureGroups() + 1);
+        }
+
+        PikeProgram compile() {
+            // Slots 0 and 1 hold start and end of the whole match
+            emit(SAVE, 0);
+            emitNode(regex.ast());
+            emit(SAVE, 1);
+            int match = emit(MATCH);
+
+            return new PikeProgram(Arrays.copyOf(code, pc), classes(), loopDepths(), new int[] { match });
+        }
+
+        PikeProgram compileSet() {
+            RAst ast = regex.ast();
+
+            // SPLIT p0, L1; L1: SPLIT p1, L2; ... every pattern ends with its MATCH
+            int last = ast.exprs.size() - 1;
+            int[] splits = new int[last];
+            for (int i = 0; i < last; i++) {
+                splits[i] = emit(SPLIT, -1, pc + 3);
+            }
+
+            int[] matches = new int[ast.exprs.size()];
+            for (int i = 0; i <= last; i++) {
+                if (i < last) code[splits[i] + 1] = pc;
+                else if (last > 0) code[splits[last - 1] + 2] = pc;
+
+                emit(SAVE, 0);
+                emitNode(ast.exprs.get(i));
+                emit(SAVE, 1);
+                matches[i] = emit(MATCH);
+            }
+
+            return new PikeProgram(Arrays.copyOf(code, pc), classes(), loopDepths(), matches);
+        }
+
+        private int[] loopDepths() {
+            return Arrays.copyOf(loopDepths, slots);
+        }
+
+        private CharClass[] classes() {
+            return classes.toArray(new CharClass[0]);
+        }
+
+        private int addClass(CharClass chars) {
+            classes.add(chars);
+            return classes.size() - 1;
+        }
+
+        private void emitNode(RAst ast) {
+            switch (ast.type) {
+                case AT_BEGINNING:
+                    emit(AT_BEGINNING);
+                    break;
+
+                case AT_END:
+                    emit(AT_END);
+                    break;
+
+                case GROUP:
+                    emit(GROUP, addClass(ast.chars));
+                    break;
+
+                case NEGATED_GROUP:
+                    emit(NEGATED_GROUP, addClass(ast.chars));
+                    break;
+
+                case LITERAL:
+                    emitLiteral(ast.text);
+                    break;
+
+                case TRIE:
+                    emitTrie(ast.trie);
+                    break;
+
+                case CAPTURE_GROUP:
+                    emit(SAVE, 2 * ast.captureGroup);
+                    emitNode(ast.headExpr());
+                    emit(SAVE, 2 * ast.captureGroup + 1);
+                    break;
+
+                case CONCAT:
+                    for (RAst expr : ast.exprs) {
+                        emitNode(expr);
+                    }
+                    break;
+
+                case ALTERNATIVE:
+                    emitAlternative(ast);
+                    break;
+
+                case REPEAT:
+                    emitRepeat(ast);
+                    break;
+
+                default: throw new AssertionError("Unsupported enum value: " + ast.type);
+            }
+        }
+
+        private void emitAlternative(RAst ast) {
+            int last = ast.exprs.size() - 1;
+            int[] jumpsToEnd = new int[last];
+
+            for (int i = 0; i < last; i++) {
+                int split = emit(SPLIT, pc + 3, -1);
+                emitNode(ast.exprs.get(i));
+                jumpsToEnd[i] = emit(JMP, -1);
+                code[split + 2] = pc;
+            }
+            emitNode(ast.exprs.get(last));
+
+            for (int jump : jumpsToEnd) {
+                code[jump + 1] = pc;
+            }
+        }
+
+        private void emitLiteral(String literal) {
+            for (int i = 0; i < literal.length(); i++) {
+                emit(GROUP, addClass(CharClass.of(literal.charAt(i))));
+            }
+        }
+
+        /* Same code as for an alternative of the literals, threads keep their priority. */
+        private void emitTrie(LiteralTrie trie) {
+            List<String> literals = trie.literals();
+            int last = literals.size() - 1;
+            int[] jumpsToEnd = new int[last];
+
+            for (int i = 0; i < last; i++) {
+                int split = emit(SPLIT, pc + 3, -1);
+                emitLiteral(literals.get(i));
+                jumpsToEnd[i] = emit(JMP, -1);
+                code[split + 2] = pc;
+            }
+            emitLiteral(literals.get(last));
+
+            for (int jump : jumpsToEnd) {
+                code[jump + 1] = pc;
+            }
+        }
+
+        private void emitRepeat(RAst ast) {
+            RAst expr = ast.headExpr();
+
+            if (ast.repeatMax < ast.repeatMin) {
+                // Empty range like r{3,1} never matches
+                emit(FAIL);
+                return;
+            }
+
+            int iterationStart = slots++;
+            if (iterationStart >= loopDepths.length) {
+                loopDepths = Arrays.copyOf(loopDepths, Math.max(2 * loopDepths.length, iterationStart + 1));
+            }
+            loopDepths[iterationStart] = ++loopDepth;
+            List<Integer> exits = new ArrayList<>();
+
+            // Mandatory part: r{N} = r r ... r
+            for (long i = 0; i < ast.repeatMin; i++) {
+                emit(SAVE, iterationStart);
+                emitNode(expr);
+            }
+            if (ast.repeatMin > 0) {
+                exits.add(emit(IF_EMPTY, iterationStart, -1) + 2);
+            }
+
+            if (ast.repeatMax == RAst.UNBOUND) {
+                // r* = L: SPLIT body, exit; body: r; IF_EMPTY exit; JMP L
+                int loop = emit(SPLIT, pc + 3, -1);
+                exits.add(loop + 2);
+                emit(SAVE, iterationStart);
+                emitNode(expr);
+                exits.add(emit(IF_EMPTY, iterationStart, -1) + 2);
+                emit(JMP, loop);
+            }
+            else {
+                // Optional part: r{0,M} = (r(r(r)?)?)?
+                for (long i = ast.repeatMin; i < ast.repeatMax; i++) {
+                    exits.add(emit(SPLIT, pc + 3, -1) + 2);
+                    emit(SAVE, iterationStart);
+                    emitNode(expr);
+                    exits.add(emit(IF_EMPTY, iterationStart, -1) + 2);
+                }
+            }
+
+            for (int exit : exits) {
+                code[exit] = pc;
+            }
+            loopDepth--;
+        }
+
+        private int emit(int... instruction) {
+            if (pc + instruction.length > MAX_SIZE) {
+                throw new IllegalArgumentException(
+                        "Cannot compile " + regex + " into Pike VM program: " +
+                                "program exceeds " + MAX_SIZE + " instructions.");
+            }
+
+            if (pc + instruction.length > code.length) {
+                code = Arrays.copyOf(code, 2 * code.length + instruction.length);
+            }
+
+            int start = pc;
+            System.arraycopy(instruction, 0, code, pc, instruction.length);
+            pc += instruction.length;
+            return start;
+        }
+    }
+}
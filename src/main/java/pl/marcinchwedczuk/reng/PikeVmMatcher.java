@@ -0,0 +1,349 @@
+package pl.marcinchwedczuk.reng;
+
+import java.util.Arrays;
+
+import static pl.marcinchwedczuk.reng.PikeProgram.*;
+
+/**
+ * Per-call matching context for a PikeProgram.
+ * Simulates all NFA threads in lock step, so it runs in
+ * O(program size * input length) time and needs no memoisation table.
+ * Threads are kept in priority order, which gives the same leftmost-first
+ * results as the backtracking engines.
+ *
+ * Only threads waiting for a char keep capture slots, threads with
+ * the same captures share one array. Arrays and thread lists live in
+ * a Workspace that is reused by all matches of a thread.
+ */
+public class PikeVmMatcher {
+
+    private static final int UNSET = -1;
+
+    private final PikeProgram program;
+    private final StartPositionScanner scanner;
+    private final String s;
+    private final Workspace ws;
+
+    /* captures of the thread being followed by addThread, null if not stored yet */
+    private int[] snapshot;
+
+    public PikeVmMatcher(CompiledRegex regex, String s) {
+        this.program = regex.pikeProgram();
+        this.scanner = regex.startPositionScanner();
+        this.s = s;
+        this.ws = regex.pikeVmWorkspace();
+    }
+
+    public Match match() {
+        return match(0);
+    }
+
+    /** Finds the leftmost-first match that starts at from or later. */
+    Match match(int from) {
+        final int[] code = program.code;
+        final CharClass[] classes = program.classes;
+        final int numOfCaps = ws.numOfCaps;
+
+        ThreadList clist = ws.clist;
+        ThreadList nlist = ws.nlist;
+        boolean matched = false;
+
+        for (int pos = from; ; pos++) {
+            if (!matched && clist.isEmpty()) {
+                // No threads alive, skip positions where the match cannot start
+                int next = scanner.nextCandidate(s, pos);
+                if (next == StartPositionScanner.NO_CANDIDATE) break;
+                pos = next;
+            }
+
+            if (!matched) {
+                // Start a new thread at this position, it has the lowest priority
+                Arrays.fill(ws.caps, UNSET);
+                snapshot = null;
+                addThread(clist, 0, pos);
+            }
+
+            boolean atEnd = (pos == s.length());
+            if (clist.isEmpty()) {
+                if (matched || atEnd) break;
+                // Start thread died on an anchor, like $ before the end
+                ws.clear(clist);
+                continue;
+            }
+
+            char c = atEnd ? '\0' : s.charAt(pos);
+
+            for (int i = 0; i < clist.size; i++) {
+                int pc = clist.pcs[i];
+                int[] threadCaps = clist.caps[i];
+                switch (code[pc]) {
+                    case MATCH:
+                        matched = true;
+                        System.arraycopy(threadCaps, 0, ws.matchCaps, 0, numOfCaps);
+                        // Threads with lower priority are cut off
+                        i = clist.size;
+                        break;
+
+                    case GROUP:
+                        if (!atEnd && classes[code[pc + 1]].contains(c)) {
+                            follow(nlist, pc + 2, pos + 1, threadCaps);
+                        }
+                        break;
+
+                    case NEGATED_GROUP:
+                        if (!atEnd && !classes[code[pc + 1]].contains(c)) {
+                            follow(nlist, pc + 2, pos + 1, threadCaps);
+                        }
+                        break;
+
+                    default:
+                        throw new AssertionError("Not a waiting instruction: " + code[pc]);
+                }
+            }
+
+            ws.clear(clist);
+            ThreadList tmp = clist;
+            clist = nlist;
+            nlist = tmp;
+
+            if (atEnd) break;
+        }
+
+        ws.clear(clist);
+        ws.clear(nlist);
+
+        return matched
+                ? new Match(s, true, ws.matchCaps[0], ws.matchCaps[1],
+                        Arrays.copyOf(ws.matchCaps, numOfCaps))
+                : new Match(s, false, -1, -1);
+    }
+
+    /* Continues a thread that consumed a char, its captures are in threadCaps. */
+    private void follow(ThreadList list, int pc, int pos, int[] threadCaps) {
+        System.arraycopy(threadCaps, 0, ws.caps, 0, ws.numOfCaps);
+        snapshot = threadCaps;
+        addThread(list, pc, pos);
+    }
+
+    /**
+     * Adds thread at pc with captures from ws.caps to the list,
+     * following all empty transitions in priority order.
+     * Leaves ws.caps as it found them.
+     *
+     * Where an instruction leads depends on which repetitions started
+     * their iteration at pos, IF_EMPTY ends the loop for them.
+     * If a repetition did, all repetitions inside it did too, so
+     * the depth of the outermost one is enough. Instructions are
+     * visited once per (pc, depth), a thread that consumes a char
+     * starts with depth 0, so waiting threads are kept once per pc.
+     */
+    private void addThread(ThreadList list, int startPc, int pos) {
+        final int[] code = program.code;
+        final int[] loopDepths = program.loopDepths;
+        final int[] stack = ws.stack;
+        final int[] caps = ws.caps;
+
+        int top = 0;
+        stack[top++] = startPc;
+        stack[top++] = UNSET;
+        stack[top++] = 0;
+
+        while (top > 0) {
+            // (pc, UNSET, depth) or (pc, slot, oldValue) entries
+            int value = stack[--top];
+            int slot = stack[--top];
+            int pc = stack[--top];
+
+            if (slot != UNSET) {
+                // Leaving SAVE, restore overwritten slot
+                caps[slot] = value;
+                snapshot = null;
+                continue;
+            }
+
+            int depth = value;
+            int op = code[pc];
+            boolean waits = (op == MATCH || op == GROUP || op == NEGATED_GROUP);
+            if (!list.visit(pc, waits ? 0 : depth)) continue;
+
+            switch (op) {
+                case JMP:
+                    stack[top++] = code[pc + 1];
+                    stack[top++] = UNSET;
+                    stack[top++] = depth;
+                    break;
+
+                case SPLIT:
+                    // Push lower priority branch first, so it is followed last
+                    stack[top++] = code[pc + 2];
+                    stack[top++] = UNSET;
+                    stack[top++] = depth;
+                    stack[top++] = code[pc + 1];
+                    stack[top++] = UNSET;
+                    stack[top++] = depth;
+                    break;
+
+                case SAVE: {
+                    int saveSlot = code[pc + 1];
+                    if (saveSlot < caps.length) {
+                        stack[top++] = pc;
+                        stack[top++] = saveSlot;
+                        stack[top++] = caps[saveSlot];
+                        caps[saveSlot] = pos;
+                        snapshot = null;
+                    }
+                    else if (depth == 0) {
+                        // Iteration of a repetition starts at pos
+                        depth = loopDepths[saveSlot];
+                    }
+
+                    stack[top++] = pc + 2;
+                    stack[top++] = UNSET;
+                    stack[top++] = depth;
+                    break;
+                }
+
+                case IF_EMPTY: {
+                    int loopDepth = loopDepths[code[pc + 1]];
+                    if (depth != 0 && loopDepth >= depth) {
+                        // Iteration was empty, leave the loop
+                        stack[top++] = code[pc + 2];
+                        stack[top++] = UNSET;
+                        stack[top++] = (loopDepth == depth) ? 0 : depth;
+                    } else {
+                        stack[top++] = pc + 3;
+                        stack[top++] = UNSET;
+                        stack[top++] = depth;
+                    }
+                    break;
+                }
+
+                case AT_BEGINNING:
+                    if (pos == 0) {
+                        stack[top++] = pc + 1;
+                        stack[top++] = UNSET;
+                        stack[top++] = depth;
+                    }
+                    break;
+
+                case AT_END:
+                    if (pos == s.length()) {
+                        stack[top++] = pc + 1;
+                        stack[top++] = UNSET;
+                        stack[top++] = depth;
+                    }
+                    break;
+
+                case FAIL:
+                    break;
+
+                default:
+                    // MATCH or instruction consuming a char, thread waits here
+                    if (snapshot == null) {
+                        snapshot = ws.allocate();
+                        System.arraycopy(caps, 0, snapshot, 0, caps.length);
+                    }
+                    ws.retain(snapshot);
+                    list.add(pc, snapshot);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Thread lists and capture arrays of one thread, sized for one PikeProgram.
+     * Capture arrays are reference counted, the count is kept after the slots.
+     */
+    static final class Workspace {
+        final int numOfCaps;
+        final ThreadList clist;
+        final ThreadList nlist;
+
+        /* explicit stack for following empty transitions, see addThread */
+        final int[] stack;
+        /* captures of the thread followed by addThread */
+        final int[] caps;
+        final int[] matchCaps;
+
+        private int[][] free = new int[16][];
+        private int numOfFree;
+
+        Workspace(PikeProgram program, int numOfCaptureGroups) {
+            int size = program.code.length;
+            int depths = program.maxLoopDepth + 1;
+            this.numOfCaps = 2 * (numOfCaptureGroups + 1);
+            this.clist = new ThreadList(size, depths);
+            this.nlist = new ThreadList(size, depths);
+            // Every visited (pc, depth) pushes at most two entries
+            this.stack = new int[3 * (2 * size * depths + 1)];
+            this.caps = new int[numOfCaps];
+            this.matchCaps = new int[numOfCaps];
+        }
+
+        int[] allocate() {
+            return (numOfFree > 0) ? free[--numOfFree] : new int[numOfCaps + 1];
+        }
+
+        void retain(int[] caps) {
+            caps[numOfCaps]++;
+        }
+
+        /* Releases captures of all threads and empties the list. */
+        void clear(ThreadList list) {
+            for (int i = 0; i < list.size; i++) {
+                int[] caps = list.caps[i];
+                list.caps[i] = null;
+                if (--caps[numOfCaps] == 0) {
+                    if (numOfFree == free.length) free = Arrays.copyOf(free, 2 * free.length);
+                    free[numOfFree++] = caps;
+                }
+            }
+            list.clear();
+        }
+    }
+
+    /* Waiting threads in priority order, and (pc, depth) pairs visited at the list position. */
+    static final class ThreadList {
+        final int[] pcs;
+        final int[][] caps;
+        int size;
+
+        private final int depths;
+        /* visited[pc * depths + depth] == generation if visited */
+        private final int[] visited;
+        private int generation = 1;
+
+        ThreadList(int programSize, int depths) {
+            this.pcs = new int[programSize];
+            this.caps = new int[programSize][];
+            this.depths = depths;
+            this.visited = new int[programSize * depths];
+        }
+
+        /* Marks (pc, depth) as visited, returns false if it already was. */
+        boolean visit(int pc, int depth) {
+            int key = pc * depths + depth;
+            if (visited[key] == generation) return false;
+            visited[key] = generation;
+            return true;
+        }
+
+        void add(int pc, int[] threadCaps) {
+            pcs[size] = pc;
+            caps[size++] = threadCaps;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void clear() {
+            size = 0;
+            if (++generation == 0) {
+                // Wrapped around, old marks could be taken for new ones
+                Arrays.fill(visited, 0);
+                generation = 1;
+            }
+        }
+    }
+}
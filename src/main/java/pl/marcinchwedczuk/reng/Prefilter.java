@@ -0,0 +1,282 @@
+package pl.marcinchwedczuk.reng;
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Rejects inputs that lack a literal every match must contain,
+ * before any matcher (and its memoisation table) is created.
+ *
+ * Requirements are extracted at compile time from the CONCAT, ALTERNATIVE
+ * and REPEAT structure of the regex. Every requirement is a set of literals,
+ * the input must contain at least one literal from each set.
+ * E.g. (foo|bar)+[0-9]*baz requires one of {foo, bar} and {baz}.
+ */
+public class Prefilter {
+
+    /* Limits that keep literal sets small, exceeding them only weakens the filter. */
+    private static final int MAX_LITERALS = 16;
+    private static final int MAX_LITERAL_LENGTH = 32;
+    private static final int MAX_REQUIREMENTS = 4;
+
+    public static Prefilter of(RAst regex) {
+        Info info = analyse(regex);
+
+        List<Set<String>> requirements = new ArrayList<>(info.required);
+        if (info.exact != null) {
+            requirements.add(info.exact);
+        }
+        requirements.removeIf(literals -> literals.contains(""));
+
+        // Sets with the longest shortest literal are the most selective
+        requirements.sort(Comparator.comparingInt(Prefilter::shortestLength).reversed());
+
+        List<Set<String>> selected = new ArrayList<>();
+        for (Set<String> literals : requirements) {
+            if (selected.size() == MAX_REQUIREMENTS) break;
+            if (!selected.contains(literals)) {
+                selected.add(Collections.unmodifiableSet(literals));
+            }
+        }
+
+        return new Prefilter(Collections.unmodifiableList(selected));
+    }
+
+    private final List<Set<String>> requirements;
+
+    private final LongAdder checks = new LongAdder();
+    private final LongAdder rejects = new LongAdder();
+
+    private Prefilter(List<Set<String>> requirements) {
+        this.requirements = requirements;
+    }
+
+    /**
+     * @return false if the input certainly does not match
+     */
+    public boolean mayMatch(String s) {
+        if (requirements.isEmpty()) return true;
+
+        checks.increment();
+        for (Set<String> literals : requirements) {
+            if (!containsAny(s, literals)) {
+                rejects.increment();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean containsAny(String s, Set<String> literals) {
+        for (String literal : literals) {
+            if (s.contains(literal)) return true;
+        }
+        return false;
+    }
+
+    /** True if the regex has no required literals and the filter passes everything. */
+    public boolean isEmpty() {
+        return requirements.isEmpty();
+    }
+
+    public List<Set<String>> requirements() {
+        return requirements;
+    }
+
+    public long checks() {
+        return checks.sum();
+    }
+
+    public long rejects() {
+        return rejects.sum();
+    }
+
+    /** Fraction of checked inputs that were rejected, 0 if nothing was checked. */
+    public double rejectRate() {
+        long checked = checks.sum();
+        return (checked == 0) ? 0.0 : (double) rejects.sum() / checked;
+    }
+
+    @Override
+    public String toString() {
+        return requirements.toString();
+    }
+
+    private static int shortestLength(Set<String> literals) {
+        int min = Integer.MAX_VALUE;
+        for (String literal : literals) {
+            min = Math.min(min, literal.length());
+        }
+        return min;
+    }
+
+    private static class Info {
+        /* all strings the node can match, null if unknown or too many */
+        Set<String> exact;
+        /* sets of literals, a match contains one literal from each set */
+        final List<Set<String>> required = new ArrayList<>();
+
+        static Info exact(Set<String> strings) {
+            Info info = new Info();
+            info.exact = strings;
+            return info;
+        }
+
+        static Info unknown() {
+            return new Info();
+        }
+
+        /* Turns exact strings into a requirement, e.g. when a repetition makes them inexact. */
+        Info inexact() {
+            if (exact != null) {
+                required.add(exact);
+                exact = null;
+            }
+            return this;
+        }
+    }
+
+    private static Info analyse(RAst ast) {
+        switch (ast.type) {
+            case GROUP: {
+                if (ast.chars.isEmpty() || ast.chars.size() > MAX_LITERALS) {
+                    return Info.unknown();
+                }
+                Set<String> strings = new HashSet<>();
+                for (char c : ast.chars.toCharArray()) strings.add(String.valueOf(c));
+                return Info.exact(strings);
+            }
+
+            case LITERAL:
+                return Info.exact(new HashSet<>(Collections.singleton(ast.text)));
+
+            case TRIE:
+                return (ast.trie.size() <= MAX_LITERALS)
+                        ? Info.exact(new HashSet<>(ast.trie.literals()))
+                        : Info.unknown();
+
+            case AT_BEGINNING:
+            case AT_END:
+            case POS_LOOKAHEAD:
+            case NEG_LOOKAHEAD:
+                // Zero width, lookaheads only restrict matches
+                return Info.exact(new HashSet<>(Collections.singleton("")));
+
+            case CAPTURE_GROUP:
+            case ATOMIC_GROUP:
+                // Atomic group matches one of the strings its inner regex can match
+                return analyse(ast.headExpr());
+
+            case CONCAT:
+                return analyseConcat(ast.exprs);
+
+            case ALTERNATIVE:
+                return analyseAlternative(ast.exprs);
+
+            case REPEAT: {
+                if (ast.repeatMax < ast.repeatMin) return Info.unknown();
+                if (ast.repeatMin == 1 && ast.repeatMax == 1) return analyse(ast.headExpr());
+                if (ast.repeatMin == 0) return Info.unknown();
+                // Each match contains at least one iteration
+                return analyse(ast.headExpr()).inexact();
+            }
+
+            default:
+                // NEGATED_GROUP, BACKREF
+                return Info.unknown();
+        }
+    }
+
+    private static Info analyseConcat(List<RAst> exprs) {
+        Info result = Info.unknown();
+        boolean allExact = true;
+        // Strings matched by the current run of exact nodes
+        Set<String> run = new HashSet<>(Collections.singleton(""));
+
+        for (RAst expr : exprs) {
+            Info info = analyse(expr);
+            result.required.addAll(info.required);
+
+            if (info.exact == null) {
+                allExact = false;
+                result.required.add(run);
+                run = new HashSet<>(Collections.singleton(""));
+                continue;
+            }
+
+            Set<String> product = product(run, info.exact);
+            if (product == null) {
+                // Too many or too long strings, start a new run
+                allExact = false;
+                result.required.add(run);
+                run = info.exact;
+            } else {
+                run = product;
+            }
+        }
+
+        if (allExact) {
+            result.exact = run;
+        } else {
+            result.required.add(run);
+        }
+        return result;
+    }
+
+    private static Info analyseAlternative(List<RAst> exprs) {
+        Set<String> exact = new HashSet<>();
+        Set<String> required = new HashSet<>();
+        boolean allExact = true;
+        boolean allRequire = true;
+
+        for (RAst expr : exprs) {
+            Info info = analyse(expr);
+
+            if (info.exact != null) {
+                exact.addAll(info.exact);
+                required.addAll(info.exact);
+            } else {
+                allExact = false;
+                Set<String> best = best(info.required);
+                if (best == null) allRequire = false;
+                else required.addAll(best);
+            }
+        }
+
+        if (allExact && exact.size() <= MAX_LITERALS) {
+            return Info.exact(exact);
+        }
+
+        Info result = Info.unknown();
+        if (allRequire && required.size() <= MAX_LITERALS) {
+            // One of the branches matched, so one of their literals is present
+            result.required.add(required);
+        }
+        return result;
+    }
+
+    private static Set<String> best(List<Set<String>> required) {
+        Set<String> best = null;
+        for (Set<String> literals : required) {
+            if (literals.contains("")) continue;
+            if (best == null || shortestLength(literals) > shortestLength(best)) {
+                best = literals;
+            }
+        }
+        return best;
+    }
+
+    /* Concatenates every string of a with every string of b, null if too big. */
+    private static Set<String> product(Set<String> a, Set<String> b) {
+        if ((long) a.size() * b.size() > MAX_LITERALS) return null;
+
+        Set<String> result = new HashSet<>();
+        for (String x : a) {
+            for (String y : b) {
+                if (x.length() + y.length() > MAX_LITERAL_LENGTH) return null;
+                result.add(x + y);
+            }
+        }
+        return result;
+    }
+}
@@ -7,12 +7,19 @@ import static java.util.stream.Collectors.joining;
 
 public class RAst {
     public static final Long UNBOUND = Long.MAX_VALUE;
-    public static int idCounter = 0;
+    public static final int NO_ID = -1;
+    public static final int NOT_MEMOISED = -1;
 
     public final RAstType type;
-    public final Set<Character> chars;
+    public final CharClass chars;
     public final List<RAst> exprs;
 
+    /* chars of a LITERAL, null for other nodes */
+    public final String text;
+
+    /* literals of a TRIE, null for other nodes */
+    public final LiteralTrie trie;
+
     /* repeat from to, both inclusive */
     public final long repeatMin;
     public final long repeatMax;
@@ -20,33 +27,52 @@ public class RAst {
     /* used by backreferences */
     public final int captureGroup;
 
-    /* unique identifier, used by memoisation function */
+    /* unique identifier, used by memoisation function.
+     * Assigned only to nodes owned by a CompiledRegex, NO_ID otherwise. */
     public final int id;
 
     /* in degree of state */
     private int inDegree = 0;
     private boolean isAncestorNode = false;
 
-    /* needed by BitMap memoisation table */
-    private int indexInBitMap;
+    /* row in the memoisation table, NOT_MEMOISED if node is not memoised */
+    private int indexInBitMap = NOT_MEMOISED;
+
+    /* id of the bounded REPEAT whose iteration count is a part of
+     * the memoisation key, NO_ID for the plain memoisation table */
+    private int countedBy = NO_ID;
 
     public RAst(RAstType type,
-                Set<Character> chars,
+                CharClass chars,
                 List<RAst> exprs,
                 long repeatMin,
                 long repeatMax,
                 int captureGroup) {
+        this(type, chars, null, null, exprs, repeatMin, repeatMax, captureGroup, NO_ID);
+    }
+
+    RAst(RAstType type,
+         CharClass chars,
+         String text,
+         LiteralTrie trie,
+         List<RAst> exprs,
+         long repeatMin,
+         long repeatMax,
+         int captureGroup,
+         int id) {
         this.type = type;
         this.chars = chars;
+        this.text = text;
+        this.trie = trie;
         this.exprs = exprs;
         this.repeatMin = repeatMin;
         this.repeatMax = repeatMax;
         this.captureGroup = captureGroup;
-        this.id = idCounter++;
+        this.id = id;
     }
 
     public RAst(RAstType type,
-                Set<Character> chars) {
+                CharClass chars) {
         this(type,
              chars,
              Collections.emptyList(),
@@ -56,14 +82,14 @@ public class RAst {
     public RAst(RAstType type,
                 List<RAst> exprs) {
         this(type,
-             Collections.emptySet(),
+             CharClass.EMPTY,
              exprs,
              -1, -1, -1);
     }
 
     public RAst(RAstType type, List<RAst> exprs, int captureGroup) {
         this(type,
-             Collections.emptySet(),
+             CharClass.EMPTY,
              exprs,
              -1, -1, captureGroup);
     }
@@ -96,6 +122,31 @@ public class RAst {
         this.indexInBitMap = indexInBitMap;
     }
 
+    public int getCountedBy() {
+        return countedBy;
+    }
+
+    public void setCountedBy(int countedBy) {
+        this.countedBy = countedBy;
+    }
+
+    /**
+     * True for a REPEAT whose iteration count changes what can follow an
+     * iteration, e.g. a{2,5} or a{3,}, but not a* or a+.
+     */
+    public boolean isCountedRepeat() {
+        return type == RAstType.REPEAT && (repeatMax != UNBOUND || repeatMin > 1);
+    }
+
+    /**
+     * Iteration counts that give the same results after an iteration
+     * of this counted repeat get the same key. Above repeatMin all counts
+     * of an unbounded repeat are the same.
+     */
+    int countKey(long count) {
+        return (int) ((repeatMax == UNBOUND) ? Math.min(count, repeatMin) : count);
+    }
+
     @Override
     public String toString() {
         return toString(-1);
@@ -106,17 +157,17 @@ public class RAst {
 
         switch (type) {
             case GROUP:
-                if (chars.size() == 1) {
-                    tmp = chars
-                            .iterator().next()
-                            .toString();
-                }
-                else {
-                    tmp = chars.stream()
-                        .sorted()
-                        .map(Object::toString)
-                        .collect(joining("", "[", "]"));
-                }
+                tmp = (chars.size() == 1)
+                        ? String.valueOf(chars.first())
+                        : "[" + chars + "]";
+                break;
+
+            case LITERAL:
+                tmp = text;
+                break;
+
+            case TRIE:
+                tmp = trie.toString();
                 break;
 
             case NEGATED_GROUP:
@@ -125,10 +176,7 @@ public class RAst {
                     tmp = ".";
                 }
                 else {
-                    tmp = chars.stream()
-                            .sorted()
-                            .map(Object::toString)
-                            .collect(joining("", "[^", "]"));
+                    tmp = "[^" + chars + "]";
                 }
                 break;
 
@@ -155,6 +203,24 @@ public class RAst {
                         .collect(joining("|"));
                 break;
 
+            // Already delimited, never need parentheses
+            case POS_LOOKAHEAD:
+                return "(?=" + headExpr().toString(-1) + ")";
+
+            case NEG_LOOKAHEAD:
+                return "(?!" + headExpr().toString(-1) + ")";
+
+            case ATOMIC_GROUP:
+                if (headExpr().type == RAstType.REPEAT) {
+                    // Possessive quantifier
+                    tmp = headExpr().toString(-1) + "+";
+                    break;
+                }
+                return "(?>" + headExpr().toString(-1) + ")";
+
+            case BACKREF:
+                return "\\" + captureGroup;
+
             case AT_BEGINNING: tmp = "^"; break;
             case AT_END: tmp = "$"; break;
 
@@ -198,16 +264,24 @@ public class RAst {
     }
 
     public static RAst group(char... chars) {
-        return new RAst(RAstType.GROUP, toSet(chars));
+        return group(CharClass.of(chars));
+    }
+
+    public static RAst group(CharClass chars) {
+        return new RAst(RAstType.GROUP, chars);
     }
 
     public static RAst invGroup(char... chars) {
-        return new RAst(RAstType.NEGATED_GROUP, toSet(chars));
+        return invGroup(CharClass.of(chars));
+    }
+
+    public static RAst invGroup(CharClass chars) {
+        return new RAst(RAstType.NEGATED_GROUP, chars);
     }
 
     public static RAst any() {
         // We represent . as inverted empty group.
-        return new RAst(RAstType.NEGATED_GROUP, Collections.emptySet());
+        return new RAst(RAstType.NEGATED_GROUP, CharClass.EMPTY);
     }
 
     public static RAst concat(RAst... exprs) {
@@ -222,6 +296,21 @@ public class RAst {
         return RAst.concat(chars);
     }
 
+    /** Single LITERAL node, see RAstOptimizer. */
+    public static RAst literalRun(String s) {
+        if (s.length() < 2)
+            throw new IllegalArgumentException("Literal run needs at least 2 chars, got: '" + s + "'.");
+
+        return new RAst(RAstType.LITERAL, CharClass.EMPTY, s, null,
+                emptyList(), -1, -1, -1, NO_ID);
+    }
+
+    /** Single TRIE node, see RAstOptimizer. */
+    public static RAst trie(LiteralTrie trie) {
+        return new RAst(RAstType.TRIE, CharClass.EMPTY, null, trie,
+                emptyList(), -1, -1, -1, NO_ID);
+    }
+
     public static RAst alternative(RAst... expr) {
         return new RAst(RAstType.ALTERNATIVE, Arrays.asList(expr));
     }
@@ -246,6 +335,10 @@ public class RAst {
         return new RAst(RAstType.NEG_LOOKAHEAD, singletonList(expr));
     }
 
+    public static RAst atomicGroup(RAst expr) {
+        return new RAst(RAstType.ATOMIC_GROUP, singletonList(expr));
+    }
+
     public static RAst captureGroup(RAst expr, int captureGroup) {
         return new RAst(RAstType.CAPTURE_GROUP, singletonList(expr), captureGroup);
     }
@@ -253,7 +346,7 @@ public class RAst {
     public static RAst repeat(RAst expr, long min, long max) {
         return new RAst(
                 RAstType.REPEAT,
-                emptySet(),
+                CharClass.EMPTY,
                 singletonList(expr),
                 min, max, -1);
     }
@@ -261,7 +354,7 @@ public class RAst {
     public static RAst atBeginning() {
         return new RAst(
                 RAstType.AT_BEGINNING,
-                emptySet(),
+                CharClass.EMPTY,
                 emptyList(),
                 -1, -1, -1);
     }
@@ -269,7 +362,7 @@ public class RAst {
     public static RAst atEnd() {
         return new RAst(
                 RAstType.AT_END,
-                emptySet(),
+                CharClass.EMPTY,
                 emptyList(),
                 -1, -1, -1);
     }
@@ -282,14 +375,4 @@ public class RAst {
                 r,
                 atEnd());
     }
-
-    private static Set<Character> toSet(char[] chars) {
-        Set<Character> set = new HashSet<>();
-
-        for(char c: chars) {
-            set.add(c);
-        }
-
-        return set;
-    }
 }
@@ -0,0 +1,176 @@
+package pl.marcinchwedczuk.reng;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Rewrites a regex into an equivalent one with fewer nodes.
+ * Every node costs the backtracking engines a call and a memoisation
+ * table row, so less nodes means faster matching and smaller tables.
+ * <ul>
+ *     <li>nested concatenations and alternatives are flattened,</li>
+ *     <li>adjacent single char branches of an alternative are merged, a|b|[cd] -> [a-d],</li>
+ *     <li>runs of single chars are fused into a LITERAL node, abc is one node not four,</li>
+ *     <li>trivial repetitions are folded, r{1} -> r and r{0} -> empty,</li>
+ *     <li>large alternatives of literals become a TRIE node, one lookup
+ *     finds the matching branches instead of trying them one by one.</li>
+ * </ul>
+ * Only branches next to each other are merged, so alternatives are
+ * still tried in the same order and leftmost-first results do not change.
+ * Capture groups are kept. The given tree is not modified.
+ */
+public class RAstOptimizer {
+
+    /* Smaller alternatives are cheap enough to try branch by branch. */
+    static final int MIN_TRIE_BRANCHES = 8;
+
+    private RAstOptimizer() { }
+
+    public static RAst optimize(RAst ast) {
+        switch (ast.type) {
+            case CONCAT:
+                return optimizeConcat(ast);
+
+            case ALTERNATIVE:
+                return optimizeAlternative(ast);
+
+            case REPEAT: {
+                RAst expr = optimize(ast.headExpr());
+                if (ast.repeatMin == 1 && ast.repeatMax == 1) return expr;
+                if (ast.repeatMin == 0 && ast.repeatMax == 0) return emptyConcat();
+                return RAst.repeat(expr, ast.repeatMin, ast.repeatMax);
+            }
+
+            case CAPTURE_GROUP:
+            case ATOMIC_GROUP:
+            case POS_LOOKAHEAD:
+            case NEG_LOOKAHEAD:
+                return new RAst(ast.type, ast.chars,
+                        Collections.singletonList(optimize(ast.headExpr())),
+                        ast.repeatMin, ast.repeatMax, ast.captureGroup);
+
+            default:
+                // Leaves, nodes are immutable so they can be shared
+                return ast;
+        }
+    }
+
+    /** Number of nodes in the tree, with the root. */
+    public static int countNodes(RAst ast) {
+        int count = 1;
+        for (RAst child : ast.exprs) {
+            count += countNodes(child);
+        }
+        return count;
+    }
+
+    private static RAst optimizeConcat(RAst ast) {
+        List<RAst> flat = new ArrayList<>();
+        for (RAst expr : ast.exprs) {
+            RAst optimized = optimize(expr);
+            if (optimized.type == RAstType.CONCAT) {
+                flat.addAll(optimized.exprs);
+            } else {
+                flat.add(optimized);
+            }
+        }
+
+        List<RAst> exprs = new ArrayList<>();
+        StringBuilder run = new StringBuilder();
+        for (RAst expr : flat) {
+            if (isSingleChar(expr)) {
+                run.append(expr.chars.first());
+            } else if (expr.type == RAstType.LITERAL) {
+                run.append(expr.text);
+            } else {
+                addRun(run, exprs);
+                exprs.add(expr);
+            }
+        }
+        addRun(run, exprs);
+
+        return (exprs.size() == 1)
+                ? exprs.get(0)
+                : new RAst(RAstType.CONCAT, exprs);
+    }
+
+    private static void addRun(StringBuilder run, List<RAst> exprs) {
+        if (run.length() == 1) {
+            exprs.add(RAst.group(run.charAt(0)));
+        } else if (run.length() > 1) {
+            exprs.add(RAst.literalRun(run.toString()));
+        }
+        run.setLength(0);
+    }
+
+    private static RAst optimizeAlternative(RAst ast) {
+        List<RAst> flat = new ArrayList<>();
+        for (RAst expr : ast.exprs) {
+            RAst optimized = optimize(expr);
+            if (optimized.type == RAstType.ALTERNATIVE) {
+                flat.addAll(optimized.exprs);
+            } else if (optimized.type == RAstType.TRIE) {
+                for (String literal : optimized.trie.literals()) {
+                    flat.add(literalNode(literal));
+                }
+            } else {
+                flat.add(optimized);
+            }
+        }
+
+        if (flat.size() >= MIN_TRIE_BRANCHES) {
+            List<String> literals = new ArrayList<>();
+            for (RAst expr : flat) {
+                String literal = literalOf(expr);
+                if (literal == null) break;
+                literals.add(literal);
+            }
+            if (literals.size() == flat.size()) {
+                return RAst.trie(LiteralTrie.of(literals));
+            }
+        }
+
+        List<RAst> exprs = new ArrayList<>();
+        for (RAst expr : flat) {
+            RAst last = exprs.isEmpty() ? null : exprs.get(exprs.size() - 1);
+
+            if (last != null && last.type == RAstType.GROUP && expr.type == RAstType.GROUP) {
+                // Both consume one char and continue at the same position,
+                // so trying them one by one is the same as trying their union
+                exprs.set(exprs.size() - 1, RAst.group(
+                        CharClass.builder().addAll(last.chars).addAll(expr.chars).build()));
+            } else {
+                exprs.add(expr);
+            }
+        }
+
+        return (exprs.size() == 1)
+                ? exprs.get(0)
+                : new RAst(RAstType.ALTERNATIVE, exprs);
+    }
+
+    /* String matched by the node, null if it is not a literal. */
+    private static String literalOf(RAst ast) {
+        if (isSingleChar(ast)) return String.valueOf(ast.chars.first());
+        if (ast.type == RAstType.LITERAL) return ast.text;
+        if (ast.type == RAstType.CONCAT && ast.exprs.isEmpty()) return "";
+        return null;
+    }
+
+    private static RAst literalNode(String literal) {
+        switch (literal.length()) {
+            case 0: return emptyConcat();
+            case 1: return RAst.group(literal.charAt(0));
+            default: return RAst.literalRun(literal);
+        }
+    }
+
+    private static boolean isSingleChar(RAst ast) {
+        return ast.type == RAstType.GROUP && ast.chars.size() == 1;
+    }
+
+    private static RAst emptyConcat() {
+        return new RAst(RAstType.CONCAT, Collections.emptyList());
+    }
+}
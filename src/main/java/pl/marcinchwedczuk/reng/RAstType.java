@@ -15,11 +15,20 @@ public enum RAstType {
     // Regex: [^abc]
     NEGATED_GROUP(100),
 
+    // Run of at least two single chars, matched with one region compare.
+    // Created only by RAstOptimizer, regex: abc
+    LITERAL(70),
+
     // Match single expression zero or more times.
     // Greedy by default.
     // Regex: R*
     REPEAT(80),
 
+    // Atomic group, once matched its inner backtracking points are dropped.
+    // Regex: (?>R), possessive quantifiers like R*+ are atomic repetitions.
+    // Same priority as REPEAT, R*+ is printed like R*
+    ATOMIC_GROUP(80),
+
     // Capturing group (regex), needed to support backreferences
     CAPTURE_GROUP(75),
 
@@ -38,7 +47,11 @@ public enum RAstType {
 
     // Match any of expressions
     // Regex: R_1 | R_2 | R_3
-    ALTERNATIVE(20);
+    ALTERNATIVE(20),
+
+    // Alternative of literals kept in a LiteralTrie.
+    // Created only by RAstOptimizer, regex: error|warning|fatal
+    TRIE(20);
 
     public final int priority;
 
@@ -0,0 +1,217 @@
+package pl.marcinchwedczuk.reng;
+
+import pl.marcinchwedczuk.reng.parser.RParser;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded, thread-safe cache of compiled patterns, keyed by the pattern
+ * string and the compile options. Saves parsing, planning and
+ * memoisation analysis for patterns that are used again.
+ *
+ * Hits only read a ConcurrentHashMap and stamp the entry, they take no lock.
+ * Eviction is LRU at the granularity of misses: the clock advances when
+ * a pattern is inserted, patterns hit between two misses are equally recent.
+ * Inserting into a full cache scans it for the least recently used pattern
+ * under a single lock, which is cheap next to compiling the pattern.
+ * Patterns are compiled outside of the lock, two threads missing the same
+ * key may both compile it, the first one to finish wins.
+ * Parse errors are thrown to the caller and are not cached.
+ */
+public final class RegexCache {
+
+    public static final int DEFAULT_MAX_SIZE = 1024;
+
+    private final int maxSize;
+    private final ConcurrentHashMap<Key, Entry> entries;
+
+    /* guards inserts, removals and clock changes */
+    private final Object lock = new Object();
+    /* stamp of the next inserted pattern, hits stamp entries with it too */
+    private volatile long clock = 0;
+    /* number of entries, changed only under the lock */
+    private int size = 0;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public RegexCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    public RegexCache(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Cache must hold at least 1 pattern, got: " + maxSize + ".");
+        }
+
+        this.maxSize = maxSize;
+        this.entries = new ConcurrentHashMap<>(Math.min(maxSize, DEFAULT_MAX_SIZE));
+    }
+
+    /** Pattern compiled with the engine chosen by MatchPlanner for SPAN results. */
+    public CompiledRegex get(String pattern) {
+        return get(pattern, ResultType.SPAN);
+    }
+
+    public CompiledRegex get(String pattern, ResultType resultType) {
+        return get(new Key(pattern, resultType, null, null, null));
+    }
+
+    public CompiledRegex get(String pattern,
+                             MemoisationPolicy memPolicy,
+                             MemoisationEncodingScheme memEncScheme,
+                             MatchEngine engine) {
+        return get(new Key(pattern, null,
+                Objects.requireNonNull(memPolicy),
+                Objects.requireNonNull(memEncScheme),
+                Objects.requireNonNull(engine)));
+    }
+
+    private CompiledRegex get(Key key) {
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            hits.increment();
+            entry.touch(clock);
+            return entry.regex;
+        }
+
+        misses.increment();
+        return putIfAbsent(key, key.compile());
+    }
+
+    private CompiledRegex putIfAbsent(Key key, CompiledRegex regex) {
+        synchronized (lock) {
+            Entry existing = entries.get(key);
+            if (existing != null) return existing.regex;
+
+            if (size == maxSize) {
+                evictLeastRecentlyUsed();
+            }
+
+            entries.put(key, new Entry(regex, clock++));
+            size++;
+            return regex;
+        }
+    }
+
+    /* Called under the lock. */
+    private void evictLeastRecentlyUsed() {
+        Key eldest = null;
+        long eldestStamp = Long.MAX_VALUE;
+        for (Map.Entry<Key, Entry> e : entries.entrySet()) {
+            long stamp = e.getValue().lastUsed;
+            if (stamp < eldestStamp) {
+                eldest = e.getKey();
+                eldestStamp = stamp;
+            }
+        }
+
+        entries.remove(eldest);
+        size--;
+        evictions.increment();
+    }
+
+    public int maxSize() {
+        return maxSize;
+    }
+
+    /** Number of cached patterns. */
+    public int size() {
+        return entries.size();
+    }
+
+    public void clear() {
+        synchronized (lock) {
+            entries.clear();
+            size = 0;
+        }
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    /** Fraction of lookups that found a cached pattern, 0 if there were none. */
+    public double hitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return (total == 0) ? 0.0 : (double) h / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("RegexCache(size=%d/%d, hits=%d, misses=%d, evictions=%d)",
+                size(), maxSize, hits(), misses(), evictions());
+    }
+
+    private static final class Entry {
+        final CompiledRegex regex;
+        /* clock value of the last insert or hit */
+        volatile long lastUsed;
+
+        Entry(CompiledRegex regex, long lastUsed) {
+            this.regex = regex;
+            this.lastUsed = lastUsed;
+        }
+
+        void touch(long now) {
+            // Hot patterns are stamped once per miss, not on every hit
+            if (lastUsed != now) lastUsed = now;
+        }
+    }
+
+    /* Either resultType or the three explicit options are set. */
+    private static final class Key {
+        final String pattern;
+        final ResultType resultType;
+        final MemoisationPolicy memPolicy;
+        final MemoisationEncodingScheme memEncScheme;
+        final MatchEngine engine;
+        final int hash;
+
+        Key(String pattern, ResultType resultType,
+            MemoisationPolicy memPolicy, MemoisationEncodingScheme memEncScheme, MatchEngine engine) {
+            this.pattern = Objects.requireNonNull(pattern);
+            this.resultType = resultType;
+            this.memPolicy = memPolicy;
+            this.memEncScheme = memEncScheme;
+            this.engine = engine;
+            this.hash = Objects.hash(pattern, resultType, memPolicy, memEncScheme, engine);
+        }
+
+        CompiledRegex compile() {
+            RAst ast = RParser.parse(pattern);
+            return (resultType != null)
+                    ? CompiledRegex.compile(ast, resultType)
+                    : CompiledRegex.compile(ast, memPolicy, memEncScheme, engine);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return pattern.equals(other.pattern)
+                    && resultType == other.resultType
+                    && memPolicy == other.memPolicy
+                    && memEncScheme == other.memEncScheme
+                    && engine == other.engine;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
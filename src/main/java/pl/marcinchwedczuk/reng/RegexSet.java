@@ -0,0 +1,145 @@
+package pl.marcinchwedczuk.reng;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Many patterns matched together, answers which of them match the input.
+ *
+ * Patterns that the Pike VM supports are compiled into one program
+ * and run by a single LazyDfa, so the input is scanned once for all of them.
+ * The rest (backreferences, lookaheads) share one backtracking matcher:
+ * they are copied into a single CompiledRegex, so every node has its own
+ * row in one memoisation table that lives for the whole scan.
+ * A pattern is not tried again once it matched.
+ *
+ * Immutable and thread-safe.
+ */
+public final class RegexSet {
+
+    public static RegexSet compile(RAst... patterns) {
+        return compile(Arrays.asList(patterns));
+    }
+
+    public static RegexSet compile(List<RAst> patterns) {
+        List<RAst> dfa = new ArrayList<>();
+        List<Integer> dfaIndexes = new ArrayList<>();
+        List<RAst> backtracking = new ArrayList<>();
+        List<Integer> backtrackingIndexes = new ArrayList<>();
+
+        long programSize = 0;
+        for (int i = 0; i < patterns.size(); i++) {
+            // One by one, patterns must stay separate branches of the combined regex
+            RAst pattern = RAstOptimizer.optimize(patterns.get(i));
+
+            // SPLIT before every pattern, the estimate includes the SAVEs and MATCH
+            long size = PikeProgram.estimateSize(pattern) + 3;
+            if (PikeProgram.unsupportedReason(pattern) == null
+                    && programSize + size <= PikeProgram.MAX_SIZE) {
+                programSize += size;
+                dfa.add(pattern);
+                dfaIndexes.add(i);
+            } else {
+                backtracking.add(pattern);
+                backtrackingIndexes.add(i);
+            }
+        }
+
+        return new RegexSet(patterns.size(),
+                dfa, toArray(dfaIndexes),
+                backtracking, toArray(backtrackingIndexes));
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        return list.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private final int size;
+
+    /* dfaPatterns[i] - index of the i-th pattern of the dfa in the set */
+    private final int[] dfaPatterns;
+    private final LazyDfa dfa;
+
+    private final int[] backtrackingPatterns;
+    /* alternative of the patterns, only its branches are matched */
+    private final CompiledRegex backtracking;
+
+    private RegexSet(int size,
+                     List<RAst> dfa, int[] dfaPatterns,
+                     List<RAst> backtracking, int[] backtrackingPatterns) {
+        this.size = size;
+        this.dfaPatterns = dfaPatterns;
+        this.backtrackingPatterns = backtrackingPatterns;
+
+        if (dfa.isEmpty()) {
+            this.dfa = null;
+        } else {
+            CompiledRegex combined = CompiledRegex.compile(
+                    RAst.alternative(dfa.toArray(new RAst[0])),
+                    MemoisationPolicy.NONE, MemoisationEncodingScheme.BIT_MAP);
+            this.dfa = LazyDfa.of(PikeProgram.compileSet(combined), LazyDfa.DEFAULT_MAX_STATES);
+        }
+
+        this.backtracking = backtracking.isEmpty()
+                ? null
+                : CompiledRegex.compile(
+                        RAst.alternative(backtracking.toArray(new RAst[0])),
+                        MatchPlanner.BACKTRACKING_POLICY, MatchPlanner.BACKTRACKING_SCHEME);
+    }
+
+    /**
+     * @return indexes of the patterns that match a substring of s
+     */
+    public BitSet matches(String s) {
+        BitSet result = new BitSet(size);
+
+        if (dfa != null) {
+            BitSet found = dfa.matchingPatterns(s);
+            for (int i = found.nextSetBit(0); i >= 0; i = found.nextSetBit(i + 1)) {
+                result.set(dfaPatterns[i]);
+            }
+        }
+
+        if (backtracking != null) {
+            matchBacktracking(s, result);
+        }
+
+        return result;
+    }
+
+    private void matchBacktracking(String s, BitSet result) {
+        BacktrackingMatcher matcher = new BacktrackingMatcher(backtracking, s);
+        List<RAst> patterns = backtracking.ast().exprs;
+
+        boolean[] matched = new boolean[patterns.size()];
+        int remaining = patterns.size();
+
+        for (int pos = 0; pos <= s.length() && remaining > 0; pos++) {
+            for (int i = 0; i < patterns.size(); i++) {
+                if (matched[i]) continue;
+
+                if (matcher.matchAt(pos, patterns.get(i))) {
+                    matched[i] = true;
+                    remaining--;
+                    result.set(backtrackingPatterns[i]);
+                }
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Number of patterns matched by the combined automaton. */
+    public int numOfAutomatonPatterns() {
+        return dfaPatterns.length;
+    }
+
+    /** Number of patterns that need backtracking. */
+    public int numOfBacktrackingPatterns() {
+        return backtrackingPatterns.length;
+    }
+}
@@ -0,0 +1,14 @@
+package pl.marcinchwedczuk.reng;
+
+public enum ResultType {
+
+    /* only whether the input contains a match */
+    BOOLEAN,
+
+    /* start and end of the leftmost match */
+    SPAN,
+
+    /* span together with capture groups */
+    CAPTURES
+
+}
@@ -0,0 +1,85 @@
+package pl.marcinchwedczuk.reng;
+
+import java.util.Arrays;
+
+/**
+ * Bit map memoisation table for streams, with a fixed number of columns
+ * reused in a ring: position p lives in column p mod numOfColumns.
+ * Columns of positions that went out of the window must be cleared
+ * with {@link #clear(int, int)} before the ring comes back to them.
+ */
+public class RingBitMap implements MemoisationTable {
+
+    private static final int ADDRESS_BITS_PER_WORD = 6;
+
+    private final long[][] bitMap;
+    private final int mask;
+    private final int wordsPerRow;
+
+    /**
+     * @param numOfColumns power of two
+     */
+    public RingBitMap(int numOfNodes, int numOfColumns) {
+        assert numOfNodes >= 0;
+        if (numOfColumns <= 0 || Integer.bitCount(numOfColumns) != 1)
+            throw new IllegalArgumentException("numOfColumns: " + numOfColumns);
+
+        this.bitMap = new long[numOfNodes][];
+        this.mask = numOfColumns - 1;
+        this.wordsPerRow = (numOfColumns + 63) >>> ADDRESS_BITS_PER_WORD;
+    }
+
+    @Override
+    public boolean get(RAst node, int wordIdx) {
+        long[] row = bitMap[node.getIndexInBitMap()];
+        if (row == null) return false;
+
+        int column = wordIdx & mask;
+        return (row[column >>> ADDRESS_BITS_PER_WORD] & (1L << column)) != 0;
+    }
+
+    @Override
+    public void mark(RAst node, int wordIdx) {
+        int rowIdx = node.getIndexInBitMap();
+        long[] row = bitMap[rowIdx];
+        if (row == null) {
+            row = new long[wordsPerRow];
+            bitMap[rowIdx] = row;
+        }
+
+        int column = wordIdx & mask;
+        row[column >>> ADDRESS_BITS_PER_WORD] |= (1L << column);
+    }
+
+    /**
+     * Clears columns of positions from (inclusive) to to (exclusive).
+     * Positions may wrap around, only to - from matters.
+     */
+    @Override
+    public void clear(int from, int to) {
+        int count = to - from;
+        if (count <= 0) return;
+
+        for (long[] row : bitMap) {
+            if (row == null) continue;
+
+            if (count > mask) {
+                Arrays.fill(row, 0L);
+                continue;
+            }
+            for (int i = 0; i < count; i++) {
+                int column = (from + i) & mask;
+                row[column >>> ADDRESS_BITS_PER_WORD] &= ~(1L << column);
+            }
+        }
+    }
+
+    @Override
+    public long sizeInBytes() {
+        long size = 16 + 4L * bitMap.length;
+        for (long[] row : bitMap) {
+            if (row != null) size += 16 + 8L * row.length;
+        }
+        return size;
+    }
+}
@@ -1,18 +1,149 @@
 package pl.marcinchwedczuk.reng;
 
+import java.util.Arrays;
+
+/**
+ * Stores marked positions of every node as a sorted list of disjoint,
+ * non-adjacent runs [start, end] (both inclusive).
+ * Memory grows with the number of runs, not with the input length.
+ */
 public class RunLengthEncoding implements MemoisationTable {
 
-    public RunLengthEncoding(int numOfNodes, int numOfChars) {
+    private static final int INITIAL_CAPACITY = 4;
 
+    /* runs[row] = { start0, end0, start1, end1, ... }, allocated on first mark */
+    private final int[][] runs;
+    private final int[] runCount;
+
+    public RunLengthEncoding(int numOfNodes, int numOfChars) {
+        assert numOfNodes >= 0 && numOfChars >= 0;
+        runs = new int[numOfNodes][];
+        runCount = new int[numOfNodes];
     }
 
     @Override
     public boolean get(RAst node, int wordIdx) {
-        return false;
+        int row = node.getIndexInBitMap();
+        int run = findRun(row, wordIdx);
+        return run >= 0 && wordIdx <= runs[row][2*run + 1];
     }
 
     @Override
     public void mark(RAst node, int wordIdx) {
+        int row = node.getIndexInBitMap();
+        int[] r = runs[row];
+        int count = runCount[row];
+
+        int prev = findRun(row, wordIdx);
+        int next = prev + 1;
+
+        if (prev >= 0 && wordIdx <= r[2*prev + 1]) {
+            // Already marked
+            return;
+        }
+
+        boolean extendsPrev = prev >= 0 && r[2*prev + 1] + 1 == wordIdx;
+        boolean extendsNext = next < count && r[2*next] - 1 == wordIdx;
+
+        if (extendsPrev && extendsNext) {
+            // Position fills the gap between two runs, merge them
+            r[2*prev + 1] = r[2*next + 1];
+            System.arraycopy(r, 2*next + 2, r, 2*next, 2*(count - next - 1));
+            runCount[row] = count - 1;
+        }
+        else if (extendsPrev) {
+            r[2*prev + 1] = wordIdx;
+        }
+        else if (extendsNext) {
+            r[2*next] = wordIdx;
+        }
+        else {
+            r = ensureCapacity(row, count + 1);
+            System.arraycopy(r, 2*next, r, 2*next + 2, 2*(count - next));
+            r[2*next] = wordIdx;
+            r[2*next + 1] = wordIdx;
+            runCount[row] = count + 1;
+        }
+    }
+
+    @Override
+    public void clear(int from, int to) {
+        if (from >= to) return;
+        int last = to - 1;
+
+        for (int row = 0; row < runs.length; row++) {
+            int[] r = runs[row];
+            int count = runCount[row];
+            if (count == 0) continue;
+
+            // Runs [first, end) overlap the cleared range
+            int first = findRun(row, from);
+            if (first < 0 || r[2*first + 1] < from) first++;
+            int end = findRun(row, last) + 1;
+            if (first >= end) continue;
+
+            int keptStart = r[2*first];
+            int keptEnd = r[2*(end - 1) + 1];
 
+            // Parts of the overlapping runs outside of the range survive
+            int[] remaining = new int[4];
+            int n = 0;
+            if (keptStart < from) { remaining[n++] = keptStart; remaining[n++] = from - 1; }
+            if (keptEnd > last) { remaining[n++] = last + 1; remaining[n++] = keptEnd; }
+
+            int newCount = count - (end - first) + n / 2;
+            r = ensureCapacity(row, newCount);
+            System.arraycopy(r, 2*end, r, 2*first + n, 2*(count - end));
+            System.arraycopy(remaining, 0, r, 2*first, n);
+            runCount[row] = newCount;
+        }
+    }
+
+    /**
+     * @return index of the last run starting at or before wordIdx, -1 if there is none
+     */
+    private int findRun(int row, int wordIdx) {
+        int[] r = runs[row];
+        int count = runCount[row];
+        if (count == 0) return -1;
+
+        // Fast path: backtracking mostly marks positions at the end
+        if (r[2*(count - 1)] <= wordIdx) return count - 1;
+
+        int lo = 0, hi = count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (r[2*mid] <= wordIdx) lo = mid + 1;
+            else hi = mid - 1;
+        }
+        return hi;
+    }
+
+    private int[] ensureCapacity(int row, int requiredRuns) {
+        int[] r = runs[row];
+
+        if (r == null) {
+            r = new int[2 * Math.max(INITIAL_CAPACITY, requiredRuns)];
+            runs[row] = r;
+        }
+        else if (2 * requiredRuns > r.length) {
+            r = Arrays.copyOf(r, Math.max(2 * r.length, 2 * requiredRuns));
+            runs[row] = r;
+        }
+
+        return r;
+    }
+
+    public int numberOfRuns(RAst node) {
+        return runCount[node.getIndexInBitMap()];
+    }
+
+    @Override
+    public long sizeInBytes() {
+        long size = 16 + 4L * runs.length + 16 + 4L * runCount.length;
+        for (int[] r : runs) {
+            if (r != null) size += 16 + 4L * r.length;
+        }
+        return size;
     }
 }
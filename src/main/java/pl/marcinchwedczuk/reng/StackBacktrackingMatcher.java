@@ -0,0 +1,367 @@
+package pl.marcinchwedczuk.reng;
+
+import java.util.Arrays;
+
+import static pl.marcinchwedczuk.reng.BacktrackingProgram.*;
+
+/**
+ * Per-call matching context for a BacktrackingProgram.
+ * Gives the same results as BacktrackingMatcher, but keeps backtracking
+ * points on a heap allocated BacktrackingStack instead of the Java stack,
+ * so inputs of any length can be matched.
+ */
+public class StackBacktrackingMatcher {
+
+    /* Resume matching at (state = pc, index = pos). */
+    static final int BRANCH = 0;
+    /* Restore (state = register) to (index = value). */
+    static final int RESTORE = 1;
+    /* Lookahead started at (index = pos), (state = pc) continues negative lookahead. */
+    static final int POS_LOOK = 2;
+    static final int NEG_LOOK = 3;
+    /* Restore capture slot (state = slot) to (index = value). */
+    static final int RESTORE_CAPTURE = 4;
+
+    private static final int UNSET = -1;
+
+    private final CompiledRegex regex;
+    private final BacktrackingProgram program;
+    private final String s;
+    private final MemoisationTable memoTable;
+
+    /* MEMO_SCOPED cells, see BacktrackingMatcher.matchScoped */
+    private final MemoisationTable scopedMemoTable;
+    private int maxScopedMarkedPos = Integer.MIN_VALUE;
+
+    /* MEMO_COUNTED cells, null if there are none */
+    private final CountedMemoisationTable countedMemoTable;
+
+    private final BacktrackingStack stack = new BacktrackingStack();
+    private final int[] registers;
+
+    /* group g spans [captures[2g], captures[2g+1]), restored on backtracking */
+    private final int[] captures;
+
+    /* literals found by TRIE, pushed on the stack before the next TRIE runs */
+    private final int[] trieMatches;
+
+    private int matchEnd;
+
+    public StackBacktrackingMatcher(CompiledRegex regex, String s) {
+        this.regex = regex;
+        this.program = regex.backtrackingProgram();
+        this.s = s;
+        this.memoTable = MemoisationTableFactory.create(
+                regex.memoisationEncodingScheme(),
+                regex.nodesToMemoise().size(),
+                s.length()+1);
+        this.scopedMemoTable = regex.hasScopedMemoisedNodes()
+                ? MemoisationTableFactory.create(
+                        regex.memoisationEncodingScheme(),
+                        regex.nodesToMemoise().size(),
+                        s.length()+1)
+                : null;
+        this.countedMemoTable = regex.countedNodesToMemoise().isEmpty()
+                ? null
+                : new CountedMemoisationTable();
+
+        this.registers = new int[program.numOfRegisters];
+        this.captures = new int[2 * (regex.numOfCaptureGroups() + 1)];
+        this.trieMatches = new int[program.maxTrieMatches];
+    }
+
+    public Match match() {
+        StartPositionScanner scanner = regex.startPositionScanner();
+
+        for (int startIndex = scanner.nextCandidate(s, 0);
+                startIndex != StartPositionScanner.NO_CANDIDATE;
+                startIndex = scanner.nextCandidate(s, startIndex + 1)) {
+            if (run(startIndex)) {
+                return new Match(s, true, startIndex, matchEnd, captures.clone());
+            }
+        }
+
+        return new Match(s, false, -1, -1);
+    }
+
+    long memoTableSizeInBytes() {
+        long size = (memoTable != null) ? memoTable.sizeInBytes() : 0;
+        if (scopedMemoTable != null) size += scopedMemoTable.sizeInBytes();
+        if (countedMemoTable != null) size += countedMemoTable.sizeInBytes();
+        return size;
+    }
+
+    BacktrackingStack stack() {
+        return stack;
+    }
+
+    private boolean run(int startIndex) {
+        final int[] code = program.code;
+        final RAst[] nodes = program.nodes;
+
+        int pc = 0;
+        int pos = startIndex;
+        stack.clear();
+        Arrays.fill(captures, Match.UNSET);
+
+        while (true) {
+            boolean fail = false;
+
+            switch (code[pc]) {
+                case MATCH:
+                    matchEnd = pos;
+                    return true;
+
+                case MEMO: {
+                    RAst node = nodes[code[pc + 1]];
+                    if (memoTable.get(node, pos)) {
+                        fail = true;
+                    } else {
+                        memoTable.mark(node, pos);
+                        pc += 2;
+                    }
+                    break;
+                }
+
+                case MEMO_SCOPED: {
+                    RAst node = nodes[code[pc + 1]];
+                    if (scopedMemoTable.get(node, pos)) {
+                        fail = true;
+                    } else {
+                        scopedMemoTable.mark(node, pos);
+                        if (pos > maxScopedMarkedPos) maxScopedMarkedPos = pos;
+                        pc += 2;
+                    }
+                    break;
+                }
+
+                case MEMO_COUNTED: {
+                    RAst node = nodes[code[pc + 1]];
+                    int count = nodes[node.getCountedBy()].countKey(registers[code[pc + 2]]);
+                    if (countedMemoTable.get(node, pos, count)) {
+                        fail = true;
+                    } else {
+                        countedMemoTable.mark(node, pos, count);
+                        pc += 3;
+                    }
+                    break;
+                }
+
+                case GROUP:
+                    if (pos < s.length() && nodes[code[pc + 1]].chars.contains(s.charAt(pos))) {
+                        pos++;
+                        pc += 2;
+                    } else {
+                        fail = true;
+                    }
+                    break;
+
+                case NEGATED_GROUP:
+                    if (pos < s.length() && !nodes[code[pc + 1]].chars.contains(s.charAt(pos))) {
+                        pos++;
+                        pc += 2;
+                    } else {
+                        fail = true;
+                    }
+                    break;
+
+                case LITERAL: {
+                    String text = nodes[code[pc + 1]].text;
+                    if (s.startsWith(text, pos)) {
+                        pos += text.length();
+                        pc += 2;
+                    } else {
+                        fail = true;
+                    }
+                    break;
+                }
+
+                case TRIE: {
+                    LiteralTrie trie = nodes[code[pc + 1]].trie;
+                    int found = trie.find(s, pos, trieMatches);
+                    if (found == 0) {
+                        fail = true;
+                        break;
+                    }
+
+                    // Lower priority literals continue after TRIE too, pushed last to first
+                    for (int i = found - 1; i > 0; i--) {
+                        stack.push(BRANCH, pc + 2, pos + trie.literals().get(trieMatches[i]).length());
+                    }
+                    pos += trie.literals().get(trieMatches[0]).length();
+                    pc += 2;
+                    break;
+                }
+
+                case AT_BEGINNING:
+                    fail = (pos != 0);
+                    pc += 1;
+                    break;
+
+                case AT_END:
+                    fail = (pos != s.length());
+                    pc += 1;
+                    break;
+
+                case SPLIT:
+                    stack.push(BRANCH, code[pc + 1], pos);
+                    pc += 2;
+                    break;
+
+                case JMP:
+                    pc = code[pc + 1];
+                    break;
+
+                case OPEN:
+                    setRegister(code[pc + 1], pos);
+                    pc += 2;
+                    break;
+
+                case CLOSE: {
+                    int group = code[pc + 1];
+                    setCapture(2 * group, registers[code[pc + 2]]);
+                    setCapture(2 * group + 1, pos);
+                    pc += 3;
+                    break;
+                }
+
+                case BACKREF: {
+                    int start = captures[2 * code[pc + 1]];
+                    int len = captures[2 * code[pc + 1] + 1] - start;
+                    if (start != Match.UNSET && s.regionMatches(pos, s, start, len)) {
+                        pos += len;
+                        pc += 2;
+                    } else {
+                        fail = true;
+                    }
+                    break;
+                }
+
+                case LOOK:
+                    // Register is only read by LOOK_END of the same lookahead,
+                    // a lookahead cannot contain itself so no restore is needed.
+                    registers[code[pc + 2]] = stack.size();
+                    stack.push(code[pc + 1] == 1 ? NEG_LOOK : POS_LOOK, code[pc + 3], pos);
+                    pc += 4;
+                    break;
+
+                case LOOK_END: {
+                    // Lookahead matched, drop all its backtracking points
+                    int marker = registers[code[pc + 2]];
+                    int lookStart = stack.indexAt(marker);
+                    stack.truncateKeeping(marker, RESTORE_CAPTURE);
+                    forgetScopedPath(lookStart);
+
+                    if (code[pc + 1] == 1) {
+                        fail = true;
+                    } else {
+                        pos = lookStart;
+                        pc += 3;
+                    }
+                    break;
+                }
+
+                case ATOMIC:
+                    // Like LOOK, the registers need no restore
+                    registers[code[pc + 1]] = stack.size();
+                    registers[code[pc + 1] + 1] = pos;
+                    pc += 2;
+                    break;
+
+                case ATOMIC_END:
+                    // Group matched, drop its backtracking points
+                    stack.truncateKeeping(registers[code[pc + 1]], RESTORE_CAPTURE);
+                    forgetScopedPath(registers[code[pc + 1] + 1]);
+                    pc += 2;
+                    break;
+
+                case REPEAT_INIT: {
+                    int countReg = code[pc + 1];
+                    setRegister(countReg, 0);
+                    setRegister(countReg + 1, UNSET);
+                    pc += 2;
+                    break;
+                }
+
+                case REPEAT_LOOP: {
+                    int countReg = code[pc + 1];
+                    RAst repeat = nodes[code[pc + 2]];
+                    int exit = code[pc + 3];
+                    int count = registers[countReg];
+
+                    if (count > repeat.repeatMax) {
+                        fail = true;
+                    }
+                    else if (pos == registers[countReg + 1] && count >= repeat.repeatMin) {
+                        // Last iteration was empty, see BacktrackingMatcher.repeatRec
+                        pc = exit;
+                    }
+                    else {
+                        if (count >= repeat.repeatMin) {
+                            stack.push(BRANCH, exit, pos);
+                        }
+                        setRegister(countReg + 1, pos);
+                        pc += 4;
+                    }
+                    break;
+                }
+
+                case REPEAT_NEXT: {
+                    int countReg = code[pc + 1];
+                    setRegister(countReg, registers[countReg] + 1);
+                    pc = code[pc + 2];
+                    break;
+                }
+
+                default:
+                    throw new AssertionError("Unknown opcode: " + code[pc]);
+            }
+
+            if (!fail) continue;
+
+            // Backtrack to the most recent branch
+            while (true) {
+                if (stack.isEmpty()) return false;
+                stack.pop();
+
+                int kind = stack.kind();
+                if (kind == BRANCH) {
+                    pc = stack.state();
+                    pos = stack.index();
+                    break;
+                }
+                else if (kind == RESTORE) {
+                    registers[stack.state()] = stack.index();
+                }
+                else if (kind == RESTORE_CAPTURE) {
+                    captures[stack.state()] = stack.index();
+                }
+                else if (kind == NEG_LOOK) {
+                    // Negative lookahead did not match
+                    pc = stack.state();
+                    pos = stack.index();
+                    break;
+                }
+                // POS_LOOK - lookahead did not match, keep backtracking
+            }
+        }
+    }
+
+    /* Inner match of an atomic group or lookahead started at start succeeded. */
+    private void forgetScopedPath(int start) {
+        if (scopedMemoTable != null && maxScopedMarkedPos >= start) {
+            scopedMemoTable.clear(start, maxScopedMarkedPos + 1);
+            maxScopedMarkedPos = start - 1;
+        }
+    }
+
+    private void setRegister(int register, int value) {
+        stack.push(RESTORE, register, registers[register]);
+        registers[register] = value;
+    }
+
+    private void setCapture(int slot, int value) {
+        stack.push(RESTORE_CAPTURE, slot, captures[slot]);
+        captures[slot] = value;
+    }
+}
@@ -0,0 +1,259 @@
+package pl.marcinchwedczuk.reng;
+
+import java.util.Arrays;
+
+/**
+ * Finds input positions where a match can start, so matchers
+ * do not have to try every position.
+ * Built at compile time from what every match must begin with:
+ * <ul>
+ *     <li>^ - only position 0,</li>
+ *     <li>a literal prefix - Boyer-Moore-Horspool search,</li>
+ *     <li>a set of possible first chars - a scan testing the CharClass,</li>
+ *     <li>otherwise every position.</li>
+ * </ul>
+ * Immutable.
+ */
+public abstract class StartPositionScanner {
+
+    public static final int NO_CANDIDATE = -1;
+
+    /* Prefixes longer than this do not make the search noticeably faster. */
+    private static final int MAX_PREFIX_LENGTH = 32;
+
+    public static StartPositionScanner of(RAst regex) {
+        if (startsWithBeginningAnchor(regex)) {
+            return new Anchored();
+        }
+
+        StringBuilder prefix = new StringBuilder();
+        literalPrefix(regex, prefix);
+        if (prefix.length() > 1) {
+            return new LiteralPrefix(prefix.toString());
+        }
+
+        CharClass.Builder firstBuilder = CharClass.builder();
+        if (firstChars(regex, firstBuilder) == Result.CANNOT_BE_EMPTY) {
+            CharClass first = firstBuilder.build();
+            return (first.size() == 1)
+                    ? new SingleChar(first.first())
+                    : new CharSet(first);
+        }
+
+        return new Anywhere();
+    }
+
+    /**
+     * @return the first position at or after from, where a match can start,
+     * or NO_CANDIDATE if there is none
+     */
+    public abstract int nextCandidate(String s, int from);
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName();
+    }
+
+    private static boolean startsWithBeginningAnchor(RAst ast) {
+        switch (ast.type) {
+            case AT_BEGINNING:
+                return true;
+            case CONCAT:
+                return !ast.exprs.isEmpty() && startsWithBeginningAnchor(ast.headExpr());
+            case ATOMIC_GROUP:
+            case CAPTURE_GROUP:
+                return startsWithBeginningAnchor(ast.headExpr());
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Appends chars that every match starts with to prefix.
+     *
+     * @return true if the whole ast is a literal, so the prefix
+     * may continue after it
+     */
+    private static boolean literalPrefix(RAst ast, StringBuilder prefix) {
+        if (prefix.length() >= MAX_PREFIX_LENGTH) return false;
+
+        switch (ast.type) {
+            case GROUP:
+                if (ast.chars.size() != 1) return false;
+                prefix.append(ast.chars.first());
+                return true;
+
+            case LITERAL: {
+                int length = Math.min(ast.text.length(), MAX_PREFIX_LENGTH - prefix.length());
+                prefix.append(ast.text, 0, length);
+                return length == ast.text.length();
+            }
+
+            case CONCAT:
+                for (RAst expr : ast.exprs) {
+                    if (!literalPrefix(expr, prefix)) return false;
+                }
+                return true;
+
+            case ATOMIC_GROUP:
+            case CAPTURE_GROUP:
+                return literalPrefix(ast.headExpr(), prefix);
+
+            default:
+                return false;
+        }
+    }
+
+    private enum Result {
+        /* the ast always consumes at least one char, first holds all possible first chars */
+        CANNOT_BE_EMPTY,
+        /* the ast can match empty string, first holds its first chars when it is not empty */
+        CAN_BE_EMPTY,
+        /* first chars cannot be determined */
+        UNKNOWN
+    }
+
+    private static Result firstChars(RAst ast, CharClass.Builder first) {
+        switch (ast.type) {
+            case GROUP:
+                if (ast.chars.isEmpty()) return Result.UNKNOWN;
+                first.addAll(ast.chars);
+                return Result.CANNOT_BE_EMPTY;
+
+            case LITERAL:
+                first.add(ast.text.charAt(0));
+                return Result.CANNOT_BE_EMPTY;
+
+            case TRIE:
+                for (String literal : ast.trie.literals()) {
+                    if (!literal.isEmpty()) first.add(literal.charAt(0));
+                }
+                return ast.trie.containsEmpty()
+                        ? Result.CAN_BE_EMPTY
+                        : Result.CANNOT_BE_EMPTY;
+
+            case AT_BEGINNING:
+            case AT_END:
+                return Result.CAN_BE_EMPTY;
+
+            case ATOMIC_GROUP:
+            case CAPTURE_GROUP:
+                return firstChars(ast.headExpr(), first);
+
+            case CONCAT:
+                for (RAst expr : ast.exprs) {
+                    Result r = firstChars(expr, first);
+                    if (r != Result.CAN_BE_EMPTY) return r;
+                }
+                return Result.CAN_BE_EMPTY;
+
+            case ALTERNATIVE: {
+                Result result = Result.CANNOT_BE_EMPTY;
+                for (RAst expr : ast.exprs) {
+                    Result r = firstChars(expr, first);
+                    if (r == Result.UNKNOWN) return r;
+                    if (r == Result.CAN_BE_EMPTY) result = r;
+                }
+                return result;
+            }
+
+            case REPEAT: {
+                if (ast.repeatMax < ast.repeatMin) return Result.UNKNOWN;
+                if (ast.repeatMax == 0) return Result.CAN_BE_EMPTY;
+
+                Result r = firstChars(ast.headExpr(), first);
+                return (r == Result.CANNOT_BE_EMPTY && ast.repeatMin == 0)
+                        ? Result.CAN_BE_EMPTY
+                        : r;
+            }
+
+            default:
+                // NEGATED_GROUP matches almost anything, lookaheads
+                // and backreferences are not worth analysing
+                return Result.UNKNOWN;
+        }
+    }
+
+    private static final class Anywhere extends StartPositionScanner {
+        @Override
+        public int nextCandidate(String s, int from) {
+            return (from <= s.length()) ? from : NO_CANDIDATE;
+        }
+    }
+
+    private static final class Anchored extends StartPositionScanner {
+        @Override
+        public int nextCandidate(String s, int from) {
+            return (from == 0) ? 0 : NO_CANDIDATE;
+        }
+    }
+
+    private static final class SingleChar extends StartPositionScanner {
+        private final char c;
+
+        SingleChar(char c) {
+            this.c = c;
+        }
+
+        @Override
+        public int nextCandidate(String s, int from) {
+            return s.indexOf(c, from);
+        }
+
+        @Override
+        public String toString() {
+            return "SingleChar(" + c + ")";
+        }
+    }
+
+    private static final class CharSet extends StartPositionScanner {
+        private final CharClass chars;
+
+        CharSet(CharClass chars) {
+            this.chars = chars;
+        }
+
+        @Override
+        public int nextCandidate(String s, int from) {
+            for (int i = from; i < s.length(); i++) {
+                if (chars.contains(s.charAt(i))) return i;
+            }
+            return NO_CANDIDATE;
+        }
+    }
+
+    /* Boyer-Moore-Horspool, shifts are indexed by the low byte of a char. */
+    private static final class LiteralPrefix extends StartPositionScanner {
+        private final String prefix;
+        private final int[] shifts = new int[256];
+
+        LiteralPrefix(String prefix) {
+            this.prefix = prefix;
+
+            int last = prefix.length() - 1;
+            Arrays.fill(shifts, prefix.length());
+            for (int i = 0; i < last; i++) {
+                shifts[prefix.charAt(i) & 0xff] = last - i;
+            }
+        }
+
+        @Override
+        public int nextCandidate(String s, int from) {
+            int last = prefix.length() - 1;
+
+            for (int i = from; i + last < s.length(); ) {
+                char c = s.charAt(i + last);
+                if (c == prefix.charAt(last) && s.startsWith(prefix, i)) {
+                    return i;
+                }
+                i += shifts[c & 0xff];
+            }
+            return NO_CANDIDATE;
+        }
+
+        @Override
+        public String toString() {
+            return "LiteralPrefix(" + prefix + ")";
+        }
+    }
+}
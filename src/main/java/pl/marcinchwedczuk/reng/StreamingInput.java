@@ -0,0 +1,194 @@
+package pl.marcinchwedczuk.reng;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Input that pulls chars from a Reader into a fixed size ring buffer.
+ * Chars are read only when the matcher looks at them, and are kept
+ * until {@link #discardBefore(long)} says that no match attempt
+ * can backtrack into them anymore.
+ *
+ * Absolute stream offsets are longs, the int positions of {@link Input}
+ * are their low 32 bits. IOExceptions are rethrown as UncheckedIOException.
+ */
+public class StreamingInput extends Input {
+
+    public static StreamingInput of(Reader reader, int capacity) {
+        return new StreamingInput(reader, capacity);
+    }
+
+    /** Malformed and unmappable bytes are replaced, not reported. */
+    public static StreamingInput of(ReadableByteChannel channel, Charset charset, int capacity) {
+        CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        return new StreamingInput(Channels.newReader(channel, decoder, -1), capacity);
+    }
+
+    private final Reader reader;
+    private final char[] buffer;
+    private final int mask;
+
+    /* window of kept chars [start, end), absolute offsets */
+    private long start = 0;
+    private long end = 0;
+    private long pos = 0;
+    private boolean eof = false;
+
+    /**
+     * @param capacity max number of chars a match attempt can look at,
+     *                 rounded up to a power of two
+     */
+    public StreamingInput(Reader reader, int capacity) {
+        if (capacity < 1 || capacity > (1 << 30))
+            throw new IllegalArgumentException("capacity: " + capacity);
+
+        int size = 1;
+        while (size < capacity) size <<= 1;
+
+        this.reader = reader;
+        this.buffer = new char[size];
+        this.mask = buffer.length - 1;
+    }
+
+    public int capacity() {
+        return buffer.length;
+    }
+
+    /** Absolute offset of the current position. */
+    public long position() {
+        return pos;
+    }
+
+    /** Absolute offset one past the last char read from the reader. */
+    public long windowEnd() {
+        return end;
+    }
+
+    /** Converts a position returned by {@link #currentPos()} back to an absolute offset. */
+    public long toAbsolute(int position) {
+        return pos + (position - (int) pos);
+    }
+
+    /**
+     * Drops all chars before offset and moves the current position there.
+     * The offset must be in the window, offsets before it cannot be visited again.
+     */
+    public void discardBefore(long offset) {
+        if (offset < start || offset > end)
+            throw new IllegalArgumentException("offset: " + offset);
+
+        start = offset;
+        pos = offset;
+    }
+
+    @Override
+    public int currentPos() {
+        return (int) pos;
+    }
+
+    @Override
+    public boolean atBeginning() {
+        return pos == 0;
+    }
+
+    @Override
+    public boolean atEnd() {
+        return pos == end && !fill();
+    }
+
+    @Override
+    public void advance(int nchars) {
+        if (nchars < 0 || pos + nchars > end)
+            throw new IllegalArgumentException("nchars: " + nchars);
+
+        pos += nchars;
+    }
+
+    @Override
+    public String range(int from, int to) {
+        long offset = toAbsolute(from);
+        int length = to - from;
+        assert offset >= start && length >= 0 && offset + length <= end;
+
+        char[] chars = new char[length];
+        int first = (int) offset & mask;
+        int head = Math.min(length, buffer.length - first);
+        System.arraycopy(buffer, first, chars, 0, head);
+        System.arraycopy(buffer, 0, chars, head, length - head);
+        return new String(chars);
+    }
+
+    @Override
+    public char current() {
+        if (pos == end && !fill())
+            throw new IllegalStateException("at end of input");
+
+        return buffer[(int) pos & mask];
+    }
+
+    @Override
+    public boolean regionMatches(int from, int length) {
+        long offset = toAbsolute(from);
+        for (int i = 0; i < length; i++) {
+            if (pos + i == end && !fill()) return false;
+            if (buffer[(int) (offset + i) & mask] != buffer[(int) (pos + i) & mask]) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean lookingAt(String literal) {
+        for (int i = 0; i < literal.length(); i++) {
+            if (pos + i == end && !fill()) return false;
+            if (buffer[(int) (pos + i) & mask] != literal.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void restorePosition(InputPositionMarker m) {
+        long offset = toAbsolute(m.pos);
+        if (offset < start || offset > end)
+            throw new IllegalArgumentException("marker pos: " + m.pos);
+
+        pos = offset;
+    }
+
+    /* Reads at least one char, false at the end of the stream. */
+    private boolean fill() {
+        if (eof) return false;
+
+        long free = buffer.length - (end - start);
+        if (free == 0) {
+            throw new IllegalStateException(
+                    "Match attempt at offset " + start + " needs more than " +
+                    buffer.length + " chars of input.");
+        }
+
+        int first = (int) end & mask;
+        int length = (int) Math.min(free, buffer.length - first);
+        try {
+            int n;
+            do {
+                n = reader.read(buffer, first, length);
+            } while (n == 0);
+
+            if (n < 0) {
+                eof = true;
+                return false;
+            }
+            end += n;
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
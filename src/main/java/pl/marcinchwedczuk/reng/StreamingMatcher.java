@@ -0,0 +1,132 @@
+package pl.marcinchwedczuk.reng;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Finds all non-overlapping matches in a stream of chars,
+ * reporting each one as soon as it is found.
+ *
+ * Matching uses the backtracking matcher over a StreamingInput, whatever
+ * engine the regex was compiled for. Only the chars and memoisation
+ * columns from the current start position on are kept, so memory
+ * is bounded by the window size, not by the stream length.
+ * A match attempt that needs to look further ahead than the window
+ * fails with IllegalStateException, e.g. .* on a stream without
+ * line breaks, prefer [^\n]* for line oriented data.
+ *
+ * Per-call state, like BacktrackingMatcher.
+ */
+public class StreamingMatcher {
+
+    public static final int DEFAULT_WINDOW_SIZE = 1 << 16;
+
+    public interface MatchListener {
+        /**
+         * @param start absolute offset of the first matched char
+         * @param end absolute offset one past the last matched char
+         */
+        void onMatch(long start, long end, String matched);
+    }
+
+    public static long findAll(CompiledRegex regex, Reader reader,
+                               MatchListener listener) throws IOException {
+        return new StreamingMatcher(regex, StreamingInput.of(reader, DEFAULT_WINDOW_SIZE))
+                .findAll(listener);
+    }
+
+    public static long findAll(CompiledRegex regex, ReadableByteChannel channel, Charset charset,
+                               MatchListener listener) throws IOException {
+        return new StreamingMatcher(regex, StreamingInput.of(channel, charset, DEFAULT_WINDOW_SIZE))
+                .findAll(listener);
+    }
+
+    private final StreamingInput input;
+    private final RingBitMap memoTable;
+    private final RingBitMap scopedMemoTable;
+    private final CountedMemoisationTable countedMemoTable;
+    private final BacktrackingMatcher matcher;
+
+    public StreamingMatcher(CompiledRegex regex, StreamingInput input) {
+        this.input = input;
+
+        // Positions from start to the end of the window inclusive need separate columns
+        int numOfNodes = regex.nodesToMemoise().size();
+        this.memoTable = (numOfNodes == 0)
+                ? null
+                : new RingBitMap(numOfNodes, 2 * input.capacity());
+        this.scopedMemoTable = regex.hasScopedMemoisedNodes()
+                ? new RingBitMap(numOfNodes, 2 * input.capacity())
+                : null;
+
+        this.countedMemoTable = regex.countedNodesToMemoise().isEmpty()
+                ? null
+                : new CountedMemoisationTable();
+
+        this.matcher = new BacktrackingMatcher(regex, input,
+                memoTable, scopedMemoTable, countedMemoTable);
+    }
+
+    /**
+     * Reads the stream to the end, after an empty match
+     * the next match is searched from the following char.
+     *
+     * @return number of matches
+     */
+    public long findAll(MatchListener listener) throws IOException {
+        try {
+            return find(listener);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private long find(MatchListener listener) {
+        long count = 0;
+        long start = 0;
+        long previousStart = 0;
+
+        while (true) {
+            // No attempt can go back before start anymore
+            input.discardBefore(start);
+            if (memoTable != null) {
+                memoTable.clear((int) previousStart, (int) start);
+            }
+            if (scopedMemoTable != null) {
+                scopedMemoTable.clear((int) previousStart, (int) start);
+            }
+            if (countedMemoTable != null) {
+                countedMemoTable.clear((int) previousStart, (int) start);
+            }
+            previousStart = start;
+
+            if (matcher.matchHere()) {
+                int end = matcher.matchEnd();
+                long absoluteEnd = input.toAbsolute(end);
+                listener.onMatch(start, absoluteEnd, input.range((int) start, end));
+                count++;
+
+                if (memoTable != null) {
+                    // Cells on the path of the match were not failures
+                    memoTable.clear(end, (int) input.windowEnd() + 1);
+                }
+                if (countedMemoTable != null) {
+                    countedMemoTable.clear(end, (int) input.windowEnd() + 1);
+                }
+
+                if (absoluteEnd > start) {
+                    start = absoluteEnd;
+                    continue;
+                }
+            }
+
+            if (input.atEnd()) break;
+            start++;
+        }
+
+        return count;
+    }
+}
@@ -0,0 +1,68 @@
+package pl.marcinchwedczuk.reng;
+
+public class StringInput extends Input {
+    private final String input;
+    // pos - index of the first not yet seen character
+    private int pos;
+
+    public StringInput(String s) {
+        input = s;
+        pos = 0;
+    }
+
+    @Override
+    public int currentPos() {
+        return pos;
+    }
+
+    @Override
+    public boolean atBeginning() {
+        return pos == 0;
+    }
+
+    @Override
+    public boolean atEnd() {
+        return pos == input.length();
+    }
+
+    @Override
+    public void advance(int nchars) {
+        if ((pos + nchars) > input.length())
+            throw new IllegalArgumentException("nchars: " + nchars);
+
+        pos += nchars;
+    }
+
+    @Override
+    public String range(int from, int to) {
+        assert from <= to;
+        return input.substring(from, to);
+    }
+
+    public int length() {
+        return input.length();
+    }
+
+    @Override
+    public char current() {
+        return input.charAt(pos);
+    }
+
+    @Override
+    public boolean regionMatches(int from, int length) {
+        return input.regionMatches(pos, input, from, length);
+    }
+
+    @Override
+    public boolean lookingAt(String literal) {
+        return input.startsWith(literal, pos);
+    }
+
+    @Override
+    public void restorePosition(InputPositionMarker m) {
+        if (m.pos < 0 || m.pos > input.length())
+            throw new IllegalArgumentException("marker pos: " + m.pos);
+
+        pos = m.pos;
+    }
+}
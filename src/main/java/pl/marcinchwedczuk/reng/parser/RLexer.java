@@ -31,6 +31,8 @@ public class RLexer {
                             tokens.add(new RToken(RTokenType.POS_LOOKAHEAD, '=', cPos));
                         } else if (next == '!') {
                             tokens.add(new RToken(RTokenType.NEG_LOOKAHEAD, '!', cPos));
+                        } else if (next == '>') {
+                            tokens.add(new RToken(RTokenType.ATOMIC_GROUP, '>', cPos));
                         } else {
                             throw new RParseException(cPos, "Incomplete group structure.");
                         }
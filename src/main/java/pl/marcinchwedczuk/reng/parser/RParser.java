@@ -1,5 +1,6 @@
 package pl.marcinchwedczuk.reng.parser;
 
+import pl.marcinchwedczuk.reng.CharClass;
 import pl.marcinchwedczuk.reng.RAst;
 
 import java.util.ArrayList;
@@ -7,7 +8,6 @@ import java.util.List;
 
 public class RParser {
     public static RAst parse(String s) {
-        RAst.idCounter = 0;
         List<RToken> tokens = new RLexer(s).split();
         RParser parser = new RParser(tokens);
         parser.captureGroup = 1;
@@ -151,6 +151,11 @@ public class RParser {
                 // Parse repeat range e.g. '{1,2}' or '{3}'
                 term = GrepetitionMinMax(term);
             }
+
+            // Possessive quantifier e.g. 'a*+' is the same as '(?>a*)'
+            if (consumeIfPresent(RTokenType.PLUS)) {
+                term = RAst.atomicGroup(term);
+            }
         }
 
         return term;
@@ -234,9 +239,16 @@ public class RParser {
             RAst tmp = RAst.negLookahead(Gregex());
             consume(RTokenType.RPAREN);
             return tmp;
+        } else if (lookahead(0, RTokenType.ATOMIC_GROUP)) {
+            consume(RTokenType.ATOMIC_GROUP);
+            RAst tmp = RAst.atomicGroup(Gregex());
+            consume(RTokenType.RPAREN);
+            return tmp;
         } else if (lookahead(0, RTokenType.LPAREN)) {
             consume(RTokenType.LPAREN);
-            RAst tmp = RAst.captureGroup(Gregex(), captureGroup++);
+            // Groups are numbered by their opening parenthesis
+            int group = captureGroup++;
+            RAst tmp = RAst.captureGroup(Gregex(), group);
             consume(RTokenType.RPAREN);
             return tmp;
         } else {
@@ -251,7 +263,7 @@ public class RParser {
 
         // Check if group starts with ^ e.g. [^0-9]
         boolean negated = consumeIfPresent(RTokenType.AT_BEGINNING);
-        CharList chars = new CharList();
+        CharClass.Builder chars = CharClass.builder();
 
         while (true) {
             if (lookahead(0, RTokenType.EOF)) {
@@ -261,20 +273,21 @@ public class RParser {
 
             if (lookahead(0, RTokenType.RGROUP)) {
                 consume(RTokenType.RGROUP);
-                if (chars.size() == 0) {
+                CharClass group = chars.build();
+                if (group.isEmpty()) {
                     throw new RParseException(groupStart,
                             "Empty groups are not supported, " +
                                     "use non empty group like '[abc]'.");
                 }
 
                 return negated
-                        ? RAst.invGroup(chars.toArray())
-                        : RAst.group(chars.toArray());
+                        ? RAst.invGroup(group)
+                        : RAst.group(group);
             } else if (lookahead(0, RTokenType.CHARACTER) &&
                     lookahead(1, '-') &&
                     lookahead(2, RTokenType.CHARACTER)) {
 
-                chars.addAll(GcharacterRange());
+                GcharacterRange(chars);
             } else {
                 // Consume special characters like '.' or '^'
                 RToken t = consume(currToken().type);
@@ -283,25 +296,14 @@ public class RParser {
         }
     }
 
-    private char[] GcharacterRange() {
+    private void GcharacterRange(CharClass.Builder chars) {
         // e.g. 0-9 inside [ ]
         RToken tFrom = consume(RTokenType.CHARACTER);
         consume('-');
         RToken tTo = consume(RTokenType.CHARACTER);
 
-        if (tFrom.c > tTo.c) {
-            // Empty range like 9-0
-            return new char[0];
-        }
-
-        // TODO: Intro more efficient AST type or assume ASCII input
-        char[] chars = new char[tTo.c - tFrom.c + 1];
-
-        for (int c = tFrom.c; c <= tTo.c; c++) {
-            chars[c - tFrom.c] = (char) c;
-        }
-
-        return chars;
+        // Empty range like 9-0 adds nothing
+        chars.addRange(tFrom.c, tTo.c);
     }
 
     private char Gchar() {
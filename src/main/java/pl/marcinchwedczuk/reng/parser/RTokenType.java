@@ -13,6 +13,9 @@ public enum RTokenType {
     POS_LOOKAHEAD,
     NEG_LOOKAHEAD,
 
+    // Atomic groups e.g. (?>a+)
+    ATOMIC_GROUP,
+
     // Backreferences e.g. (\d+)\1
     BACKREF,
 
@@ -0,0 +1,91 @@
+package pl.marcinchwedczuk.reng;
+
+import org.junit.Test;
+import pl.marcinchwedczuk.reng.parser.RParser;
+
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class AtomicGroupTest {
+    @Test public void atomic_group_does_not_give_back_chars() {
+        assertFalse(match("(?>a*)a", "aaa").hasMatch);
+        assertFalse(match("a++a", "aaa").hasMatch);
+        assertEquals("aaab", match("a*+b", "aaab").matched());
+
+        // First matching branch wins, ab is never tried
+        assertFalse(match("^(?>a|ab)c", "abc").hasMatch);
+        assertEquals("ac", match("(?>a|ab)c", "xac").matched());
+    }
+
+    @Test public void groups_inside_atomic_group_are_kept() {
+        Match m = match("(?>(a+)|b)c", "aac");
+        assertEquals("aa", m.group(1));
+
+        // Group is unset again when the match continues elsewhere
+        m = match("(?>(a))x|ab", "ab");
+        assertEquals("ab", m.matched());
+        assertNull(m.group(1));
+    }
+
+    @Test public void engines_agree_with_java_regex() {
+        String[] patterns = {
+                "(?>a|ab)(c|bcd)", "(a|ab)*+c", "(?>(a*))(a|b)", "a?+ab", "(ab|a)++b|c",
+                "((?>a*)b)+c", "(?>a{1,2})(a{1,2})+", "(?=(?>a+))ab", "(?>(a|b)*)\\1"
+        };
+        Random random = new Random(24);
+
+        for (String pattern : patterns) {
+            Pattern expected = Pattern.compile(pattern);
+            RAst ast = RParser.parse(pattern);
+
+            for (MatchEngine engine : MatchEngine.values()) {
+                if (engine == MatchEngine.PIKE_VM) continue;
+
+                for (MemoisationPolicy policy : MemoisationPolicy.values()) {
+                    CompiledRegex regex = CompiledRegex.compile(ast, policy, MemoisationEncodingScheme.BIT_MAP, engine);
+
+                    for (int i = 0; i < 100; i++) {
+                        String input = StackBacktrackingMatcherTest.randomInput(random);
+                        java.util.regex.Matcher m = expected.matcher(input);
+                        Match actual = regex.match(input);
+
+                        String msg = pattern + " " + engine + " " + policy + " on " + input;
+                        assertEquals(msg, m.find(), actual.hasMatch);
+                        if (actual.hasMatch) {
+                            assertEquals(msg, m.start(), actual.start);
+                            assertEquals(msg, m.end(), actual.end);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test public void possessive_repetition_cuts_catastrophic_backtracking() {
+        assumeTrue(MatchStatistics.ENABLED);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 200; i++) sb.append('a');
+
+        MatchStatistics stats = new MatchStatistics();
+        CompiledRegex regex = CompiledRegex.compile(RParser.parse("(a|a)*+b"),
+                MemoisationPolicy.NONE, MemoisationEncodingScheme.BIT_MAP);
+
+        assertFalse(regex.matchWithBacktracking(sb.toString(), stats).hasMatch);
+        assertTrue(stats.nodeVisits() < 20L * sb.length() * sb.length());
+    }
+
+    @Test public void planner_uses_backtracking() {
+        CompiledRegex regex = CompiledRegex.compile(RParser.parse("(?>a+)b"));
+        assertEquals(MatchEngine.STACK_BACKTRACKING, regex.engine());
+        assertNull(regex.dfa());
+        assertEquals("aab", regex.match("xaab").matched());
+    }
+
+    private static Match match(String pattern, String input) {
+        return CompiledRegex.compile(RParser.parse(pattern),
+                MemoisationPolicy.ALL, MemoisationEncodingScheme.BIT_MAP).match(input);
+    }
+}
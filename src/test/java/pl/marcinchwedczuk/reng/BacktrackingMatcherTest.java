@@ -1,20 +1,36 @@
 package pl.marcinchwedczuk.reng;
 
 import org.junit.Assert;
-import org.junit.Before;
 import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
 
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+@RunWith(Parameterized.class)
 public class BacktrackingMatcherTest {
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> engines() {
+        List<Object[]> engines = new ArrayList<>();
+        for (MatchEngine engine : MatchEngine.values()) {
+            engines.add(new Object[] { engine });
+        }
+        return engines;
+    }
+
+    private final MatchEngine engine;
 
-    @Before
-    public void setup() {
-        RAst.idCounter = 0;
+    public BacktrackingMatcherTest(MatchEngine engine) {
+        this.engine = engine;
     }
 
+
     @Test
     public void matches_group() {
         RAst rAbc = RAst.group('a', 'b', 'c');
@@ -232,21 +248,27 @@ public class BacktrackingMatcherTest {
         String input = "aaaaab";
         RAst r = RAst.repeat(RAst.group('a'), 1, 5);
 
-        Match m = BacktrackingMatcher.match(input, r);
+        Match m = match(input, r);
 
         Assert.assertEquals("aaaaa", m.matched());
     }
 
-    private static void assertMatches(String input, RAst regex) {
-        Match m = BacktrackingMatcher.match(input, regex);
+    private Match match(String input, RAst regex) {
+        return CompiledRegex
+                .compile(regex, MemoisationPolicy.ALL, MemoisationEncodingScheme.BIT_MAP, engine)
+                .match(input);
+    }
+
+    private void assertMatches(String input, RAst regex) {
+        Match m = match(input, regex);
 
         assertTrue(
             "Regex " + regex + " should match '" + input + "'.",
             m.hasMatch);
     }
 
-    private static void assertNotMatches(String input, RAst regex) {
-        Match m = BacktrackingMatcher.match(input, regex);
+    private void assertNotMatches(String input, RAst regex) {
+        Match m = match(input, regex);
 
         assertFalse(
                 "Regex " + regex + " should NOT match '" + input + "'.",
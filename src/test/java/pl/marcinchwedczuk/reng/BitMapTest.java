@@ -0,0 +1,56 @@
+package pl.marcinchwedczuk.reng;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BitMapTest {
+    @Test public void marks_are_remembered_per_node_and_position() {
+        BitMap bitMap = new BitMap(2, 130);
+        RAst node0 = node(0), node1 = node(1);
+
+        bitMap.mark(node0, 0);
+        bitMap.mark(node0, 63);
+        bitMap.mark(node0, 64);
+        bitMap.mark(node1, 129);
+
+        assertTrue(bitMap.get(node0, 0));
+        assertTrue(bitMap.get(node0, 63));
+        assertTrue(bitMap.get(node0, 64));
+        assertFalse(bitMap.get(node0, 1));
+        assertFalse(bitMap.get(node0, 129));
+        assertTrue(bitMap.get(node1, 129));
+        assertFalse(bitMap.get(node1, 0));
+    }
+
+    @Test public void positions_out_of_range_are_never_marked() {
+        BitMap bitMap = new BitMap(1, 10);
+        RAst node = node(0);
+
+        bitMap.mark(node, 10);
+        bitMap.mark(node, -1);
+
+        assertFalse(bitMap.get(node, 10));
+        assertFalse(bitMap.get(node, -1));
+        assertFalse(bitMap.get(node, 1000));
+    }
+
+    @Test public void rows_are_allocated_on_first_mark() {
+        int numOfChars = 1_000_001;
+        BitMap bitMap = new BitMap(200, numOfChars);
+        assertTrue(bitMap.sizeInBytes() < 1024);
+
+        for (int row = 0; row < 200; row++) {
+            bitMap.mark(node(row), row);
+        }
+
+        // 200 nodes on 1MB of input fit in 25MB
+        assertTrue(bitMap.sizeInBytes() <= 25_100_000);
+    }
+
+    private static RAst node(int row) {
+        RAst node = RAst.group('a');
+        node.setIndexInBitMap(row);
+        return node;
+    }
+}
@@ -0,0 +1,129 @@
+package pl.marcinchwedczuk.reng;
+
+import org.junit.Test;
+import pl.marcinchwedczuk.reng.parser.RParser;
+
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class CaptureGroupsTest {
+    @Test public void exposes_group_spans() {
+        Match m = compile("(a|ab)(c|bcd)(d*)", MatchEngine.BACKTRACKING).match("xabcd");
+
+        assertEquals(3, m.groupCount());
+        assertEquals("abcd", m.group(0));
+        assertEquals("a", m.group(1));
+        assertEquals(2, m.start(2));
+        assertEquals(5, m.end(2));
+        assertEquals("bcd", m.group(2));
+        assertEquals("", m.group(3));
+    }
+
+    @Test public void groups_outside_of_the_match_are_unset() {
+        Match m = compile("(a)|(b)", MatchEngine.BACKTRACKING).match("b");
+
+        assertNull(m.group(1));
+        assertEquals(Match.UNSET, m.start(1));
+        assertEquals("b", m.group(2));
+    }
+
+    @Test public void backtracking_restores_previous_spans() {
+        Match m = compile("((a)|b)+", MatchEngine.BACKTRACKING).match("ab");
+        assertEquals("b", m.group(1));
+        assertEquals("a", m.group(2));
+
+        m = compile("(a*)(a)c|(x)", MatchEngine.BACKTRACKING).match("aaa");
+        assertFalse(m.hasMatch);
+    }
+
+    @Test public void backreferences_compare_in_place() {
+        Match m = compile("(a+)b\\1", MatchEngine.BACKTRACKING).match("aaabaa");
+        assertEquals(1, m.start);
+        assertEquals(6, m.end);
+
+        // \1 consumed a char before x failed, the next branch starts where \1 did
+        m = compile("(a)(\\1x|a)", MatchEngine.BACKTRACKING).match("aaa");
+        assertEquals(2, m.end);
+
+        // Group 1 did not participate in the match
+        assertFalse(compile("(a)|b\\1", MatchEngine.BACKTRACKING).match("b").hasMatch);
+    }
+
+    @Test public void stack_engine_restores_spans_on_backtracking() {
+        Match m = compile("(a)\\1", MatchEngine.STACK_BACKTRACKING).match("aa");
+        assertEquals("a", m.group(1));
+
+        // Spans set by CLOSE are restored when the branch that set them fails
+        assertFalse(compile("([^a])+\\1", MatchEngine.STACK_BACKTRACKING).match("dc").hasMatch);
+        assertFalse(compile("((.){1,1})+a\\1", MatchEngine.STACK_BACKTRACKING).match("bdcaabaa").hasMatch);
+
+        m = compile("(b|c)+c\\1", MatchEngine.STACK_BACKTRACKING).match("bcbc");
+        assertEquals(0, m.start);
+        assertEquals(3, m.end);
+        assertEquals("b", m.group(1));
+
+        // and also when the atomic group that set them is backtracked over,
+        // like in BACKTRACKING (java.util.regex keeps a there)
+        for (MatchEngine engine : new MatchEngine[] { MatchEngine.BACKTRACKING, MatchEngine.STACK_BACKTRACKING }) {
+            assertFalse(engine.toString(), compile("((?>(a))x|ab)\\2", engine).match("aba").hasMatch);
+        }
+    }
+
+    @Test public void matcher_exposes_groups_of_every_match() {
+        Matcher m = compile("([a-z]+)=([0-9]+)", MatchEngine.BACKTRACKING).matcher("a=1, bc=23");
+
+        assertTrue(m.find());
+        assertEquals("a", m.toMatch().group(1));
+        assertTrue(m.find());
+        assertEquals("23", m.toMatch().group(2));
+    }
+
+    @Test public void engines_agree_with_java_regex() {
+        assertEnginesAgree(new String[] {
+                "(a|ab)(c|bcd)(d*)", "(a*)(b|abc)", "((a)|b)*c", "(a|b)*(b)", "(a(b)?)+",
+                "(a)(b)?c|(a)(b)d", "((ab)|a)(bc|c)", "([ab]*)(a)"
+        }, MatchEngine.BACKTRACKING, MatchEngine.STACK_BACKTRACKING, MatchEngine.PIKE_VM);
+    }
+
+    @Test public void backtracking_engines_agree_with_java_regex_on_backreferences() {
+        assertEnginesAgree(new String[] {
+                "([^a])+\\1", "(b|c)+c\\1", "(.)+a\\1", "(a|b)*(?>(b))c\\2",
+                "(a|b)(?=(c))\\2"
+        }, MatchEngine.BACKTRACKING, MatchEngine.STACK_BACKTRACKING);
+    }
+
+    private static void assertEnginesAgree(String[] patterns, MatchEngine... engines) {
+        Random random = new Random(2020);
+
+        for (String pattern : patterns) {
+            Pattern expected = Pattern.compile(pattern);
+            for (MatchEngine engine : engines) {
+                CompiledRegex regex = compile(pattern, engine);
+
+                for (int i = 0; i < 100; i++) {
+                    String input = StackBacktrackingMatcherTest.randomInput(random);
+                    assertSameGroups(pattern + " " + engine + " on " + input,
+                            expected.matcher(input), regex.match(input));
+                }
+            }
+        }
+    }
+
+    private static void assertSameGroups(String msg, java.util.regex.Matcher expected, Match actual) {
+        assertEquals(msg, expected.find(), actual.hasMatch);
+        if (!actual.hasMatch) return;
+
+        assertEquals(msg, expected.groupCount(), actual.groupCount());
+        for (int g = 0; g <= expected.groupCount(); g++) {
+            assertEquals(msg + " group " + g, expected.start(g), actual.start(g));
+            assertEquals(msg + " group " + g, expected.group(g), actual.group(g));
+        }
+    }
+
+    private static CompiledRegex compile(String pattern, MatchEngine engine) {
+        return CompiledRegex.compile(RParser.parse(pattern),
+                MemoisationPolicy.NONE, MemoisationEncodingScheme.BIT_MAP, engine);
+    }
+}
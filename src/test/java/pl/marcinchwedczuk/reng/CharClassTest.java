@@ -0,0 +1,78 @@
+package pl.marcinchwedczuk.reng;
+
+import org.junit.Test;
+import pl.marcinchwedczuk.reng.parser.RParser;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class CharClassTest {
+    @Test public void merges_overlapping_and_adjacent_ranges() {
+        CharClass cc = CharClass.builder()
+                .addRange('m', 'z')
+                .addRange('a', 'f')
+                .addRange('g', 'k')
+                .addRange('x', 'x')
+                .add('0')
+                .build();
+
+        assertEquals(3, cc.numOfRanges());
+        assertEquals('0', cc.rangeStart(0));
+        assertEquals('0', cc.rangeEnd(0));
+        assertEquals('a', cc.rangeStart(1));
+        assertEquals('k', cc.rangeEnd(1));
+        assertEquals('m', cc.rangeStart(2));
+        assertEquals('z', cc.rangeEnd(2));
+        assertEquals(1 + 11 + 14, cc.size());
+        assertFalse(cc.contains('l'));
+        assertTrue(cc.contains('m'));
+    }
+
+    @Test public void gives_same_answers_as_a_set() {
+        Random random = new Random(99);
+
+        for (int i = 0; i < 200; i++) {
+            CharClass.Builder builder = CharClass.builder();
+            Set<Character> expected = new HashSet<>();
+
+            for (int r = random.nextInt(6); r > 0; r--) {
+                // Ranges around Latin-1 boundary and in the rest of BMP
+                char from = (char) (random.nextBoolean() ? random.nextInt(300) : random.nextInt(65536));
+                char to = (char) Math.min(65535, from + random.nextInt(40) - 5);
+                builder.addRange(from, to);
+                for (int c = from; c <= to; c++) expected.add((char) c);
+            }
+
+            CharClass cc = builder.build();
+            assertEquals(expected.size(), cc.size());
+            for (int c = 0; c <= 65535; c++) {
+                assertEquals(expected.contains((char) c), cc.contains((char) c));
+            }
+        }
+    }
+
+    @Test public void wide_classes_are_small() {
+        CharClass bmp = CharClass.range('\u0000', '￿');
+
+        assertEquals(65536, bmp.size());
+        assertTrue(bmp.contains('￿'));
+        assertTrue(bmp.sizeInBytes() < 128);
+    }
+
+    @Test public void parser_keeps_ranges() {
+        RAst group = RParser.parse("[a-z0-9_]");
+
+        assertEquals(3, group.chars.numOfRanges());
+        assertEquals(26 + 10 + 1, group.chars.size());
+        assertEquals("[0123456789_a-z]", group.toString());
+    }
+
+    @Test public void equal_classes_are_equal() {
+        assertEquals(CharClass.of('c', 'b', 'a'), CharClass.range('a', 'c'));
+        assertEquals(CharClass.of('c', 'b', 'a').hashCode(), CharClass.range('a', 'c').hashCode());
+        assertNotEquals(CharClass.of('a'), CharClass.EMPTY);
+    }
+}
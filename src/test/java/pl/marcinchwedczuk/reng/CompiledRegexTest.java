@@ -0,0 +1,76 @@
+package pl.marcinchwedczuk.reng;
+
+import org.junit.Test;
+import pl.marcinchwedczuk.reng.parser.RParser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class CompiledRegexTest {
+    @Test public void compiled_regex_does_not_modify_source_ast() {
+        RAst ast = RParser.parse("(a|b)*c");
+        String before = ast.toString();
+
+        CompiledRegex compiled = CompiledRegex.compile(ast,
+                MemoisationPolicy.IN_DEGREE_GREATER_THAN_1,
+                MemoisationEncodingScheme.BIT_MAP);
+
+        assertEquals(before, ast.toString());
+        assertEquals(RAst.NO_ID, ast.id);
+        assertEquals(before, compiled.toString());
+    }
+
+    @Test public void compiled_regex_can_be_reused() {
+        CompiledRegex compiled = CompiledRegex.compile(RParser.parse("(foo|bar)+"));
+
+        assertEquals("foo", compiled.match("xfoo").matched());
+        assertEquals("barfoo", compiled.match("barfoox").matched());
+        assertEquals("bar", compiled.match("fobar").matched());
+        assertFalse(compiled.match("xyz").hasMatch);
+    }
+
+    @Test public void compiled_regex_can_be_shared_between_threads() throws Exception {
+        CompiledRegex compiled = CompiledRegex.compile(
+                RParser.parse("^((19|20)[0-9]{2})-(0[1-9]|1[012])-(0[1-9]|[12][0-9]|3[01])$"));
+
+        String[] inputs = {
+                "2000-01-01", "1992-11-31", "2012-12-24",
+                "1800-03-01", "2000-23-01", "2000/03/02", "20000302"
+        };
+        boolean[] expected = { true, true, true, false, false, false, false };
+
+        int threads = 8;
+        int iterations = 2000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CyclicBarrier start = new CyclicBarrier(threads);
+
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int offset = t;
+                results.add(executor.submit(() -> {
+                    start.await();
+
+                    int failures = 0;
+                    for (int i = 0; i < iterations; i++) {
+                        int k = (i + offset) % inputs.length;
+                        Match m = compiled.match(inputs[k]);
+                        if (m.hasMatch != expected[k]) failures++;
+                        if (m.hasMatch && !m.matched().equals(inputs[k])) failures++;
+                    }
+                    return failures;
+                }));
+            }
+
+            for (Future<Integer> result : results) {
+                assertEquals(Integer.valueOf(0), result.get(30, TimeUnit.SECONDS));
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+}
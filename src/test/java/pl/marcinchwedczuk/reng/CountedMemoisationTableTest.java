@@ -0,0 +1,76 @@
+package pl.marcinchwedczuk.reng;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class CountedMemoisationTableTest {
+    @Test public void marks_are_remembered_per_count() {
+        CountedMemoisationTable table = new CountedMemoisationTable();
+        RAst node0 = node(0), node1 = node(1);
+
+        table.mark(node0, 5, 2);
+        table.mark(node0, 5, 7);
+        table.mark(node1, 5, 0);
+
+        assertTrue(table.get(node0, 5, 2));
+        assertTrue(table.get(node0, 5, 7));
+        assertFalse(table.get(node0, 5, 0));
+        assertFalse(table.get(node0, 4, 2));
+        assertTrue(table.get(node1, 5, 0));
+        assertEquals(2, table.size());
+    }
+
+    @Test public void behaves_like_a_set_of_cells_after_resizing() {
+        Random random = new Random(25);
+        CountedMemoisationTable table = new CountedMemoisationTable();
+        Set<String> expected = new HashSet<>();
+
+        for (int i = 0; i < 20_000; i++) {
+            int row = random.nextInt(5), pos = random.nextInt(1000), count = random.nextInt(100);
+            table.mark(node(row), pos, count);
+            expected.add(row + " " + pos + " " + count);
+        }
+
+        for (int i = 0; i < 20_000; i++) {
+            int row = random.nextInt(5), pos = random.nextInt(1000), count = random.nextInt(100);
+            assertEquals(expected.contains(row + " " + pos + " " + count),
+                    table.get(node(row), pos, count));
+        }
+    }
+
+    @Test public void clear_removes_all_counts_in_columns() {
+        CountedMemoisationTable table = new CountedMemoisationTable();
+        for (int pos = 0; pos < 100; pos++) {
+            for (int count = 0; count < 10; count++) {
+                table.mark(node(0), pos, count);
+            }
+        }
+
+        table.clear(20, 50);
+
+        assertEquals(70, table.size());
+        assertTrue(table.get(node(0), 19, 9));
+        assertFalse(table.get(node(0), 20, 0));
+        assertFalse(table.get(node(0), 49, 5));
+        assertTrue(table.get(node(0), 50, 3));
+    }
+
+    @Test public void memory_grows_with_counts_reached_not_with_bounds() {
+        CountedMemoisationTable table = new CountedMemoisationTable();
+        long empty = table.sizeInBytes();
+
+        table.mark(node(0), 0, 1_000_000);
+        assertTrue(table.sizeInBytes() - empty < 100);
+    }
+
+    private static RAst node(int row) {
+        RAst node = RAst.group('a');
+        node.setIndexInBitMap(row);
+        return node;
+    }
+}
@@ -0,0 +1,109 @@
+package pl.marcinchwedczuk.reng;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class FileSearchTest {
+    private static final String NL = System.lineSeparator();
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+    @Test public void prints_matching_lines_in_order() throws IOException {
+        StringBuilder content = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            String line = (i % 7 == 0) ? "ERROR " + i : "INFO " + i;
+            content.append(line).append('\n');
+            if (i % 7 == 0) expected.append(line).append(NL);
+        }
+        File file = write("log.txt", content.toString());
+
+        // Chunks much smaller than the file, boundaries fall inside lines
+        assertEquals(0, run(13, "ERROR [0-9]+", file.getPath()));
+        assertEquals(expected.toString(), output());
+    }
+
+    @Test public void counts_matching_lines_per_file() throws IOException {
+        File a = write("a.txt", "foo\nbar\nfoo bar\n");
+        File b = write("b.txt", "baz");
+
+        assertEquals(0, run(4, "-c", "foo", a.getPath(), b.getPath()));
+        assertEquals(a.getPath() + ":2" + NL + b.getPath() + ":0" + NL, output());
+    }
+
+    @Test public void handles_last_line_without_line_break_and_empty_lines() throws IOException {
+        File file = write("f.txt", "x\n\nżółw\n\nend");
+
+        assertEquals(0, run(2, "^$|ół|end", file.getPath()));
+        assertEquals(NL + "żółw" + NL + NL + "end" + NL, output());
+    }
+
+    @Test public void handles_lines_longer_than_many_chunks() throws IOException {
+        StringBuilder longLine = new StringBuilder("start");
+        for (int i = 0; i < 1000; i++) longLine.append(i % 10);
+        longLine.append("end");
+        File file = write("f.txt", "a\n" + longLine + "\nb\n" + longLine);
+
+        // More chunks than fit in flight, most of them inside the long lines
+        assertEquals(0, run(7, "^start[0-9]*end$|^b$", file.getPath()));
+        assertEquals(longLine + NL + "b" + NL + longLine + NL, output());
+
+        out.reset();
+        assertEquals(0, run(7, "-c", "^start[0-9]*end$|^a$|^b$", file.getPath()));
+        assertEquals("4" + NL, output());
+    }
+
+    @Test public void returns_one_when_nothing_matched() throws IOException {
+        File file = write("f.txt", "abc\n");
+        assertEquals(1, run(FileSearch.DEFAULT_CHUNK_SIZE, "x", file.getPath()));
+        assertEquals("", output());
+    }
+
+    @Test public void reports_throughput() throws IOException {
+        File file = write("f.txt", "abc\ndef\n");
+        run(FileSearch.DEFAULT_CHUNK_SIZE, "-s", "-c", "a", file.getPath());
+
+        String stats = new String(err.toByteArray(), StandardCharsets.UTF_8);
+        assertTrue(stats, stats.startsWith("8 bytes, 2 lines in "));
+        assertTrue(stats, stats.contains("MB/s") && stats.contains("lines/s"));
+    }
+
+    @Test public void reports_errors() {
+        assertEquals(2, run(4, "(a", "f.txt"));
+        assertEquals(2, run(4, "a", new File(folder.getRoot(), "missing.txt").getPath()));
+        assertEquals(2, run(4, "a"));
+    }
+
+    private int run(int chunkSize, String... args) {
+        try {
+            return FileSearch.run(args,
+                    new PrintStream(out, true, "UTF-8"), new PrintStream(err, true, "UTF-8"), chunkSize);
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private String output() {
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private File write(String name, String content) throws IOException {
+        File file = folder.newFile(name);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
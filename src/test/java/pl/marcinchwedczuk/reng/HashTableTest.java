@@ -0,0 +1,50 @@
+package pl.marcinchwedczuk.reng;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class HashTableTest {
+    @Test public void marks_are_remembered_per_node_and_position() {
+        HashTable table = new HashTable(2, 100);
+        RAst node0 = node(0), node1 = node(1);
+
+        table.mark(node0, 5);
+        table.mark(node1, 0);
+
+        assertTrue(table.get(node0, 5));
+        assertTrue(table.get(node1, 0));
+        assertFalse(table.get(node0, 0));
+        assertFalse(table.get(node1, 5));
+    }
+
+    @Test public void behaves_like_a_set_of_cells_after_resizing() {
+        Random random = new Random(42);
+        HashTable table = new HashTable(50, 100_000);
+        Set<Long> expected = new HashSet<>();
+
+        for (int i = 0; i < 20_000; i++) {
+            int row = random.nextInt(50);
+            int pos = random.nextInt(100_000);
+            table.mark(node(row), pos);
+            expected.add(((long) row << 32) | pos);
+        }
+
+        assertEquals(expected.size(), table.size());
+        for (int i = 0; i < 20_000; i++) {
+            int row = random.nextInt(50);
+            int pos = random.nextInt(100_000);
+            assertEquals(expected.contains(((long) row << 32) | pos), table.get(node(row), pos));
+        }
+    }
+
+    private static RAst node(int row) {
+        RAst node = RAst.group('a');
+        node.setIndexInBitMap(row);
+        return node;
+    }
+}
@@ -0,0 +1,151 @@
+package pl.marcinchwedczuk.reng;
+
+import org.junit.Test;
+import pl.marcinchwedczuk.reng.parser.RParser;
+
+import java.lang.ref.WeakReference;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LazyDfaTest {
+    @Test public void gives_same_results_as_pike_vm() {
+        String[] regexes = {
+                "(a|b)*c", "^(a|ab)(c|bcd)(d*)$", "(a*)*b", "^$", "$", "^", "a$|^b",
+                "^[-+]?(([0-9]+(\\.[0-9]*)?)|(\\.[0-9]+))([Ee]-?[0-9]+)?$",
+                "a{2,3}", "[^a]b", "a{3,1}", "^.*$", "x*$"
+        };
+        String[] inputs = {
+                "", "c", "abac", "abcd", "aaab", "b", "-1.5e10", ".5", "aaaa", "ba",
+                "zb", "ąb", "x"
+        };
+
+        for (String regex : regexes) {
+            for (String input : inputs) {
+                assertSameResults(RParser.parse(regex), input);
+            }
+        }
+    }
+
+    @Test public void gives_same_results_as_pike_vm_on_random_regexes() {
+        Random random = new Random(1234);
+
+        for (int i = 0; i < 1000; i++) {
+            RAst regex = StackBacktrackingMatcherTest.randomRegex(random, 4);
+            if (PikeProgram.unsupportedReason(regex) != null) continue;
+
+            for (int j = 0; j < 10; j++) {
+                assertSameResults(regex, StackBacktrackingMatcherTest.randomInput(random));
+            }
+        }
+    }
+
+    @Test public void reuses_cached_states() {
+        CompiledRegex regex = compile("[0-9]+ ERROR");
+        LazyDfa dfa = regex.dfa();
+
+        assertTrue(regex.hasMatch("2020 ERROR disk full"));
+        long misses = dfa.cacheMisses();
+
+        assertTrue(regex.hasMatch("2021 ERROR disk full"));
+        assertFalse(regex.hasMatch("2021 INFO all good"));
+
+        assertTrue(dfa.cacheHits() > 0);
+        assertEquals(0, dfa.cacheClears());
+        assertTrue(dfa.statesCreated() <= dfa.cachedStates());
+        // Only the INFO line needed new transitions
+        assertTrue(dfa.cacheMisses() - misses <= "INFO all good".length());
+    }
+
+    @Test public void clears_full_cache_and_still_matches() {
+        CompiledRegex compiled = compile("(a|b)*a(a|b)(a|b)(a|b)(a|b)");
+        LazyDfa dfa = LazyDfa.compile(compiled, 4);
+
+        Random random = new Random(1);
+        for (int i = 0; i < 100; i++) {
+            StringBuilder sb = new StringBuilder();
+            for (int j = 0; j < 20; j++) sb.append(random.nextBoolean() ? 'a' : 'b');
+            String input = sb.toString();
+
+            assertEquals(input, compiled.match(input).hasMatch, dfa.hasMatch(input));
+            assertTrue(dfa.cachedStates() <= dfa.maxStates());
+        }
+
+        assertTrue(dfa.cacheClears() > 0);
+    }
+
+    @Test public void reading_counters_does_not_create_a_cache() throws InterruptedException {
+        CompiledRegex regex = compile("[0-9]+ ERROR");
+        assertTrue(regex.hasMatch("2020 ERROR disk full"));
+        assertTrue(regex.dfa().cachedStates() > 0);
+
+        int[] states = { -1 };
+        Thread other = new Thread(() -> states[0] = regex.dfa().cachedStates());
+        other.start();
+        other.join();
+
+        assertEquals(0, states[0]);
+    }
+
+    @Test public void unused_dfa_is_collected_with_its_cached_states() throws InterruptedException {
+        WeakReference<LazyDfa> ref = usedDfa();
+
+        for (int i = 0; i < 50 && ref.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        // The thread that used it is still alive, its cache must not keep it
+        assertNull(ref.get());
+    }
+
+    private static WeakReference<LazyDfa> usedDfa() {
+        LazyDfa dfa = compile("[0-9]+ ERROR").dfa();
+        assertTrue(dfa.hasMatch("2020 ERROR disk full"));
+        return new WeakReference<>(dfa);
+    }
+
+    @Test public void falls_back_to_backtracking_for_backreferences_and_lookaheads() {
+        CompiledRegex backref = compile("(a+)b\\1");
+        assertNull(backref.dfa());
+        assertTrue(backref.hasMatch("xaabaa"));
+        assertEquals(1, backref.match("xaabaa").start);
+
+        CompiledRegex lookahead = compile("a(?!b)");
+        assertNull(lookahead.dfa());
+        assertFalse(lookahead.hasMatch("abab"));
+        assertTrue(lookahead.hasMatch("abac"));
+    }
+
+    @Test public void groups_chars_into_classes() {
+        // digits, space, E, R, O and everything else
+        assertEquals(6, compile("[0-9]+ ERROR").dfa().numOfCharClasses());
+    }
+
+    @Test public void runs_in_linear_time_on_catastrophic_patterns() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100_000; i++) sb.append('a');
+
+        assertFalse(compile("(a|a)*b").hasMatch(sb.toString()));
+        assertFalse(compile("(a*)*b").hasMatch(sb.toString()));
+    }
+
+    private static void assertSameResults(RAst regex, String input) {
+        Match expected = CompiledRegex.compile(regex, MemoisationPolicy.NONE,
+                MemoisationEncodingScheme.BIT_MAP, MatchEngine.PIKE_VM).match(input);
+        CompiledRegex dfa = CompiledRegex.compile(regex, MemoisationPolicy.NONE,
+                MemoisationEncodingScheme.BIT_MAP, MatchEngine.LAZY_DFA);
+
+        String msg = regex + " on '" + input + "'";
+        assertEquals(msg, expected.hasMatch, dfa.hasMatch(input));
+
+        Match actual = dfa.match(input);
+        assertEquals(msg, expected.hasMatch, actual.hasMatch);
+        assertEquals(msg, expected.start, actual.start);
+        assertEquals(msg, expected.end, actual.end);
+    }
+
+    private static CompiledRegex compile(String regex) {
+        return CompiledRegex.compile(RParser.parse(regex), MemoisationPolicy.NONE,
+                MemoisationEncodingScheme.BIT_MAP, MatchEngine.LAZY_DFA);
+    }
+}
@@ -0,0 +1,99 @@
+package pl.marcinchwedczuk.reng;
+
+import org.junit.Test;
+import pl.marcinchwedczuk.reng.parser.RParser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class LiteralTrieTest {
+    @Test public void finds_literals_in_priority_order() {
+        LiteralTrie trie = LiteralTrie.of(Arrays.asList("abc", "a", "ab", "b", "a"));
+
+        // Second "a" is dropped
+        assertEquals(Arrays.asList("abc", "a", "ab", "b"), trie.literals());
+        assertEquals(3, trie.maxMatches());
+
+        int[] found = new int[trie.maxMatches()];
+        assertEquals(3, trie.find("xabcd", 1, found));
+        assertArrayEquals(new int[] { 0, 1, 2 }, found);
+        assertEquals(2, trie.find(Input.of("abx"), found));
+        assertArrayEquals(new int[] { 1, 2 }, Arrays.copyOf(found, 2));
+        assertEquals(0, trie.find("xyz", 0, found));
+        assertEquals(5, trie.numOfNodes());
+    }
+
+    @Test public void optimizer_turns_large_literal_alternatives_into_trie() {
+        RAst ast = RAstOptimizer.optimize(RParser.parse("(error|warning|fatal|info|debug|trace|notice|alert)!"));
+        assertEquals(RAstType.TRIE, ast.exprs.get(0).headExpr().type);
+
+        // Not all branches are literals
+        ast = RAstOptimizer.optimize(RParser.parse("a1|a2|a3|a4|a5|a6|a7|a[89]"));
+        assertEquals(RAstType.ALTERNATIVE, ast.type);
+    }
+
+    @Test public void engines_agree_with_java_regex() {
+        String[] patterns = {
+                "(a|ab|abc|b|bc|c|ca|cab)c", "(abc|ab|a|b|bc|c|ca|cab)(c|d)", "x(a|aa|ab|ba|bb|b|aaa|bbb)+y|a",
+                "(dd|d|c|cc|cd|dc|b|bb)*d"
+        };
+        Random random = new Random(23);
+
+        for (String pattern : patterns) {
+            Pattern expected = Pattern.compile(pattern);
+            RAst ast = RParser.parse(pattern);
+
+            for (MatchEngine engine : MatchEngine.values()) {
+                CompiledRegex regex = CompiledRegex.compile(ast,
+                        MatchPlanner.plan(ast, ResultType.CAPTURES).withEngine(engine));
+
+                for (int i = 0; i < 200; i++) {
+                    String input = StackBacktrackingMatcherTest.randomInput(random);
+                    java.util.regex.Matcher m = expected.matcher(input);
+                    Match actual = regex.match(input);
+
+                    String msg = pattern + " " + engine + " on " + input;
+                    assertEquals(msg, m.find(), actual.hasMatch);
+                    if (actual.hasMatch) {
+                        assertEquals(msg, m.start(), actual.start);
+                        assertEquals(msg, m.end(), actual.end);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test public void cost_does_not_grow_with_dictionary_size() {
+        assumeTrue(MatchStatistics.ENABLED);
+        Random random = new Random(2023);
+        List<String> keywords = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) keywords.add(randomWord(random));
+
+        CompiledRegex regex = CompiledRegex.compile(
+                RParser.parse("(" + String.join("|", keywords) + ")!"));
+
+        StringBuilder input = new StringBuilder();
+        while (input.length() < 10_000) input.append(randomWord(random)).append(' ');
+        input.append(keywords.get(1500)).append('!');
+
+        MatchStatistics stats = new MatchStatistics();
+        Match m = regex.matchWithBacktracking(input.toString(), stats);
+
+        assertEquals(keywords.get(1500) + "!", m.matched());
+        // Branch by branch it would be thousands of visits at every position
+        assertTrue(stats.nodeVisits() < 10L * input.length());
+    }
+
+    private static String randomWord(Random random) {
+        StringBuilder sb = new StringBuilder();
+        int length = 3 + random.nextInt(6);
+        for (int i = 0; i < length; i++) sb.append((char) ('a' + random.nextInt(26)));
+        return sb.toString();
+    }
+}
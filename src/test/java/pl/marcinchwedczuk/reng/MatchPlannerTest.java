@@ -0,0 +1,151 @@
+package pl.marcinchwedczuk.reng;
+
+import org.junit.Test;
+import pl.marcinchwedczuk.reng.parser.RParser;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class MatchPlannerTest {
+    @Test public void uses_dfa_when_no_groups_are_needed() {
+        assertEquals(MatchEngine.LAZY_DFA, plan("(foo|bar)+baz", ResultType.BOOLEAN).engine());
+        assertEquals(MatchEngine.LAZY_DFA, plan("(foo|bar)+baz", ResultType.SPAN).engine());
+        assertEquals(MatchEngine.LAZY_DFA, plan("[a-z]+", ResultType.CAPTURES).engine());
+    }
+
+    @Test public void uses_pike_vm_for_captures() {
+        MatchPlan plan = plan("(foo|bar)+baz", ResultType.CAPTURES);
+
+        assertEquals(MatchEngine.PIKE_VM, plan.engine());
+        assertEquals(1, plan.numOfCaptureGroups());
+    }
+
+    @Test public void uses_memoised_backtracking_when_automata_cannot_be_used() {
+        MatchPlan backref = plan("(a+)b\\1", ResultType.BOOLEAN);
+        assertEquals(MatchEngine.STACK_BACKTRACKING, backref.engine());
+        assertTrue(backref.hasBackreferences());
+        assertEquals(MatchPlanner.BACKTRACKING_POLICY, backref.memoisationPolicy());
+        assertEquals(MatchPlanner.BACKTRACKING_SCHEME, backref.memoisationEncodingScheme());
+
+        MatchPlan lookahead = plan("a(?!b)", ResultType.SPAN);
+        assertEquals(MatchEngine.STACK_BACKTRACKING, lookahead.engine());
+        assertTrue(lookahead.hasLookaheads());
+
+        MatchPlan huge = plan("[a-z]{1000000}", ResultType.BOOLEAN);
+        assertEquals(MatchEngine.STACK_BACKTRACKING, huge.engine());
+        assertEquals(1_000_000, huge.largestBoundedRepeat());
+    }
+
+    @Test public void planned_backtracking_is_correct_for_backreferences() {
+        CompiledRegex regex = CompiledRegex.compile(RParser.parse("(cab|ca|c|b)\\1"));
+
+        assertEquals(MatchEngine.STACK_BACKTRACKING, regex.engine());
+        assertEquals(3, regex.match("acabb").start);
+    }
+
+    @Test public void planned_backtracking_is_polynomial_on_catastrophic_patterns() {
+        assumeTrue(MatchStatistics.ENABLED);
+        // Lookahead rules out automata, (a|aa)* splits the a's in fib(n) ways
+        RAst regex = RParser.parse("(a|aa)*c(?!d)");
+        String input = "aaaaaaaaaaaaaaaaaaaaaaaaa!c";
+
+        MatchPlan plan = MatchPlanner.plan(regex, ResultType.SPAN);
+        assertEquals(MatchEngine.STACK_BACKTRACKING, plan.engine());
+
+        MatchStatistics planned = new MatchStatistics();
+        assertEquals(26, CompiledRegex.compile(regex, plan)
+                .matchWithBacktracking(input, planned).start);
+
+        MatchStatistics inDegree = new MatchStatistics();
+        CompiledRegex.compile(regex, plan.withMemoisation(
+                MemoisationPolicy.IN_DEGREE_GREATER_THAN_1, MatchPlanner.BACKTRACKING_SCHEME))
+                .matchWithBacktracking(input, inDegree);
+
+        assertTrue(planned.toString(), planned.nodeVisits() < 20 * input.length());
+        assertTrue(inDegree.toString(), inDegree.nodeVisits() > 100 * planned.nodeVisits());
+    }
+
+    @Test public void plan_can_be_overridden() {
+        RAst regex = RParser.parse("(a|b)*c");
+        MatchPlan plan = MatchPlanner.plan(regex, ResultType.BOOLEAN)
+                .withEngine(MatchEngine.BACKTRACKING)
+                .withMemoisation(MemoisationPolicy.ALL, MemoisationEncodingScheme.HASH_TABLE);
+
+        CompiledRegex compiled = CompiledRegex.compile(regex, plan);
+
+        assertSame(plan, compiled.plan());
+        assertEquals(MatchEngine.BACKTRACKING, compiled.engine());
+        assertEquals(MemoisationPolicy.ALL, compiled.memoisationPolicy());
+        assertEquals(MemoisationEncodingScheme.HASH_TABLE, compiled.memoisationEncodingScheme());
+        assertEquals("overridden", plan.reason());
+        assertTrue(compiled.hasMatch("abac"));
+    }
+
+    @Test public void compile_uses_planner_by_default() {
+        assertEquals(MatchEngine.LAZY_DFA, CompiledRegex.compile(RParser.parse("a+")).engine());
+        assertEquals(MatchEngine.STACK_BACKTRACKING,
+                CompiledRegex.compile(RParser.parse("(a)\\1")).engine());
+    }
+
+    @Test public void estimates_exact_pike_program_size() {
+        Random random = new Random(42);
+
+        for (int i = 0; i < 1000; i++) {
+            RAst regex = StackBacktrackingMatcherTest.randomRegex(random, 4);
+            if (PikeProgram.unsupportedReason(regex) != null) continue;
+
+            CompiledRegex compiled = CompiledRegex.compile(regex, MemoisationPolicy.NONE,
+                    MemoisationEncodingScheme.BIT_MAP, MatchEngine.PIKE_VM);
+            assertEquals(regex.toString(),
+                    compiled.pikeProgram().size(), PikeProgram.estimateSize(regex));
+        }
+    }
+
+    @Test public void uses_backtracking_when_pike_vm_steps_are_too_expensive() {
+        MatchPlan nested = plan("((a?){100}){100}", ResultType.SPAN);
+        assertEquals(MatchEngine.STACK_BACKTRACKING, nested.engine());
+        assertTrue(nested.pikeStepCost() > PikeProgram.MAX_STEP_COST);
+
+        MatchPlan flat = plan("(a?){1000}", ResultType.SPAN);
+        assertEquals(MatchEngine.LAZY_DFA, flat.engine());
+        assertTrue(flat.pikeStepCost() <= PikeProgram.MAX_STEP_COST);
+    }
+
+    @Test public void matcher_finds_the_same_match_as_match() {
+        String[] patterns = { "(a?|c)*", "([ab]?|c)*", "(a|ab)(c|bcd)", "(foo|bar)+baz", "a(?!b)" };
+        String[] inputs = { "", "ac", "abcd", "xfoobarbaz", "ab ac" };
+
+        for (String pattern : patterns) {
+            CompiledRegex regex = CompiledRegex.compile(RParser.parse(pattern));
+            for (String input : inputs) {
+                Match match = regex.match(input);
+                Matcher matcher = regex.matcher(input);
+
+                String context = pattern + " on " + input;
+                assertEquals(context, match.hasMatch, matcher.find());
+                if (match.hasMatch) {
+                    assertEquals(context, match.start, matcher.start());
+                    assertEquals(context, match.end, matcher.end());
+                }
+            }
+        }
+
+        Matcher matcher = CompiledRegex.compile(RParser.parse("(a?|c)*")).matcher("ac");
+        assertTrue(matcher.find());
+        assertEquals("a", matcher.group());
+    }
+
+    @Test public void plan_describes_the_regex() {
+        String description = plan("(a{2,5})\\1", ResultType.SPAN).toString();
+
+        assertTrue(description, description.startsWith("STACK_BACKTRACKING (backreferences"));
+        assertTrue(description, description.contains("largest bounded repeat: 5"));
+        assertTrue(description, description.contains("Pike VM program size: n/a"));
+    }
+
+    private static MatchPlan plan(String regex, ResultType resultType) {
+        return MatchPlanner.plan(RParser.parse(regex), resultType);
+    }
+}
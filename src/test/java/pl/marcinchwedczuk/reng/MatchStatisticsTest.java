@@ -0,0 +1,87 @@
+package pl.marcinchwedczuk.reng;
+
+import org.junit.Before;
+import org.junit.Test;
+import pl.marcinchwedczuk.reng.parser.RParser;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class MatchStatisticsTest {
+    @Before public void statistics_are_enabled() {
+        // Set by surefire, other runners skip these tests
+        assumeTrue(MatchStatistics.ENABLED);
+    }
+
+    @Test public void counts_start_positions_and_visits() {
+        MatchStatistics stats = new MatchStatistics();
+        Match m = compile("a|b", MemoisationPolicy.NONE).matchWithBacktracking("xxb", stats);
+
+        assertEquals(2, m.start);
+        // x cannot start a match, so it is skipped
+        assertEquals(1, stats.startPositions());
+        assertEquals(3, stats.nodeVisits());
+        assertEquals(1, stats.continuations());
+        assertEquals(1, stats.backtracks());
+        assertEquals(0, stats.memoHits());
+        assertEquals(0, stats.memoTableBytes());
+    }
+
+    @Test public void shows_that_memoisation_prunes_catastrophic_backtracking() {
+        // The b lets the input through the prefilter, but the a's cannot reach it
+        String input = "aaaaaaaaaaaaaaa!b";
+
+        MatchStatistics none = new MatchStatistics();
+        assertEquals(16, compile("(a|a)*b", MemoisationPolicy.NONE)
+                .matchWithBacktracking(input, none).start);
+
+        MatchStatistics all = new MatchStatistics();
+        assertEquals(16, compile("(a|a)*b", MemoisationPolicy.ALL)
+                .matchWithBacktracking(input, all).start);
+
+        // ! cannot start a match, so it is skipped
+        assertEquals(16, none.startPositions());
+        assertEquals(16, all.startPositions());
+
+        assertEquals(0, none.memoHits());
+        assertTrue(all.memoHits() > 0);
+        assertTrue(all.memoCellsMarked() > 0);
+        assertTrue(all.memoTableBytes() > 0);
+
+        assertTrue(none.nodeVisits() > 100 * all.nodeVisits());
+        assertTrue(none.backtracks() > 100 * all.backtracks());
+    }
+
+    @Test public void statistics_are_reset_by_every_match() {
+        CompiledRegex regex = compile("(foo|bar)+", MemoisationPolicy.ALL);
+        MatchStatistics stats = new MatchStatistics();
+
+        regex.matchWithBacktracking("xxfoobar", stats);
+        String first = stats.toString();
+        regex.matchWithBacktracking("xxfoobar", stats);
+
+        assertEquals(first, stats.toString());
+    }
+
+    @Test public void inputs_rejected_by_prefilter_are_not_searched() {
+        MatchStatistics stats = new MatchStatistics();
+        assertFalse(compile("(a|a)*b", MemoisationPolicy.NONE)
+                .matchWithBacktracking("aaaaaaaaaaaaaaa", stats).hasMatch);
+
+        assertEquals(0, stats.startPositions());
+        assertEquals(0, stats.nodeVisits());
+    }
+
+    @Test public void gives_same_results_as_plain_match() {
+        CompiledRegex regex = CompiledRegex.compile(RParser.parse("(a|ab)(c|bcd)(d*)"));
+        Match expected = regex.match("xabcd");
+        Match actual = regex.matchWithBacktracking("xabcd", new MatchStatistics());
+
+        assertEquals(expected.start, actual.start);
+        assertEquals(expected.end, actual.end);
+    }
+
+    private static CompiledRegex compile(String regex, MemoisationPolicy policy) {
+        return CompiledRegex.compile(RParser.parse(regex), policy, MemoisationEncodingScheme.BIT_MAP);
+    }
+}
@@ -0,0 +1,102 @@
+package pl.marcinchwedczuk.reng;
+
+import org.junit.Test;
+import pl.marcinchwedczuk.reng.parser.RParser;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class MatcherTest {
+    @Test public void finds_successive_matches() {
+        Matcher m = compile("[0-9]+").matcher("a1b22c333");
+
+        assertTrue(m.find());
+        assertEquals(1, m.start());
+        assertEquals(2, m.end());
+        assertTrue(m.find());
+        assertEquals("22", m.group());
+        assertTrue(m.find());
+        assertEquals("333", m.group());
+        assertFalse(m.find());
+        assertFalse(m.find());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void no_match_before_find() {
+        compile("a").matcher("a").start();
+    }
+
+    @Test public void steps_over_empty_matches() {
+        assertEquals("[0-0, 1-2, 2-2]", spans("b*", "ab"));
+        assertEquals("[0-0]", spans("^", "abc"));
+        assertEquals("[3-3]", spans("$", "abc"));
+    }
+
+    @Test public void iterates_and_streams_matches() {
+        CompiledRegex regex = compile("(foo|bar)");
+
+        List<String> iterated = new ArrayList<>();
+        for (Match match : regex.matcher("foo-bar-baz-foo")) {
+            iterated.add(match.matched());
+        }
+        assertEquals("[foo, bar, foo]", iterated.toString());
+
+        assertEquals(3, regex.matcher("foo-bar-baz-foo").results().count());
+
+        Iterator<Match> it = regex.matcher("xbar").iterator();
+        assertTrue(it.hasNext());
+        assertTrue(it.hasNext());
+        assertEquals(1, it.next().start);
+        assertFalse(it.hasNext());
+    }
+
+    @Test public void gives_same_matches_as_java_regex() {
+        Random random = new Random(99);
+        String[] patterns = { "(a|ab)(c|bcd)", "a*b", "(a|b)*c", "[ab]+", "(ab|a)(b|c)*" };
+
+        for (int i = 0; i < 300; i++) {
+            StringBuilder input = new StringBuilder();
+            int length = random.nextInt(40);
+            for (int j = 0; j < length; j++) input.append((char) ('a' + random.nextInt(4)));
+
+            for (String pattern : patterns) {
+                assertEquals(pattern + " on " + input,
+                        javaSpans(pattern, input.toString()),
+                        spans(pattern, input.toString()));
+            }
+        }
+    }
+
+    @Test public void reuses_memo_table_between_matches() {
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 50; i++) input.append("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa!");
+
+        // Exponential without memoisation, the table survives between finds
+        assertEquals(50, compile("(a|a)*!").matcher(input.toString()).results().count());
+    }
+
+    private static String spans(String pattern, String input) {
+        return compile(pattern).matcher(input).results()
+                .map(m -> m.start + "-" + m.end)
+                .collect(Collectors.toList())
+                .toString();
+    }
+
+    private static String javaSpans(String pattern, String input) {
+        List<String> spans = new ArrayList<>();
+        java.util.regex.Matcher m = Pattern.compile(pattern).matcher(input);
+        while (m.find()) spans.add(m.start() + "-" + m.end());
+        return spans.toString();
+    }
+
+    private static CompiledRegex compile(String pattern) {
+        return CompiledRegex.compile(RParser.parse(pattern),
+                MemoisationPolicy.ALL, MemoisationEncodingScheme.BIT_MAP);
+    }
+}
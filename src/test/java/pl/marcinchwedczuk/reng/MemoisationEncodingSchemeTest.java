@@ -0,0 +1,118 @@
+package pl.marcinchwedczuk.reng;
+
+import org.junit.Test;
+import pl.marcinchwedczuk.reng.parser.RParser;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MemoisationEncodingSchemeTest {
+    private static final String[] REGEXES = {
+            "(a|b)*c", "(foo|bar)+baz", "^(a|ab)(c|bcd)(d*)$",
+            "^[-+]?(([0-9]+(\\.[0-9]*)?)|(\\.[0-9]+))([Ee]-?[0-9]+)?$",
+            "^[_a-zA-Z][_a-zA-Z0-9]*@gmail\\.com$"
+    };
+
+    private static final String[] INPUTS = {
+            "", "c", "abac", "abcd", "foobarbaz", "-1.5e10", ".5",
+            "foo@gmail.com", "123@gmail.com", repeat("ab", 200) + "c"
+    };
+
+    @Test public void all_schemes_give_the_same_results() {
+        for (String regex : REGEXES) {
+            RAst ast = RParser.parse(regex);
+            for (String input : INPUTS) {
+                Match expected = CompiledRegex.compile(ast).match(input);
+
+                for (MemoisationEncodingScheme scheme : MemoisationEncodingScheme.values()) {
+                    Match actual = CompiledRegex
+                            .compile(ast, MemoisationPolicy.ALL, scheme)
+                            .match(input);
+
+                    String msg = regex + " on '" + input + "' with " + scheme;
+                    assertEquals(msg, expected.hasMatch, actual.hasMatch);
+                    assertEquals(msg, expected.start, actual.start);
+                    assertEquals(msg, expected.end, actual.end);
+                }
+            }
+        }
+    }
+
+    @Test public void clear_unmarks_only_the_given_columns() {
+        Random random = new Random(7);
+        RAst[] nodes = { node(0), node(1), node(2) };
+        int length = 300;
+
+        for (MemoisationEncodingScheme scheme : MemoisationEncodingScheme.values()) {
+            MemoisationTable table = MemoisationTableFactory.create(scheme, nodes.length, length);
+            boolean[][] expected = new boolean[nodes.length][length];
+
+            for (int i = 0; i < 2000; i++) {
+                int row = random.nextInt(nodes.length);
+                int pos = random.nextInt(length);
+                table.mark(nodes[row], pos);
+                expected[row][pos] = true;
+
+                if (i % 100 == 99) {
+                    int from = random.nextInt(length);
+                    int to = from + random.nextInt(length - from + 1);
+                    table.clear(from, to);
+                    for (boolean[] cells : expected) {
+                        for (int p = from; p < to; p++) cells[p] = false;
+                    }
+                }
+            }
+
+            for (int row = 0; row < nodes.length; row++) {
+                for (int pos = 0; pos < length; pos++) {
+                    assertEquals(scheme + " " + row + " " + pos,
+                            expected[row][pos], table.get(nodes[row], pos));
+                }
+            }
+        }
+    }
+
+    @Test public void measures_memory_of_every_scheme() {
+        String input = repeat("x", 100_000) + "foobarbaz";
+        RAst ast = RParser.parse("(foo|bar)+baz");
+
+        Map<MemoisationEncodingScheme, Long> bytes = new EnumMap<>(MemoisationEncodingScheme.class);
+        for (MemoisationEncodingScheme scheme : MemoisationEncodingScheme.values()) {
+            CompiledRegex regex = CompiledRegex.compile(ast, MemoisationPolicy.ALL, scheme);
+
+            BacktrackingMatcher matcher = new BacktrackingMatcher(regex, input);
+            assertEquals("foobarbaz", matcher.match().matched());
+            bytes.put(scheme, matcher.memoTableSizeInBytes());
+        }
+
+        // Dense table needs at most a bit for every node and position,
+        // and at least a full row for the node tried at every position
+        long cells = 15L * (input.length() + 1);
+        long bitMapBytes = bytes.get(MemoisationEncodingScheme.BIT_MAP);
+        assertTrue(bytes.toString(), bitMapBytes <= cells / 8 + 15 * 64);
+        assertTrue(bytes.toString(), bitMapBytes >= input.length() / 8);
+
+        // Most nodes are visited only on a few runs of positions,
+        // sparse tables store only those
+        assertTrue(bytes.toString(), bytes.get(MemoisationEncodingScheme.HASH_TABLE) > 0);
+        assertTrue(bytes.toString(),
+                bytes.get(MemoisationEncodingScheme.HASH_TABLE) < bitMapBytes / 50);
+        assertTrue(bytes.toString(),
+                bytes.get(MemoisationEncodingScheme.RLE) < bitMapBytes / 50);
+    }
+
+    private static RAst node(int row) {
+        RAst node = RAst.group('a');
+        node.setIndexInBitMap(row);
+        return node;
+    }
+
+    private static String repeat(String s, int times) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < times; i++) sb.append(s);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,169 @@
+package pl.marcinchwedczuk.reng;
+
+import org.junit.Test;
+import pl.marcinchwedczuk.reng.parser.RParser;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class MemoisationPolicyTest {
+    @Test public void all_policy_memoises_every_node() {
+        assertEquals(7, memoisedRows("(a|b)*c", MemoisationPolicy.ALL));
+    }
+
+    @Test public void none_policy_allocates_no_table() {
+        assertEquals(0, memoisedRows("(a|b)*c", MemoisationPolicy.NONE));
+    }
+
+    @Test public void in_degree_policy_memoises_only_alternation_successors() {
+        // Only 'c' can be entered from both 'a' and 'b'
+        assertEquals(1, memoisedRows("(a|b)c", MemoisationPolicy.IN_DEGREE_GREATER_THAN_1));
+        assertEquals(1, memoisedRows("(a|b)*c", MemoisationPolicy.IN_DEGREE_GREATER_THAN_1));
+        assertEquals(0, memoisedRows("abc", MemoisationPolicy.IN_DEGREE_GREATER_THAN_1));
+    }
+
+    @Test public void ancestor_policy_memoises_only_repetitions() {
+        assertEquals(0, memoisedRows("(a|b)c", MemoisationPolicy.ANCESTOR_NODES));
+        assertEquals(1, memoisedRows("(a|b)*c", MemoisationPolicy.ANCESTOR_NODES));
+        assertEquals(2, memoisedRows("a*(b+)", MemoisationPolicy.ANCESTOR_NODES));
+    }
+
+    @Test public void nested_alternations_are_supported() {
+        CompiledRegex.compile(RParser.parse("((a|b)c|d)e"),
+                MemoisationPolicy.IN_DEGREE_GREATER_THAN_1,
+                MemoisationEncodingScheme.BIT_MAP);
+    }
+
+    @Test public void all_policies_give_the_same_results() {
+        String[] regexes = {
+                "(a|b)*c", "^(a|ab)(c|bcd)(d*)$", "(a*)*b", "(foo|bar)+baz",
+                "^[-+]?(([0-9]+(\\.[0-9]*)?)|(\\.[0-9]+))([Ee]-?[0-9]+)?$",
+                "a{2,3}", "(?=ab)a", "a(?!b)", "(x?)*y", "(a|ab){2}c", "(a{1,2}){2}b"
+        };
+        String[] inputs = {
+                "", "c", "abac", "abcd", "aaab", "b", "foobarbaz", "-1.5e10",
+                ".5", "aaaa", "xxy", "y", "ab", "ac"
+        };
+
+        for (String regex : regexes) {
+            RAst ast = RParser.parse(regex);
+            for (String input : inputs) {
+                Match expected = CompiledRegex.compile(ast).match(input);
+
+                for (MemoisationPolicy policy : MemoisationPolicy.values()) {
+                    Match actual = CompiledRegex
+                            .compile(ast, policy, MemoisationEncodingScheme.BIT_MAP)
+                            .match(input);
+
+                    String msg = regex + " on '" + input + "' with " + policy;
+                    assertEquals(msg, expected.hasMatch, actual.hasMatch);
+                    assertEquals(msg, expected.start, actual.start);
+                    assertEquals(msg, expected.end, actual.end);
+                }
+            }
+        }
+    }
+
+    @Test public void nodes_in_counted_repeats_are_memoised_with_count() {
+        CompiledRegex regex = CompiledRegex.compile(RParser.parse("(a|ab){2,5}c*"),
+                MemoisationPolicy.ALL, MemoisationEncodingScheme.BIT_MAP);
+
+        // Group, alternative, a, ab, a, b in the counted table,
+        // the concatenation, both repeats and c in the plain one
+        assertEquals(6, regex.countedNodesToMemoise().size());
+        assertEquals(4, regex.nodesToMemoise().size());
+
+        // a is inside two counted repeats and is not memoised at all,
+        // the group and a{1,2} are counted by the outer repeat
+        regex = CompiledRegex.compile(RParser.parse("(a{1,2}){2}"),
+                MemoisationPolicy.ALL, MemoisationEncodingScheme.BIT_MAP);
+        assertEquals(2, regex.countedNodesToMemoise().size());
+        assertEquals(1, regex.nodesToMemoise().size());
+    }
+
+    @Test public void counted_memoisation_prunes_bounded_repeats() {
+        assumeTrue(MatchStatistics.ENABLED);
+        CompiledRegex regex = CompiledRegex.compile(RParser.parse("(a|aa){1,100}b"),
+                MemoisationPolicy.ALL, MemoisationEncodingScheme.BIT_MAP);
+        MatchStatistics stats = new MatchStatistics();
+
+        assertFalse(regex.matchWithBacktracking(repeat('a', 60), stats).hasMatch);
+        // Without memoisation it is exponential, about fib(60) visits
+        assertTrue(stats.nodeVisits() < 1_000_000);
+    }
+
+    @Test public void nodes_followed_by_backreference_are_not_memoised() {
+        RAst ast = RParser.parse("(cab|ca|c|b)\\1");
+
+        for (MemoisationPolicy policy : MemoisationPolicy.values()) {
+            // \1 at 4 fails with group 1 = "cab", but not with "b"
+            Match m = CompiledRegex.compile(ast, policy, MemoisationEncodingScheme.BIT_MAP).match("acabb");
+            assertEquals(policy.toString(), "bb", m.matched());
+        }
+
+        // Only x* is memoised, no backreference can follow it
+        CompiledRegex regex = CompiledRegex.compile(RParser.parse("(?=(a)\\1)x*"),
+                MemoisationPolicy.ALL, MemoisationEncodingScheme.BIT_MAP);
+        assertEquals(2, regex.nodesToMemoise().size());
+    }
+
+    @Test public void backreferences_give_the_same_results_as_java_regex() {
+        String[] patterns = {
+                "(cab|ca|c|b)\\1", "(a|b)*\\1", "((a|ab)c?)+\\1", "(b|a)(a|\\1)*c", "(?=(a+))\\1b"
+        };
+        Random random = new Random(10);
+
+        for (String pattern : patterns) {
+            java.util.regex.Pattern expected = java.util.regex.Pattern.compile(pattern);
+            RAst ast = RParser.parse(pattern);
+
+            for (MemoisationPolicy policy : MemoisationPolicy.values()) {
+                for (MatchEngine engine : new MatchEngine[] { MatchEngine.BACKTRACKING, MatchEngine.STACK_BACKTRACKING }) {
+                    CompiledRegex regex = CompiledRegex.compile(ast, policy, MemoisationEncodingScheme.BIT_MAP, engine);
+
+                    for (int i = 0; i < 300; i++) {
+                        String input = StackBacktrackingMatcherTest.randomInput(random);
+                        java.util.regex.Matcher m = expected.matcher(input);
+                        Match actual = regex.match(input);
+
+                        String msg = pattern + " on '" + input + "' with " + policy + " " + engine;
+                        assertEquals(msg, m.find(), actual.hasMatch);
+                        if (actual.hasMatch) {
+                            assertEquals(msg, m.start(), actual.start);
+                            assertEquals(msg, m.end(), actual.end);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test public void empty_iterations_terminate_without_memoisation() {
+        CompiledRegex r = CompiledRegex.compile(RParser.parse("(a*)*b"),
+                MemoisationPolicy.NONE,
+                MemoisationEncodingScheme.BIT_MAP);
+
+        assertEquals("aab", r.match("xaab").matched());
+        assertFalse(r.match("aaa").hasMatch);
+    }
+
+    private static String repeat(char c, int n) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++) sb.append(c);
+        return sb.toString();
+    }
+
+    private static int memoisedRows(String regex, MemoisationPolicy policy) {
+        CompiledRegex compiled = CompiledRegex.compile(
+                RParser.parse(regex), policy, MemoisationEncodingScheme.BIT_MAP);
+
+        int rows = compiled.nodesToMemoise().size();
+        long expectedBytes = (rows > 0) ? new BitMap(rows, "input".length() + 1).sizeInBytes() : 0;
+
+        BacktrackingMatcher matcher = new BacktrackingMatcher(compiled, "input");
+        assertEquals(expectedBytes, matcher.memoTableSizeInBytes());
+        return rows;
+    }
+}
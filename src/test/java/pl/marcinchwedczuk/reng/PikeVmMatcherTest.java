@@ -0,0 +1,135 @@
+package pl.marcinchwedczuk.reng;
+
+import org.junit.Test;
+import pl.marcinchwedczuk.reng.parser.RParser;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PikeVmMatcherTest {
+    @Test public void gives_same_results_as_backtracking() {
+        String[] regexes = {
+                "(a|b)*c", "^(a|ab)(c|bcd)(d*)$", "(a*)*b", "(foo|bar)+baz",
+                "^[-+]?(([0-9]+(\\.[0-9]*)?)|(\\.[0-9]+))([Ee]-?[0-9]+)?$",
+                "a{2,3}", "((a)|b)+", "(a{2}b){1,2}", "a|ab", "(a|ab)(c|bcd)",
+                "a{3,1}", "(ab|a)(bc|c)?", "(a?|c)*", "([ab]?|c)*", "(a?){3}c"
+        };
+        String[] inputs = {
+                "", "c", "abac", "abcd", "aaab", "b", "foobarbaz", "-1.5e10",
+                ".5", "aaaa", "ab", "ac", "aa", "bb", "aabaab", "abc"
+        };
+
+        for (String regex : regexes) {
+            Engines engines = new Engines(RParser.parse(regex), true);
+            for (String input : inputs) {
+                engines.assertSameResults(input);
+            }
+        }
+    }
+
+    @Test public void empty_iteration_ends_the_loop_like_in_backtracking() {
+        Match m = compile("(a?|c)*").match("ac");
+        assertEquals(0, m.start);
+        assertEquals(1, m.end);
+
+        m = compile("([ab]?|c)*").match("a");
+        assertEquals(1, m.start(1));
+        assertEquals(1, m.end(1));
+    }
+
+    @Test public void reuses_workspace_between_matches() {
+        CompiledRegex regex = compile("(a?){1000}b");
+        for (int i = 0; i < 3; i++) {
+            assertFalse(regex.match("aaaa").hasMatch);
+            Match m = regex.match("aab");
+            assertEquals(3, m.end);
+            assertEquals(2, m.start(1));
+        }
+    }
+
+    @Test public void gives_same_results_as_backtracking_on_random_regexes() {
+        Random random = new Random(4321);
+
+        for (int i = 0; i < 1000; i++) {
+            RAst regex = StackBacktrackingMatcherTest.randomRegex(random, 4);
+            if (PikeProgram.unsupportedReason(regex) != null) continue;
+
+            // Random capture groups all have number 1, so only spans are compared
+            Engines engines = new Engines(regex, false);
+            for (int j = 0; j < 10; j++) {
+                engines.assertSameResults(StackBacktrackingMatcherTest.randomInput(random));
+            }
+        }
+    }
+
+    @Test public void runs_in_linear_time_on_catastrophic_patterns() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100_000; i++) sb.append('a');
+
+        assertFalse(compile("(a|a)*b").match(sb.toString()).hasMatch);
+        assertFalse(compile("(a*)*b").match(sb.toString()).hasMatch);
+        assertEquals(100_000, compile("(a|aa)*").match(sb.toString()).end);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejects_backreferences() {
+        compile("(a)\\1");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejects_lookaheads() {
+        compile("a(?=b)");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejects_huge_repetitions() {
+        compile("[a-z]{1000000}");
+    }
+
+    /* Pike VM and lazy DFA checked against the recursive backtracking engine. */
+    private static class Engines {
+        final RAst regex;
+        final boolean compareGroups;
+        final CompiledRegex expected;
+        final CompiledRegex[] actual;
+
+        Engines(RAst regex, boolean compareGroups) {
+            this.regex = regex;
+            this.compareGroups = compareGroups;
+            this.expected = compile(regex, MatchEngine.BACKTRACKING);
+            this.actual = new CompiledRegex[] {
+                    compile(regex, MatchEngine.PIKE_VM), compile(regex, MatchEngine.LAZY_DFA)
+            };
+        }
+
+        void assertSameResults(String input) {
+            Match e = expected.match(input);
+            for (CompiledRegex engine : actual) {
+                Match a = engine.match(input);
+
+                String msg = regex + " on '" + input + "' with " + engine.engine();
+                assertEquals(msg, e.hasMatch, a.hasMatch);
+                assertEquals(msg, e.start, a.start);
+                assertEquals(msg, e.end, a.end);
+                if (!e.hasMatch || !compareGroups) continue;
+
+                assertEquals(msg, e.groupCount(), a.groupCount());
+                for (int g = 1; g <= e.groupCount(); g++) {
+                    assertEquals(msg + " group " + g, e.start(g), a.start(g));
+                    assertEquals(msg + " group " + g, e.end(g), a.end(g));
+                }
+            }
+        }
+
+        private static CompiledRegex compile(RAst regex, MatchEngine engine) {
+            return CompiledRegex.compile(regex, MemoisationPolicy.NONE,
+                    MemoisationEncodingScheme.BIT_MAP, engine);
+        }
+    }
+
+    private static CompiledRegex compile(String regex) {
+        return CompiledRegex.compile(RParser.parse(regex), MemoisationPolicy.NONE,
+                MemoisationEncodingScheme.BIT_MAP, MatchEngine.PIKE_VM);
+    }
+}
@@ -0,0 +1,73 @@
+package pl.marcinchwedczuk.reng;
+
+import org.junit.Test;
+import pl.marcinchwedczuk.reng.parser.RParser;
+
+import java.util.Random;
+
+import static java.util.Collections.singleton;
+
+import static org.junit.Assert.*;
+
+public class PrefilterTest {
+    @Test public void extracts_required_literals() {
+        Prefilter log = prefilter("[0-9]+ ERROR");
+        assertEquals(singleton(" ERROR"), log.requirements().get(0));
+        assertEquals(10, log.requirements().get(1).size());
+
+        assertEquals("[[baz]]", prefilter("(foo|bar)*baz").toString());
+        assertEquals("[[timeout]]", prefilter("^.*timeout.*$").toString());
+        assertTrue(prefilter("(foo|bar)+[0-9]*baz").requirements().size() == 2);
+        assertTrue(prefilter("(foo|bar)+[0-9]*baz").toString().contains("bar"));
+        assertTrue(prefilter("a*").isEmpty());
+        assertTrue(prefilter("[^a]").isEmpty());
+        assertTrue(prefilter("(a)\\1").toString().contains("a"));
+    }
+
+    @Test public void alternative_requires_one_literal_of_each_branch() {
+        Prefilter p = prefilter("x*(GET .*HTTP|POST [a-z]+)");
+
+        assertTrue(p.mayMatch("GET / HTTP"));
+        assertTrue(p.mayMatch("POST abc"));
+        assertFalse(p.mayMatch("PUT abc"));
+    }
+
+    @Test public void rejects_inputs_without_running_the_engine() {
+        CompiledRegex regex = CompiledRegex.compile(RParser.parse("(a|a)*timeout"),
+                MemoisationPolicy.NONE, MemoisationEncodingScheme.BIT_MAP);
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) sb.append('a');
+
+        // Exponential without memoisation, returns at once thanks to the prefilter
+        assertFalse(regex.match(sb.toString()).hasMatch);
+        assertTrue(regex.match("aatimeout").hasMatch);
+        assertFalse(regex.hasMatch("time out"));
+
+        assertEquals(3, regex.prefilter().checks());
+        assertEquals(2, regex.prefilter().rejects());
+        assertEquals(2.0 / 3, regex.prefilter().rejectRate(), 1e-9);
+    }
+
+    @Test public void never_rejects_matching_inputs() {
+        Random random = new Random(777);
+
+        for (int i = 0; i < 2000; i++) {
+            RAst regex = StackBacktrackingMatcherTest.randomRegex(random, 4);
+            Prefilter p = Prefilter.of(regex);
+
+            for (int j = 0; j < 10; j++) {
+                String input = StackBacktrackingMatcherTest.randomInput(random);
+                Match m = BacktrackingMatcher.match(input, regex);
+
+                if (m.hasMatch) {
+                    assertTrue(regex + " on '" + input + "' rejected: " + p, p.mayMatch(input));
+                }
+            }
+        }
+    }
+
+    private static Prefilter prefilter(String regex) {
+        return Prefilter.of(RParser.parse(regex));
+    }
+}
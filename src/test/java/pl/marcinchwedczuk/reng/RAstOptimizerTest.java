@@ -0,0 +1,101 @@
+package pl.marcinchwedczuk.reng;
+
+import org.junit.Test;
+import pl.marcinchwedczuk.reng.parser.RParser;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class RAstOptimizerTest {
+    @Test public void fuses_chars_into_literals() {
+        RAst ast = optimize("foo(bar)baz");
+
+        assertEquals(RAstType.CONCAT, ast.type);
+        assertEquals(RAstType.LITERAL, ast.exprs.get(0).type);
+        assertEquals("foo", ast.exprs.get(0).text);
+        assertEquals("bar", ast.exprs.get(1).headExpr().text);
+        assertEquals("baz", ast.exprs.get(2).text);
+        assertEquals(3, ast.exprs.size());
+    }
+
+    @Test public void merges_adjacent_single_char_branches() {
+        RAst ast = optimize("a|b|[cd]");
+        assertEquals(RAstType.GROUP, ast.type);
+        assertEquals(4, ast.chars.size());
+
+        // b cannot move before xy, it would change leftmost-first results
+        assertEquals("[ab]|xy|c", optimize("a|b|xy|c").toString());
+    }
+
+    @Test public void folds_trivial_repeats() {
+        assertEquals("ac", optimize("ab{0}c{1}").toString());
+        assertEquals(RAstType.LITERAL, optimize("ab{0}c{1}").type);
+        assertEquals("ab", optimize("(a{1}b)+").headExpr().headExpr().text);
+    }
+
+    @Test public void reports_removed_nodes() {
+        RAst source = RParser.parse("^(error|warning): disk [a-z]+ full$");
+        CompiledRegex regex = CompiledRegex.compile(source);
+
+        assertEquals(RAstOptimizer.countNodes(source), regex.numOfSourceNodes());
+        assertTrue(regex.plan().optimise());
+        // ^ (error|warning) ": disk " [a-z]+ " full" $ in a concatenation
+        assertEquals(33, regex.numOfSourceNodes());
+        assertEquals(11, regex.numOfNodes());
+
+        CompiledRegex asWritten = CompiledRegex.compile(source,
+                MemoisationPolicy.ALL, MemoisationEncodingScheme.BIT_MAP);
+        assertEquals(asWritten.numOfSourceNodes(), asWritten.numOfNodes());
+    }
+
+    @Test public void keeps_groups_removed_by_folding() {
+        Match m = CompiledRegex.compile(RParser.parse("a(b){0}(c)"), ResultType.CAPTURES).match("ac");
+
+        assertEquals(2, m.groupCount());
+        assertNull(m.group(1));
+        assertEquals("c", m.group(2));
+    }
+
+    @Test public void optimised_regexes_give_the_same_results() {
+        String[] patterns = {
+                "abc|abd", "a|b|c|ab", "(a|b)|(c|ab)", "x{1}(ab){1}c{0}", "(ab|a)(c|bcd)(d*)",
+                "a(b|c)*d|ab", "^ab|b$", "(a)\\1b", "a(?=bc)bc|ab", "(a{0}|b)+c", "ab(?!c)|abc"
+        };
+        Random random = new Random(22);
+
+        for (String pattern : patterns) {
+            RAst ast = RParser.parse(pattern);
+            CompiledRegex expected = CompiledRegex.compile(ast,
+                    MemoisationPolicy.NONE, MemoisationEncodingScheme.BIT_MAP, MatchEngine.BACKTRACKING);
+
+            for (MatchEngine engine : MatchEngine.values()) {
+                if (engine == MatchEngine.PIKE_VM && PikeProgram.unsupportedReason(ast) != null) continue;
+
+                CompiledRegex optimised = CompiledRegex.compile(ast,
+                        MatchPlanner.plan(ast, ResultType.CAPTURES).withEngine(engine));
+
+                for (int i = 0; i < 100; i++) {
+                    String input = StackBacktrackingMatcherTest.randomInput(random);
+                    String msg = pattern + " " + engine + " on " + input;
+
+                    Match e = expected.match(input);
+                    Match a = optimised.match(input);
+                    assertEquals(msg, e.hasMatch, a.hasMatch);
+                    assertEquals(msg, e.start, a.start);
+                    assertEquals(msg, e.end, a.end);
+
+                    if (engine == MatchEngine.BACKTRACKING && e.hasMatch) {
+                        for (int g = 1; g <= e.groupCount(); g++) {
+                            assertEquals(msg + " group " + g, e.group(g), a.group(g));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static RAst optimize(String pattern) {
+        return RAstOptimizer.optimize(RParser.parse(pattern));
+    }
+}
@@ -0,0 +1,125 @@
+package pl.marcinchwedczuk.reng;
+
+import org.junit.Test;
+import pl.marcinchwedczuk.reng.parser.RParseException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class RegexCacheTest {
+    @Test public void returns_the_same_compiled_pattern() {
+        RegexCache cache = new RegexCache();
+
+        CompiledRegex first = cache.get("(foo|bar)+");
+        CompiledRegex second = cache.get("(foo|bar)+");
+
+        assertSame(first, second);
+        assertEquals(1, cache.hits());
+        assertEquals(1, cache.misses());
+        assertEquals(0.5, cache.hitRate(), 1e-9);
+        assertTrue(first.match("xbarfoo").hasMatch);
+    }
+
+    @Test public void options_are_part_of_the_key() {
+        RegexCache cache = new RegexCache();
+
+        CompiledRegex planned = cache.get("a*b");
+        CompiledRegex forBoolean = cache.get("a*b", ResultType.BOOLEAN);
+        CompiledRegex explicit = cache.get("a*b",
+                MemoisationPolicy.ALL, MemoisationEncodingScheme.RLE, MatchEngine.BACKTRACKING);
+
+        assertNotSame(planned, forBoolean);
+        assertNotSame(planned, explicit);
+        assertEquals(MemoisationEncodingScheme.RLE, explicit.memoisationEncodingScheme());
+        assertEquals(3, cache.size());
+    }
+
+    @Test public void evicts_least_recently_used() {
+        RegexCache cache = new RegexCache(2);
+
+        CompiledRegex a = cache.get("a");
+        cache.get("b");
+        cache.get("a");
+        cache.get("c");
+
+        assertEquals(1, cache.evictions());
+        assertEquals(2, cache.size());
+        assertSame(a, cache.get("a"));
+
+        long misses = cache.misses();
+        cache.get("b");
+        assertEquals(misses + 1, cache.misses());
+    }
+
+    @Test public void small_cache_keeps_max_size_patterns() {
+        RegexCache cache = new RegexCache(16);
+
+        for (int i = 0; i < 16; i++) cache.get("x" + i);
+        for (int i = 0; i < 16; i++) cache.get("x" + i);
+
+        assertEquals(16, cache.size());
+        assertEquals(16, cache.hits());
+        assertEquals(0, cache.evictions());
+    }
+
+    @Test public void evicts_pattern_inserted_first_among_not_hit_ones() {
+        RegexCache cache = new RegexCache(16);
+        for (int i = 0; i < 16; i++) cache.get("x" + i);
+
+        cache.get("x0");
+        cache.get("y");
+        assertEquals(1, cache.evictions());
+
+        long misses = cache.misses();
+        cache.get("x0");
+        assertEquals(misses, cache.misses());
+        cache.get("x1");
+        assertEquals(misses + 1, cache.misses());
+    }
+
+    @Test public void parse_errors_are_not_cached() {
+        RegexCache cache = new RegexCache();
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                cache.get("(a");
+                fail();
+            } catch (RParseException expected) { }
+        }
+
+        assertEquals(0, cache.size());
+        assertEquals(2, cache.misses());
+    }
+
+    @Test public void stays_bounded_under_concurrent_use() throws Exception {
+        RegexCache cache = new RegexCache(50);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                int seed = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 2000; i++) {
+                        String pattern = "x" + ((i * 31 + seed) % 100);
+                        assertTrue(cache.get(pattern).match(pattern).hasMatch);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) future.get();
+        } finally {
+            executor.shutdown();
+        }
+
+        assertTrue(cache.size() <= 50);
+        assertEquals(8 * 2000, cache.hits() + cache.misses());
+        // Threads that missed the same key at once insert it only once
+        assertTrue(cache.evictions() > 0);
+        assertTrue(cache.evictions() <= cache.misses() - cache.size());
+    }
+}
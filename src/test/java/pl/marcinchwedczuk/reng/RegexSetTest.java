@@ -0,0 +1,59 @@
+package pl.marcinchwedczuk.reng;
+
+import org.junit.Test;
+import pl.marcinchwedczuk.reng.parser.RParser;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class RegexSetTest {
+    @Test public void reports_which_patterns_match() {
+        RegexSet set = RegexSet.compile(
+                RParser.parse("foo"),
+                RParser.parse("ba+r"),
+                RParser.parse("(a)\\1"),
+                RParser.parse("^x"),
+                RParser.parse("y$"),
+                RParser.parse("q(?=u)"));
+
+        assertEquals(6, set.size());
+        assertEquals(4, set.numOfAutomatonPatterns());
+        assertEquals(2, set.numOfBacktrackingPatterns());
+
+        assertEquals("{0, 1}", set.matches("a foo bar").toString());
+        assertEquals("{2, 3, 4}", set.matches("xaay").toString());
+        assertEquals("{5}", set.matches("aqu").toString());
+        assertEquals("{}", set.matches("").toString());
+        assertEquals("{}", set.matches("yx").toString());
+    }
+
+    @Test public void gives_same_results_as_matching_patterns_one_by_one() {
+        Random random = new Random(4321);
+
+        for (int i = 0; i < 200; i++) {
+            List<RAst> patterns = new ArrayList<>();
+            List<CompiledRegex> compiled = new ArrayList<>();
+            for (int j = 0; j < 5; j++) {
+                RAst pattern = StackBacktrackingMatcherTest.randomRegex(random, 3);
+                patterns.add(pattern);
+                compiled.add(CompiledRegex.compile(pattern,
+                        MemoisationPolicy.NONE, MemoisationEncodingScheme.BIT_MAP));
+            }
+            RegexSet set = RegexSet.compile(patterns);
+
+            for (int k = 0; k < 10; k++) {
+                String input = StackBacktrackingMatcherTest.randomInput(random);
+
+                BitSet expected = new BitSet();
+                for (int j = 0; j < compiled.size(); j++) {
+                    if (compiled.get(j).match(input).hasMatch) expected.set(j);
+                }
+                assertEquals(patterns + " on " + input, expected, set.matches(input));
+            }
+        }
+    }
+}
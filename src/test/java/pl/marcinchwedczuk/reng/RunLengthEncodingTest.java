@@ -0,0 +1,99 @@
+package pl.marcinchwedczuk.reng;
+
+import org.junit.Test;
+import pl.marcinchwedczuk.reng.parser.RParser;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class RunLengthEncodingTest {
+    private final RAst node0 = node(0);
+    private final RAst node1 = node(1);
+
+    @Test public void marks_are_remembered_per_node() {
+        RunLengthEncoding rle = new RunLengthEncoding(2, 100);
+
+        rle.mark(node0, 5);
+
+        assertTrue(rle.get(node0, 5));
+        assertFalse(rle.get(node0, 4));
+        assertFalse(rle.get(node0, 6));
+        assertFalse(rle.get(node1, 5));
+    }
+
+    @Test public void adjacent_marks_are_merged_into_single_run() {
+        RunLengthEncoding rle = new RunLengthEncoding(1, 100);
+
+        for (int i = 10; i < 20; i++) rle.mark(node0, i);
+        for (int i = 9; i >= 0; i--) rle.mark(node0, i);
+
+        assertEquals(1, rle.numberOfRuns(node0));
+        for (int i = 0; i < 20; i++) assertTrue(rle.get(node0, i));
+        assertFalse(rle.get(node0, 20));
+    }
+
+    @Test public void filling_a_gap_merges_two_runs() {
+        RunLengthEncoding rle = new RunLengthEncoding(1, 100);
+
+        rle.mark(node0, 1);
+        rle.mark(node0, 3);
+        rle.mark(node0, 7);
+        assertEquals(3, rle.numberOfRuns(node0));
+
+        rle.mark(node0, 2);
+        assertEquals(2, rle.numberOfRuns(node0));
+
+        rle.mark(node0, 5);
+        assertEquals(3, rle.numberOfRuns(node0));
+        assertTrue(rle.get(node0, 5));
+        assertFalse(rle.get(node0, 4));
+        assertFalse(rle.get(node0, 6));
+    }
+
+    @Test public void behaves_like_a_set_of_positions() {
+        Random random = new Random(42);
+        RunLengthEncoding rle = new RunLengthEncoding(1, 1000);
+        boolean[] expected = new boolean[1000];
+
+        for (int i = 0; i < 700; i++) {
+            int pos = random.nextInt(expected.length);
+            rle.mark(node0, pos);
+            expected[pos] = true;
+
+            int probe = random.nextInt(expected.length);
+            assertEquals(expected[probe], rle.get(node0, probe));
+        }
+
+        for (int pos = 0; pos < expected.length; pos++) {
+            assertEquals(expected[pos], rle.get(node0, pos));
+        }
+    }
+
+    @Test public void memory_grows_with_number_of_runs() {
+        int length = 1_000_000;
+        RunLengthEncoding rle = new RunLengthEncoding(1, length);
+
+        for (int i = 0; i < length; i++) rle.mark(node0, i);
+
+        assertEquals(1, rle.numberOfRuns(node0));
+        assertTrue(rle.sizeInBytes() < 100);
+    }
+
+    @Test public void prevents_exponential_backtracking() {
+        CompiledRegex regex = CompiledRegex.compile(RParser.parse("(a|a)*b"),
+                MemoisationPolicy.ALL,
+                MemoisationEncodingScheme.RLE);
+
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 200; i++) input.append('a');
+
+        assertFalse(regex.match(input.toString()).hasMatch);
+    }
+
+    private static RAst node(int row) {
+        RAst node = RAst.group('a');
+        node.setIndexInBitMap(row);
+        return node;
+    }
+}
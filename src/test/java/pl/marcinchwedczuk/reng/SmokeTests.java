@@ -2,11 +2,33 @@ package pl.marcinchwedczuk.reng;
 
 import org.junit.Ignore;
 import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
 import pl.marcinchwedczuk.reng.parser.RParser;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
 import static org.junit.Assert.*;
 
+@RunWith(Parameterized.class)
 public class SmokeTests {
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> engines() {
+        List<Object[]> engines = new ArrayList<>();
+        for (MatchEngine engine : MatchEngine.values()) {
+            engines.add(new Object[] { engine });
+        }
+        return engines;
+    }
+
+    private final MatchEngine engine;
+
+    public SmokeTests(MatchEngine engine) {
+        this.engine = engine;
+    }
+
     @Test
     public void parse_double_literal() {
         String r = "^[-+]?(([0-9]+(\\.[0-9]*)?)|(\\.[0-9]+))([Ee]-?[0-9]+)?$";
@@ -93,16 +115,22 @@ public class SmokeTests {
         assertFullMatch(input, ast);
     }
 
-    private static void assertFullMatch(String input, RAst regex) {
-        Match m = BacktrackingMatcher.match(input, regex);
+    private Match match(String input, RAst regex) {
+        return CompiledRegex
+                .compile(regex, MemoisationPolicy.ALL, MemoisationEncodingScheme.BIT_MAP, engine)
+                .match(input);
+    }
+
+    private void assertFullMatch(String input, RAst regex) {
+        Match m = match(input, regex);
 
         assertTrue(
                 "Regex " + regex + " should match '" + input + "'.",
                 m.hasMatch && m.matched().equals(input));
     }
 
-    private static void assertNotMatches(String input, RAst regex) {
-        Match m = BacktrackingMatcher.match(input, regex);
+    private void assertNotMatches(String input, RAst regex) {
+        Match m = match(input, regex);
 
         assertFalse(
                 "Regex " + regex + " should NOT match '" + input + "'.",
@@ -0,0 +1,123 @@
+package pl.marcinchwedczuk.reng;
+
+import org.junit.Test;
+import pl.marcinchwedczuk.reng.parser.RParser;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class StackBacktrackingMatcherTest {
+    @Test public void gives_same_results_as_recursive_matcher() {
+        String[] regexes = {
+                "(a|b)*c", "^(a|ab)(c|bcd)(d*)$", "(a*)*b", "(foo|bar)+baz",
+                "^[-+]?(([0-9]+(\\.[0-9]*)?)|(\\.[0-9]+))([Ee]-?[0-9]+)?$",
+                "a{2,3}", "(x?)*y", "(?=ab)a", "a(?!b)", "(a|b)\\1", "^(a+)\\1$",
+                "((a)|b)+", "(a{2}b){1,2}", "(?=(a+))a*b"
+        };
+        String[] inputs = {
+                "", "c", "abac", "abcd", "aaab", "b", "foobarbaz", "-1.5e10",
+                ".5", "aaaa", "xxy", "y", "ab", "ac", "aa", "bb", "aabaab"
+        };
+
+        for (String regex : regexes) {
+            for (String input : inputs) {
+                assertSameResults(RParser.parse(regex), input);
+            }
+        }
+    }
+
+    @Test public void gives_same_results_as_recursive_matcher_on_random_regexes() {
+        Random random = new Random(1234);
+
+        for (int i = 0; i < 500; i++) {
+            RAst regex = randomRegex(random, 4);
+            for (int j = 0; j < 10; j++) {
+                assertSameResults(regex, randomInput(random));
+            }
+        }
+    }
+
+    @Test public void matches_long_inputs_without_growing_java_stack() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 200_000; i++) sb.append((char) ('a' + i % 26));
+        String input = sb.append('z').toString();
+
+        CompiledRegex regex = compile("^(.*)(x|z)$", MemoisationPolicy.ALL);
+        Match m = regex.match(input);
+
+        assertTrue(m.hasMatch);
+        assertEquals(input.length(), m.end);
+    }
+
+    @Test public void memoisation_prevents_exponential_backtracking() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 10_000; i++) sb.append('a');
+
+        for (MemoisationEncodingScheme scheme : MemoisationEncodingScheme.values()) {
+            CompiledRegex regex = CompiledRegex.compile(RParser.parse("(a|a)*b"),
+                    MemoisationPolicy.ALL, scheme, MatchEngine.STACK_BACKTRACKING);
+
+            assertFalse(regex.match(sb.toString()).hasMatch);
+        }
+    }
+
+    @Test public void backtracking_stack_keeps_branch_points() {
+        CompiledRegex regex = compile("a*", MemoisationPolicy.NONE);
+        StackBacktrackingMatcher matcher = new StackBacktrackingMatcher(regex, "aaa");
+
+        assertEquals(3, matcher.match().end);
+
+        // Before each iteration of a* we can backtrack to its exit,
+        // the branch taken after the failed fourth iteration is gone.
+        assertEquals(3, matcher.stack().points(StackBacktrackingMatcher.BRANCH).size());
+        for (BacktrackingPoint p : matcher.stack().points(StackBacktrackingMatcher.BRANCH)) {
+            assertTrue(p.getIndex() >= 0 && p.getIndex() <= 3);
+        }
+    }
+
+    private static void assertSameResults(RAst regex, String input) {
+        for (MemoisationPolicy policy : MemoisationPolicy.values()) {
+            Match expected = CompiledRegex.compile(regex, policy,
+                    MemoisationEncodingScheme.BIT_MAP, MatchEngine.BACKTRACKING).match(input);
+            Match actual = CompiledRegex.compile(regex, policy,
+                    MemoisationEncodingScheme.BIT_MAP, MatchEngine.STACK_BACKTRACKING).match(input);
+
+            String msg = regex + " on '" + input + "' with " + policy;
+            assertEquals(msg, expected.hasMatch, actual.hasMatch);
+            assertEquals(msg, expected.start, actual.start);
+            assertEquals(msg, expected.end, actual.end);
+        }
+    }
+
+    private static CompiledRegex compile(String regex, MemoisationPolicy policy) {
+        return CompiledRegex.compile(RParser.parse(regex), policy,
+                MemoisationEncodingScheme.BIT_MAP, MatchEngine.STACK_BACKTRACKING);
+    }
+
+    static RAst randomRegex(Random random, int depth) {
+        int choice = random.nextInt(depth <= 0 ? 3 : 11);
+        switch (choice) {
+            case 0: return RAst.group((char) ('a' + random.nextInt(3)));
+            case 1: return RAst.group('a', 'b');
+            case 2: return RAst.any();
+            case 3: return RAst.concat(randomRegex(random, depth - 1), randomRegex(random, depth - 1));
+            case 4: return RAst.alternative(randomRegex(random, depth - 1), randomRegex(random, depth - 1));
+            case 5: return RAst.star(randomRegex(random, depth - 1));
+            case 6: return RAst.plus(randomRegex(random, depth - 1));
+            case 7: return RAst.repeat(randomRegex(random, depth - 1), random.nextInt(2), 1 + random.nextInt(3));
+            case 8: return RAst.captureGroup(randomRegex(random, depth - 1), 1);
+            case 9: return random.nextBoolean() ? RAst.atBeginning() : RAst.atEnd();
+            default: return random.nextBoolean()
+                    ? RAst.posLookahead(randomRegex(random, depth - 1))
+                    : RAst.negLookahead(randomRegex(random, depth - 1));
+        }
+    }
+
+    static String randomInput(Random random) {
+        int length = random.nextInt(8);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) sb.append((char) ('a' + random.nextInt(4)));
+        return sb.toString();
+    }
+}
@@ -0,0 +1,82 @@
+package pl.marcinchwedczuk.reng;
+
+import org.junit.Test;
+import pl.marcinchwedczuk.reng.parser.RParser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class StartPositionScannerTest {
+    @Test public void chooses_scanner_from_regex_head() {
+        assertEquals("Anchored", scanner("^(foo|bar)").toString());
+        assertEquals("CharSet", scanner("^foo|bar").toString());
+        assertEquals("LiteralPrefix(ERROR )", scanner("(ERROR )[0-9]+").toString());
+        assertEquals("SingleChar(a)", scanner("ab*").toString());
+        assertEquals("CharSet", scanner("(foo|bar)+").toString());
+        assertEquals("CharSet", scanner("x*y?[0-9]").toString());
+        assertEquals("Anywhere", scanner("x*").toString());
+        assertEquals("Anywhere", scanner("[^a]b").toString());
+        assertEquals("Anywhere", scanner("(?=a)a").toString());
+    }
+
+    @Test public void finds_all_candidates() {
+        assertEquals(list(2, 9), candidates("abcd", "xxabcdxxxabcd"));
+        assertEquals(list(2), candidates("aab", "aaaab"));
+        assertEquals(list(1, 4), candidates("a[bc]", "xaxxa"));
+        assertEquals(list(1, 2, 3, 4), candidates("x*y?[0-9]", "a1y23"));
+        assertEquals(list(0), candidates("^a", "aaa"));
+        assertEquals(list(0, 1, 2), candidates("x*", "ab"));
+    }
+
+    @Test public void literal_prefix_handles_chars_outside_latin1() {
+        // Both chars have the same low byte as 'a'
+        assertEquals(list(2), candidates("šɡ", "šašɡ"));
+    }
+
+    @Test public void skips_to_candidates_without_changing_results() {
+        String[] regexes = { "foo|bar", "(ab)+c", "a[bc]d*", "^ab", "x*y?[0-9]" };
+        String[] inputs = { "", "xxbarfoo", "ababababc", "zzacdd", "aby", "abab7" };
+
+        for (String regex : regexes) {
+            for (String input : inputs) {
+                Match expected = BacktrackingMatcher.match(input, RParser.parse(regex),
+                        MemoisationPolicy.NONE, MemoisationEncodingScheme.BIT_MAP);
+
+                for (MatchEngine engine : MatchEngine.values()) {
+                    Match actual = CompiledRegex.compile(RParser.parse(regex),
+                            MemoisationPolicy.ALL, MemoisationEncodingScheme.BIT_MAP, engine)
+                            .match(input);
+
+                    String msg = engine + ": " + regex + " on '" + input + "'";
+                    assertEquals(msg, expected.hasMatch, actual.hasMatch);
+                    assertEquals(msg, expected.start, actual.start);
+                    assertEquals(msg, expected.end, actual.end);
+                }
+            }
+        }
+    }
+
+    private static StartPositionScanner scanner(String regex) {
+        return StartPositionScanner.of(RParser.parse(regex));
+    }
+
+    private static List<Integer> candidates(String regex, String input) {
+        StartPositionScanner scanner = scanner(regex);
+        List<Integer> result = new ArrayList<>();
+
+        for (int i = scanner.nextCandidate(input, 0);
+                i != StartPositionScanner.NO_CANDIDATE;
+                i = scanner.nextCandidate(input, i + 1)) {
+            result.add(i);
+        }
+        return result;
+    }
+
+    private static List<Integer> list(Integer... values) {
+        List<Integer> result = new ArrayList<>();
+        for (Integer v : values) result.add(v);
+        return result;
+    }
+}
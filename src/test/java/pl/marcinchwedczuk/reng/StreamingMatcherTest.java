@@ -0,0 +1,107 @@
+package pl.marcinchwedczuk.reng;
+
+import org.junit.Test;
+import pl.marcinchwedczuk.reng.parser.RParser;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class StreamingMatcherTest {
+    @Test public void finds_all_matches() throws IOException {
+        assertEquals("[1-3:12, 4-7:345]", findAll("[0-9]+", "a12b345c", 4));
+    }
+
+    @Test public void reports_empty_matches() throws IOException {
+        assertEquals("[0-0:, 1-1:, 2-2:]", findAll("x*", "ab", 4));
+    }
+
+    @Test public void anchors_refer_to_the_whole_stream() throws IOException {
+        assertEquals("[0-1:a]", findAll("^a", "aaa", 2));
+        assertEquals("[2-3:a]", findAll("a$", "aaa", 2));
+    }
+
+    @Test public void matches_can_span_the_buffer_wrap_around() throws IOException {
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 1000; i++) input.append("xxxxxab");
+
+        List<String> matches = new ArrayList<>();
+        long count = new StreamingMatcher(compile("(a|ab)b*"), StreamingInput.of(new StringReader(input.toString()), 8))
+                .findAll((start, end, matched) -> matches.add(start + "-" + end + ":" + matched));
+
+        assertEquals(1000, count);
+        assertEquals("5-7:ab", matches.get(0));
+        assertEquals("6998-7000:ab", matches.get(999));
+    }
+
+    @Test public void gives_same_matches_as_java_regex() throws IOException {
+        Random random = new Random(1234);
+        String[] patterns = { "(ab|a)c*", "[abc]+d", "(a|b)*c", "a(b|c)a" };
+
+        for (int i = 0; i < 200; i++) {
+            StringBuilder input = new StringBuilder();
+            int length = random.nextInt(60);
+            for (int j = 0; j < length; j++) input.append((char) ('a' + random.nextInt(4)));
+
+            for (String pattern : patterns) {
+                assertEquals(pattern + " on " + input,
+                        javaFindAll(pattern, input.toString()),
+                        findAll(pattern, input.toString(), 64));
+            }
+        }
+    }
+
+    @Test public void decodes_channels() throws IOException {
+        byte[] bytes = "zażółć gęślą jaźń".getBytes(StandardCharsets.UTF_8);
+        List<String> matches = new ArrayList<>();
+
+        StreamingMatcher.findAll(compile("[ąęółćśźż]+"),
+                Channels.newChannel(new ByteArrayInputStream(bytes)), StandardCharsets.UTF_8,
+                (start, end, matched) -> matches.add(matched));
+
+        assertEquals("[żółć, ęś, ą, ź]", matches.toString());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void match_attempts_longer_than_the_window_fail() throws IOException {
+        findAll("a*b", "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa", 16);
+    }
+
+    @Test public void memoisation_columns_are_reused() throws IOException {
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 200; i++) input.append("aaaaaaaaaaaaaaaaaaaa!");
+
+        // Without the memo table every attempt would be exponential
+        String matches = findAll("(a|a)*!", input.toString(), 32);
+        assertTrue(matches.startsWith("[0-21:aaaaaaaaaaaaaaaaaaaa!, 21-42:"));
+    }
+
+    private static String findAll(String pattern, String input, int window) throws IOException {
+        List<String> matches = new ArrayList<>();
+        new StreamingMatcher(compile(pattern), StreamingInput.of(new StringReader(input), window))
+                .findAll((start, end, matched) -> matches.add(start + "-" + end + ":" + matched));
+        return matches.toString();
+    }
+
+    private static String javaFindAll(String pattern, String input) {
+        List<String> matches = new ArrayList<>();
+        java.util.regex.Matcher m = Pattern.compile(pattern).matcher(input);
+        while (m.find()) {
+            matches.add(m.start() + "-" + m.end() + ":" + m.group());
+        }
+        return matches.toString();
+    }
+
+    private static CompiledRegex compile(String pattern) {
+        return CompiledRegex.compile(RParser.parse(pattern),
+                MemoisationPolicy.ALL, MemoisationEncodingScheme.BIT_MAP);
+    }
+}
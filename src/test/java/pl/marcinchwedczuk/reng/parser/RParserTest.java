@@ -102,4 +102,20 @@ public class RParserTest {
         RAst ast = RParser.parse("...");
         assertEquals("...", ast.toString());
     }
+
+    @Test public void parse_lookaheads_and_backreferences() {
+        RAst ast = RParser.parse("(a)(?=b)(?!c)\\1");
+        assertEquals("(a)(?=b)(?!c)\\1", ast.toString());
+    }
+
+    @Test public void parse_atomic_groups_and_possessive_quantifiers() {
+        RAst ast = RParser.parse("(?>ab|a)c");
+        assertEquals("(?>ab|a)c", ast.toString());
+
+        ast = RParser.parse("a*+b++c?+d{2,3}+");
+        assertEquals("a*+b++c?+d{2,3}+", ast.toString());
+
+        // Possessive quantifier is an atomic repetition
+        assertEquals("a*+", RParser.parse("(?>a*)").toString());
+    }
 }